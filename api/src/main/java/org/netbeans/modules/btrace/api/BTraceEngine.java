@@ -22,6 +22,9 @@
 
 package org.netbeans.modules.btrace.api;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import org.netbeans.modules.btrace.api.impl.BTraceEngineImpl;
 
 /**
@@ -47,4 +50,23 @@ public abstract class BTraceEngine {
      *         or null if it is not possible to run BTrace against the application
      */
     abstract public BTraceTask createTask(int pid);
+
+    /**
+     * Factory method for {@linkplain BTraceTaskGroup} instances<br>
+     * The group compiles its script only once and deploys it to all the processes concurrently
+     * @param pids The PIDs of the applications to create the group for
+     * @return Returns a {@linkplain BTraceTaskGroup} instance containing one task per PID
+     *         or null if the engine does not support task groups
+     */
+    public BTraceTaskGroup createTaskGroup(Collection<Integer> pids) {
+        return null;
+    }
+
+    /**
+     * A snapshot of the engine statistics (eg. the compiled script cache hits and misses)
+     * @return Returns the named counters collected by the engine
+     */
+    public Map<String, Number> getStatistics() {
+        return Collections.emptyMap();
+    }
 }
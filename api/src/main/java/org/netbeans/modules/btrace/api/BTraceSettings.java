@@ -27,10 +27,298 @@ package org.netbeans.modules.btrace.api;
  * @author Jaroslav Bachorik 
  */
 abstract public class BTraceSettings {
+    /**
+     * Defines what happens when the agent sends data faster than they can be dispatched
+     */
+    public static enum OverflowPolicy {
+        /**
+         * The reader waits until there is space in the dispatch queue
+         */
+        BLOCK,
+        /**
+         * The oldest queued data command is discarded
+         */
+        DROP_OLDEST,
+        /**
+         * The newly received data command is discarded
+         */
+        DROP_NEWEST,
+        /**
+         * Only every n-th overflowing data command is kept (replacing the oldest one)
+         * @see BTraceSettings#getDispatchSampleRate()
+         */
+        SAMPLE
+    }
+
     abstract public boolean isDebugMode();
     abstract public String getDumpClassPath();
     abstract public boolean isDumpClasses();
     public String getStatsd() {
         return null;
     }
+
+    /**
+     * The directory used to persist the compiled scripts between the IDE sessions
+     * @return Returns the cache directory or NULL if the compiled scripts should be kept in memory only
+     */
+    public String getScriptCachePath() {
+        return null;
+    }
+
+    /**
+     * @return Returns the maximum number of compiled scripts kept in memory
+     */
+    public int getScriptCacheSize() {
+        return 32;
+    }
+
+    /**
+     * @return Returns the maximum number of concurrent attach/submit cycles when deploying a {@linkplain BTraceTaskGroup}
+     */
+    public int getDeployParallelism() {
+        return 8;
+    }
+
+    /**
+     * The time a single application of a {@linkplain BTraceTaskGroup} has to get its script running<br>
+     * An application exceeding it is marked as failed and frees its slot for the next one
+     * @return Returns the deploy timeout in milliseconds
+     */
+    public long getDeployTimeout() {
+        return 60000;
+    }
+
+    /**
+     * Opt-in for running the per-task communication on virtual threads<br>
+     * Ignored when the runtime does not support virtual threads
+     * @return Returns TRUE if virtual threads should be used
+     */
+    public boolean isVirtualThreads() {
+        return false;
+    }
+
+    /**
+     * The maximum number of the tasks attaching and submitting their scripts at once on virtual threads<br>
+     * The tasks over the limit wait until a running one has submitted its script; the running
+     * tasks are not limited. The virtual thread carrier pool is process-wide and is sized by
+     * the {@code jdk.virtualThreadScheduler.parallelism} option of the IDE command line
+     * @return Returns the maximum number of the concurrent attach/submit phases or 0 for no limit
+     */
+    public int getVirtualThreadConcurrency() {
+        return 0;
+    }
+
+    /**
+     * @return Returns the capacity of the per-task dispatch queue
+     */
+    public int getDispatchQueueCapacity() {
+        return 16384;
+    }
+
+    /**
+     * @return Returns the policy applied when the per-task dispatch queue is full<br>
+     *         Control commands (eg. errors or exit) are never dropped
+     */
+    public OverflowPolicy getDispatchOverflowPolicy() {
+        return OverflowPolicy.BLOCK;
+    }
+
+    /**
+     * @return Returns <b>n</b> where every n-th overflowing command is kept by {@linkplain OverflowPolicy#SAMPLE}
+     */
+    public int getDispatchSampleRate() {
+        return 10;
+    }
+
+    /**
+     * @return Returns the maximum number of commands delivered to the dispatchers in one batch
+     */
+    public int getDispatchBatchSize() {
+        return 512;
+    }
+
+    /**
+     * @return Returns the time in milliseconds to accumulate a batch of commands for before delivering it;
+     *         0 delivers whatever is available immediately
+     */
+    public long getDispatchBatchWindow() {
+        return 0;
+    }
+
+    /**
+     * @return Returns the number of samples per time series chunk
+     */
+    public int getTimeSeriesChunkSize() {
+        return 1024;
+    }
+
+    /**
+     * @return Returns the number of the most recent time series chunks kept at full resolution
+     */
+    public int getTimeSeriesRawChunks() {
+        return 4;
+    }
+
+    /**
+     * @return Returns the number of samples aggregated into one bucket when an older time series chunk is downsampled
+     */
+    public int getTimeSeriesDownsampleFactor() {
+        return 16;
+    }
+
+    /**
+     * @return Returns the number of downsampled chunks retained per time series
+     */
+    public int getTimeSeriesMaxChunks() {
+        return 64;
+    }
+
+    /**
+     * @return Returns the maximum number of time series kept per task
+     */
+    public int getTimeSeriesMaxSeries() {
+        return 1024;
+    }
+
+    /**
+     * A map with many keys would otherwise create a series per key
+     * @return Returns TRUE if each numeric map entry should be kept as a time series
+     */
+    public boolean isTimeSeriesMapExpansion() {
+        return false;
+    }
+
+    /**
+     * The directory the session recordings are written to
+     * @return Returns the recording directory or NULL if the sessions should not be recorded
+     */
+    public String getRecordingPath() {
+        return null;
+    }
+
+    /**
+     * @return Returns the size of a session recording segment in bytes
+     */
+    public long getRecordingSegmentSize() {
+        return 64L * 1024 * 1024;
+    }
+
+    /**
+     * @return Returns the maximum number of segments retained per recording; 0 means unlimited
+     */
+    public int getRecordingMaxSegments() {
+        return 0;
+    }
+
+    /**
+     * The numeric series aggregated into latency histograms and reported to the console
+     * @return Returns a comma separated list of series name globs or NULL to disable the histograms
+     */
+    public String getHistogramSeries() {
+        return null;
+    }
+
+    /**
+     * @return Returns the histogram reporting interval in milliseconds
+     */
+    public long getHistogramInterval() {
+        return 10000;
+    }
+
+    /**
+     * @return Returns the highest value tracked precisely by the histograms
+     */
+    public long getHistogramHighestValue() {
+        return 3600L * 1000 * 1000 * 1000;
+    }
+
+    /**
+     * @return Returns the number of significant decimal digits kept by the histograms (0-5)
+     */
+    public int getHistogramDigits() {
+        return 2;
+    }
+
+    /**
+     * @return Returns the maximum number of histogram series kept per task
+     */
+    public int getHistogramMaxSeries() {
+        return 64;
+    }
+
+    /**
+     * The directory the received data are exported to
+     * @return Returns the export directory or NULL to disable the export
+     */
+    public String getExportPath() {
+        return null;
+    }
+
+    /**
+     * @return Returns the export file size in bytes triggering the rotation; 0 disables the size based rotation
+     */
+    public long getExportMaxFileSize() {
+        return 64L * 1024 * 1024;
+    }
+
+    /**
+     * @return Returns the export file age in milliseconds triggering the rotation; 0 disables the time based rotation
+     */
+    public long getExportRotationInterval() {
+        return 3600L * 1000;
+    }
+
+    /**
+     * @return Returns TRUE if the export files should be GZIP compressed
+     */
+    public boolean isExportCompressed() {
+        return false;
+    }
+
+    /**
+     * The events are recorded only when the JVM running the tool supports
+     * the JDK Flight Recorder and a recording is active
+     * @return Returns TRUE if the received data should be re-emitted as JFR events
+     */
+    public boolean isExportJfr() {
+        return false;
+    }
+
+    /**
+     * @return Returns the port of the local metrics endpoint; 0 disables the endpoint
+     */
+    public int getMetricsPort() {
+        return 0;
+    }
+
+    /**
+     * @return Returns the address the local metrics endpoint binds to
+     */
+    public String getMetricsAddress() {
+        return "127.0.0.1"; // NOI18N
+    }
+
+    /**
+     * When enabled the statsd address is not handed over to the agent;
+     * the engine aggregates the task data and emits it to statsd itself
+     * @return Returns TRUE if the statsd metrics should be emitted from the client side
+     * @see #getStatsd()
+     */
+    public boolean isStatsdClientSide() {
+        return false;
+    }
+
+    /**
+     * @return Returns the interval in milliseconds the client side statsd metrics are aggregated over
+     */
+    public long getStatsdFlushInterval() {
+        return 1000;
+    }
+
+    /**
+     * @return Returns the maximum size of a client side statsd datagram in bytes
+     */
+    public int getStatsdPacketSize() {
+        return 1432;
+    }
 }
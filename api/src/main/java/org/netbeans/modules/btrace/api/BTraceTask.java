@@ -27,6 +27,14 @@ import java.util.EventListener;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.netbeans.modules.btrace.api.data.HistogramAggregator;
+import org.netbeans.modules.btrace.api.data.TimeSeriesStore;
 
 /**
  * This class represents a single BTrace script
@@ -55,10 +63,90 @@ public abstract class BTraceTask {
      */
     public static abstract class MessageDispatcher implements EventListener {
         public void onPrintMessage(String message) {};
-        public void onNumberMessage(String name, Number value) {};
+        /**
+         * Receives a numeric value; by default routes the value to
+         * {@linkplain #onNumberMessage(String, long)} for integral values
+         * and to {@linkplain #onNumberMessage(String, double)} for the rest
+         * @param name The value name
+         * @param value The value
+         */
+        public void onNumberMessage(String name, Number value) {
+            if (NumberMapView.isIntegral(value)) {
+                onNumberMessage(name, value.longValue());
+            } else if (value != null) {
+                onNumberMessage(name, value.doubleValue());
+            }
+        }
+        /**
+         * Receives an integral numeric value without boxing
+         * @param name The value name
+         * @param value The value
+         */
+        public void onNumberMessage(String name, long value) {}
+        /**
+         * Receives a non-integral numeric value without boxing
+         * @param name The value name
+         * @param value The value
+         */
+        public void onNumberMessage(String name, double value) {}
+        /**
+         * Receives a batch of consecutive messages; by default delegates
+         * to {@linkplain #onPrintMessage(String)} for each of them
+         * @param messages The messages in the order of arrival; valid only during the call
+         */
+        public void onPrintMessages(List<String> messages) {
+            for(String message : messages) {
+                onPrintMessage(message);
+            }
+        }
+        /**
+         * Receives a batch of consecutive numeric values; by default delegates
+         * to {@linkplain #onNumberMessage(String, Number)} for each of them
+         * @param names The value names in the order of arrival; valid only during the call
+         * @param values The values corresponding to the names; valid only during the call
+         */
+        public void onNumberMessages(List<String> names, List<Number> values) {
+            for(int i = 0; i < names.size(); i++) {
+                onNumberMessage(names.get(i), values.get(i));
+            }
+        }
         public void onGrid(String name, List<Object[]> data) {};
-        public void onNumberMap(String name, Map<String, ? extends Number> data) {};
+        /**
+         * Receives a numeric map; by default converts the map to a
+         * {@linkplain NumberMapView} and calls {@linkplain #onNumberMap(String, NumberMapView)}
+         * @param name The map name
+         * @param data The map
+         */
+        public void onNumberMap(String name, Map<String, ? extends Number> data) {
+            onNumberMap(name, NumberMapView.of(data));
+        }
+        /**
+         * Receives a numeric map as parallel key and value arrays
+         * @param name The map name
+         * @param data The map view; shared among the dispatchers and must not be modified
+         */
+        public void onNumberMap(String name, NumberMapView data) {}
         public void onStringMap(String name, Map<String, String> data) {};
+        /**
+         * Receives the changes of a numeric map since its previous dump
+         * <p>
+         * The engine tracks the map snapshots only while there is a dispatcher
+         * overriding this method
+         * </p>
+         * @param name The map name
+         * @param delta The changes; shared among the dispatchers and valid only during the call
+         */
+        public void onNumberMapDelta(String name, MapDelta<Number> delta) {}
+        /**
+         * Receives the changes of a string map since its previous dump
+         * <p>
+         * The engine tracks the map snapshots only while there is a dispatcher
+         * overriding this method
+         * </p>
+         * @param name The map name
+         * @param delta The changes; shared among the dispatchers and valid only during the call
+         */
+        public void onStringMapDelta(String name, MapDelta<String> delta) {}
         public void onClassInstrumented(String name) {}
         public void onError(Throwable cause) {}
     }
@@ -119,6 +207,20 @@ public abstract class BTraceTask {
 
     abstract public void addMessageDispatcher(MessageDispatcher dispatcher);
 
+    /**
+     * Registers a dispatcher receiving only the subscribed data<br>
+     * Registering an already registered dispatcher changes its subscription
+     * @param dispatcher {@linkplain MessageDispatcher} instance to add
+     * <p>
+     * The default implementation ignores the subscription and registers the
+     * dispatcher for all the data
+     * </p>
+     * @param subscription The data the dispatcher is interested in
+     */
+    public void addMessageDispatcher(MessageDispatcher dispatcher, Subscription subscription) {
+        addMessageDispatcher(dispatcher);
+    }
+
     abstract public void removeMessageDispatcher(MessageDispatcher dispatcher);
 
     /**
@@ -131,6 +233,106 @@ public abstract class BTraceTask {
      */
     abstract public void stop();
 
+    /**
+     * Starts the injected code without blocking the caller
+     * <p>
+     * Cancelling the returned future aborts the startup; a task which
+     * manages to start anyway is stopped right away
+     * </p>
+     * <p>
+     * The default implementation runs the blocking {@linkplain #start()} in the
+     * common pool; it can not abort a startup in progress
+     * </p>
+     * @return Returns a future completed with the state the task settles in
+     *         (either {@linkplain State#RUNNING} or {@linkplain State#FAILED})
+     */
+    public CompletableFuture<State> startAsync() {
+        return callAsync(this::start);
+    }
+
+    /**
+     * Starts the injected code without blocking the caller
+     * @param timeout The maximum time to wait for the task to start
+     * @param unit The timeout unit
+     * @return Returns a future completed with the state the task settles in;
+     *         if the task does not start in time the future is completed with
+     *         a {@linkplain java.util.concurrent.TimeoutException} and the startup is aborted
+     */
+    public CompletableFuture<State> startAsync(long timeout, TimeUnit unit) {
+        final CompletableFuture<State> started = startAsync();
+        final CompletableFuture<State> result = new CompletableFuture<>();
+        started.whenComplete((State state, Throwable e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(state);
+            }
+        });
+        // no CompletableFuture.orTimeout() on JDK 8; the common pool waits instead
+        CompletableFuture.runAsync(() -> {
+            try {
+                started.get(timeout, unit);
+            } catch (TimeoutException e) {
+                started.cancel(false);
+                result.completeExceptionally(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                // already propagated
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Stops the injected code without blocking the caller
+     * <p>
+     * The default implementation runs the blocking {@linkplain #stop()} in the common pool
+     * </p>
+     * @return Returns a future completed with the state of the task after it has been stopped
+     */
+    public CompletableFuture<State> stopAsync() {
+        return callAsync(this::stop);
+    }
+
+    private CompletableFuture<State> callAsync(final Runnable action) {
+        final AtomicReference<State> last = new AtomicReference<>();
+        final StateListener listener = new StateListener() {
+            @Override
+            public void stateChanged(State newState) {
+                last.set(newState);
+            }
+        };
+        addStateListener(listener);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                action.run();
+                return last.get();
+            } finally {
+                removeStateListener(listener);
+            }
+        });
+    }
+
+    /**
+     * Provides the time series of the numeric data received by this task
+     * <p>
+     * The store is created and starts collecting the data upon the first call
+     * </p>
+     * @return Returns the time series store of this task or NULL if the task does not keep any
+     */
+    public TimeSeriesStore getTimeSeries() {
+        return null;
+    }
+
+    /**
+     * Provides the latency histograms configured by {@linkplain BTraceSettings#getHistogramSeries()}
+     * @return Returns the histograms of the current or the last run or NULL if there are none
+     */
+    public HistogramAggregator getHistograms() {
+        return null;
+    }
+
     abstract public int getPid();
 
     /**
@@ -151,6 +353,17 @@ public abstract class BTraceTask {
      */
     abstract public void setScript(String newValue);
 
+    /**
+     * The parsed metadata of the current script; rebuilt on each {@linkplain #setScript(String)}
+     * <p>
+     * The default implementation parses the script on each call
+     * </p>
+     * @return Returns the {@linkplain ScriptModel} of the task script
+     */
+    public ScriptModel getScriptModel() {
+        return ScriptModel.parse(getScript());
+    }
+
     /**
      *
      * @return Returns the complete classpath for the task
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api;
+
+import java.util.Collection;
+import java.util.Map;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.BTraceTask.State;
+
+/**
+ * This class represents a single BTrace script deployed to multiple processes
+ * <p>
+ * The script is compiled only once and the attach/submit cycles for the
+ * particular processes run concurrently. The progress of each process is
+ * reported by its own {@linkplain BTraceTask}
+ * <pre>
+ * BTraceTaskGroup group = BTraceEngine.newInstance().createTaskGroup(PIDs)
+ * </pre>
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+public abstract class BTraceTaskGroup {
+    /**
+     * @return Returns the tasks of this group; one per process
+     */
+    abstract public Collection<BTraceTask> getTasks();
+
+    /**
+     * @param pid The application PID
+     * @return Returns the task bound to the given process or NULL
+     */
+    abstract public BTraceTask getTask(int pid);
+
+    /**
+     * @return Returns the current state of each task keyed by its PID
+     */
+    abstract public Map<Integer, State> getStates();
+
+    /**
+     * Property getter
+     * @return Returns the script source code
+     */
+    abstract public String getScript();
+
+    /**
+     * Property setter
+     * @param newValue The script source code to be used by all the tasks
+     */
+    abstract public void setScript(String newValue);
+
+    /**
+     * Registers the dispatcher with all the tasks of the group
+     * @param dispatcher {@linkplain MessageDispatcher} instance to add
+     */
+    abstract public void addMessageDispatcher(MessageDispatcher dispatcher);
+
+    /**
+     * Registers the dispatcher with all the tasks of the group
+     * @param dispatcher {@linkplain MessageDispatcher} instance to add
+     * <p>
+     * The default implementation ignores the subscription and registers the
+     * dispatcher for all the data
+     * </p>
+     * @param subscription The data the dispatcher is interested in
+     */
+    public void addMessageDispatcher(MessageDispatcher dispatcher, Subscription subscription) {
+        addMessageDispatcher(dispatcher);
+    }
+
+    /**
+     * Unregisters the dispatcher from all the tasks of the group
+     * @param dispatcher {@linkplain MessageDispatcher} instance to remove
+     */
+    abstract public void removeMessageDispatcher(MessageDispatcher dispatcher);
+
+    /**
+     * Compiles the script and deploys it to all the processes<br>
+     * Returns after all the tasks are either running or failed
+     */
+    abstract public void start();
+
+    /**
+     * Stops the injected code in all the processes
+     */
+    abstract public void stop();
+}
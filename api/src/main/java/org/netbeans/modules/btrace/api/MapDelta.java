@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Describes the changes of a named map between two consecutive dumps
+ * <p>
+ * When {@linkplain #isReset()} returns TRUE the delta carries the complete
+ * map in {@linkplain #getAdded()} and any previously accumulated state
+ * must be discarded; this is the case for the first dump of a map and
+ * whenever the engine could not track the changes continuously.
+ * </p>
+ * @param <V> The map value type
+ * @author Jaroslav Bachorik
+ */
+public final class MapDelta<V> {
+    final private String name;
+    final private Map<String, V> added;
+    final private Map<String, V> changed;
+    final private Set<String> removed;
+    final private int size;
+    final private boolean reset;
+
+    public MapDelta(String name, Map<String, V> added, Map<String, V> changed, Set<String> removed, int size, boolean reset) {
+        this.name = name;
+        this.added = added;
+        this.changed = changed;
+        this.removed = removed;
+        this.size = size;
+        this.reset = reset;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Returns the entries not present in the previous dump
+     */
+    public Map<String, V> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return Returns the entries whose value differs from the previous dump
+     */
+    public Map<String, V> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return Returns the keys present in the previous dump only
+     */
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return Returns the number of entries in the current dump
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return Returns TRUE if the delta carries the complete map
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    /**
+     * @return Returns TRUE if the map has not changed since the previous dump
+     */
+    public boolean isEmpty() {
+        return !reset && added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-only view of a numeric map backed by parallel arrays
+ * <p>
+ * The keys are held in a {@linkplain String} array and the values in either
+ * a <b>long</b> or a <b>double</b> array, depending on whether all the values
+ * of the source map are integral or not. This allows consumers to process
+ * the map values without unboxing and without checking the actual
+ * {@linkplain Number} subtype of each value.
+ * </p>
+ * <p>
+ * The arrays are exposed directly and must not be modified.
+ * </p>
+ * @author Jaroslav Bachorik
+ */
+public final class NumberMapView {
+    final private String[] keys;
+    final private long[] longs;
+    final private double[] doubles;
+
+    private NumberMapView(String[] keys, long[] longs, double[] doubles) {
+        this.keys = keys;
+        this.longs = longs;
+        this.doubles = doubles;
+    }
+
+    /**
+     * Creates a view of the given map in a single pass
+     * @param data The map to create the view for
+     * @return Returns a new {@linkplain NumberMapView} instance
+     */
+    public static NumberMapView of(Map<String, ? extends Number> data) {
+        int size = data.size();
+        String[] keys = new String[size];
+        long[] longs = new long[size];
+        double[] doubles = null;
+        int i = 0;
+        for(Map.Entry<String, ? extends Number> e : data.entrySet()) {
+            if (i == size) {
+                break; // the map has grown in the meantime
+            }
+            Number n = e.getValue();
+            keys[i] = e.getKey();
+            if (doubles == null && isIntegral(n)) {
+                longs[i] = n.longValue();
+            } else {
+                if (doubles == null) {
+                    doubles = new double[size];
+                    for(int j = 0; j < i; j++) {
+                        doubles[j] = longs[j];
+                    }
+                }
+                doubles[i] = n != null ? n.doubleValue() : Double.NaN;
+            }
+            i++;
+        }
+        if (i < size) {
+            keys = Arrays.copyOf(keys, i);
+            longs = Arrays.copyOf(longs, i);
+            if (doubles != null) {
+                doubles = Arrays.copyOf(doubles, i);
+            }
+        }
+        return doubles != null ? new NumberMapView(keys, null, doubles) : new NumberMapView(keys, longs, null);
+    }
+
+    /**
+     * @param n The number to check
+     * @return Returns TRUE if the number represents an integral value which fits a <b>long</b>
+     */
+    public static boolean isIntegral(Number n) {
+        return n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte ||
+               n instanceof AtomicLong || n instanceof AtomicInteger;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @return Returns TRUE if the values are backed by a <b>long</b> array
+     */
+    public boolean isIntegral() {
+        return longs != null;
+    }
+
+    public String getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @param index The entry index
+     * @return Returns the value at the given index; non-integral values are truncated
+     */
+    public long getLong(int index) {
+        return longs != null ? longs[index] : (long)doubles[index];
+    }
+
+    /**
+     * @param index The entry index
+     * @return Returns the value at the given index
+     */
+    public double getDouble(int index) {
+        return longs != null ? longs[index] : doubles[index];
+    }
+
+    /**
+     * @return Returns the backing key array; must not be modified
+     */
+    public String[] getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return Returns the backing value array
+     * @throws IllegalStateException if the view is not {@linkplain #isIntegral() integral}
+     */
+    public long[] getLongs() {
+        if (longs == null) {
+            throw new IllegalStateException("Non-integral values"); // NOI18N
+        }
+        return longs;
+    }
+
+    /**
+     * @return Returns the backing value array
+     * @throws IllegalStateException if the view is {@linkplain #isIntegral() integral}
+     */
+    public double[] getDoubles() {
+        if (doubles == null) {
+            throw new IllegalStateException("Integral values"); // NOI18N
+        }
+        return doubles;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parsed metadata of a BTrace script
+ * <p>
+ * The model is built by a single pass lexer; comments, string and character
+ * literals are skipped properly so the metadata is not confused by commented
+ * out code. The scan time is linear in the script size.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final public class ScriptModel {
+    /**
+     * A probe handler declared in the script
+     */
+    final public static class Probe {
+        final private String annotation;
+        final private String methodName;
+
+        Probe(String annotation, String methodName) {
+            this.annotation = annotation;
+            this.methodName = methodName;
+        }
+
+        /**
+         * @return Returns the simple name of the probe annotation (eg. <b>OnMethod</b>)
+         */
+        public String getAnnotation() {
+            return annotation;
+        }
+
+        /**
+         * @return Returns the name of the handler method
+         */
+        public String getMethodName() {
+            return methodName;
+        }
+
+        @Override
+        public String toString() {
+            return "@" + annotation + " " + methodName;
+        }
+    }
+
+    final public static ScriptModel EMPTY = new ScriptModel(null, null, false, Collections.<String>emptySet(), false, false, Collections.<Probe>emptyList());
+
+    final private String name;
+    final private String className;
+    final private boolean unsafe;
+    final private Set<String> namedEvents;
+    final private boolean anonymousEvents;
+    final private boolean events;
+    final private List<Probe> probes;
+
+    private ScriptModel(String name, String className, boolean unsafe, Set<String> namedEvents, boolean anonymousEvents, boolean events, List<Probe> probes) {
+        this.name = name;
+        this.className = className;
+        this.unsafe = unsafe;
+        this.namedEvents = namedEvents;
+        this.anonymousEvents = anonymousEvents;
+        this.events = events;
+        this.probes = probes;
+    }
+
+    /**
+     * @return Returns the name specified in the BTrace annotation or the script class name
+     */
+    public String getName() {
+        return name != null ? name : className;
+    }
+
+    /**
+     * @return Returns the simple name of the BTrace annotated class or NULL
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return Returns TRUE if the script requires to be run in BTrace <b>Unsafe</b> mode
+     */
+    public boolean isUnsafe() {
+        return unsafe;
+    }
+
+    /**
+     * @return Returns the unmodifiable set of all named events defined in the script
+     */
+    public Set<String> getNamedEvents() {
+        return namedEvents;
+    }
+
+    /**
+     * @return Returns TRUE if there are any anonymous events defined
+     */
+    public boolean hasAnonymousEvents() {
+        return anonymousEvents;
+    }
+
+    /**
+     * @return Returns TRUE if the script has defined at least one @OnEvent probe
+     */
+    public boolean hasEvents() {
+        return events;
+    }
+
+    /**
+     * @return Returns the unmodifiable list of the probe handlers in the declaration order
+     */
+    public List<Probe> getProbes() {
+        return probes;
+    }
+
+    /**
+     * Builds the model of the given script
+     * @param script The script source code
+     * @return Returns the script model; never NULL
+     */
+    public static ScriptModel parse(String script) {
+        if (script == null || script.isEmpty()) {
+            return EMPTY;
+        }
+        return new Parser(new Lexer(script)).parse();
+    }
+
+    final private static int IDENT = 0;
+    final private static int STRING = 1;
+    final private static int SYMBOL = 2;
+
+    /**
+     * Splits the script into identifiers, string literals and symbols
+     */
+    final private static class Lexer {
+        final private String src;
+        final private int len;
+        private int pos = 0;
+
+        int type;
+        String text;
+        char symbol;
+
+        Lexer(String src) {
+            this.src = src;
+            this.len = src.length();
+        }
+
+        /**
+         * Advances to the next token
+         * @return Returns FALSE at the end of the script
+         */
+        boolean next() {
+            while (pos < len) {
+                char c = src.charAt(pos);
+                if (Character.isWhitespace(c)) {
+                    pos++;
+                } else if (c == '/' && pos + 1 < len && src.charAt(pos + 1) == '/') {
+                    while (pos < len && src.charAt(pos) != '\n') {
+                        pos++;
+                    }
+                } else if (c == '/' && pos + 1 < len && src.charAt(pos + 1) == '*') {
+                    int end = src.indexOf("*/", pos + 2);
+                    pos = end < 0 ? len : end + 2;
+                } else if (c == '"') {
+                    type = STRING;
+                    text = readLiteral('"');
+                    return true;
+                } else if (c == '\'') {
+                    readLiteral('\'');
+                } else if (Character.isJavaIdentifierStart(c)) {
+                    int start = pos++;
+                    while (pos < len && Character.isJavaIdentifierPart(src.charAt(pos))) {
+                        pos++;
+                    }
+                    type = IDENT;
+                    text = src.substring(start, pos);
+                    return true;
+                } else if (Character.isDigit(c)) {
+                    while (pos < len && (Character.isLetterOrDigit(src.charAt(pos)) || src.charAt(pos) == '.')) {
+                        pos++;
+                    }
+                } else {
+                    pos++;
+                    type = SYMBOL;
+                    symbol = c;
+                    text = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private String readLiteral(char quote) {
+            StringBuilder sb = new StringBuilder();
+            pos++;
+            while (pos < len) {
+                char c = src.charAt(pos++);
+                if (c == quote || c == '\n') {
+                    break;
+                }
+                if (c == '\\' && pos < len) {
+                    c = src.charAt(pos++);
+                }
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+
+        boolean isSymbol(char c) {
+            return type == SYMBOL && symbol == c;
+        }
+    }
+
+    final private static class Parser {
+        final private Lexer lexer;
+        private boolean hasToken;
+
+        private String name;
+        private String className;
+        private boolean unsafe;
+        final private Set<String> namedEvents = new LinkedHashSet<>();
+        private boolean anonymousEvents;
+        private boolean events;
+        final private List<Probe> probes = new ArrayList<>();
+
+        Parser(Lexer lexer) {
+            this.lexer = lexer;
+        }
+
+        ScriptModel parse() {
+            boolean btrace = false;
+            String pendingProbe = null;
+            String prevIdent = null;
+            hasToken = lexer.next();
+            while (hasToken) {
+                if (lexer.isSymbol('@')) {
+                    hasToken = lexer.next();
+                    if (!hasToken || lexer.type != IDENT || "interface".equals(lexer.text)) {
+                        continue;
+                    }
+                    String annotation = readQualifiedName();
+                    Map<String, String> args = new HashMap<>();
+                    String value = hasToken && lexer.isSymbol('(') ? readArguments(args) : null;
+                    if ("BTrace".equals(annotation)) {
+                        btrace = true;
+                        if (name == null) {
+                            name = args.get("name");
+                        }
+                        unsafe |= "true".equals(args.get("unsafe")) || "true".equals(args.get("trusted"));
+                    } else if (annotation.startsWith("On")) {
+                        if ("OnEvent".equals(annotation)) {
+                            events = true;
+                            String event = value != null ? value : args.get("value");
+                            if (event != null && !event.isEmpty()) {
+                                namedEvents.add(event);
+                            } else {
+                                anonymousEvents = true;
+                            }
+                        }
+                        pendingProbe = annotation;
+                    }
+                    prevIdent = null;
+                    continue;
+                }
+                if (lexer.type == IDENT) {
+                    if (btrace && className == null && "class".equals(prevIdent)) {
+                        className = lexer.text;
+                    }
+                    prevIdent = lexer.text;
+                } else {
+                    if (pendingProbe != null && lexer.isSymbol('(') && prevIdent != null) {
+                        probes.add(new Probe(pendingProbe, prevIdent));
+                        pendingProbe = null;
+                    }
+                    prevIdent = null;
+                }
+                hasToken = lexer.next();
+            }
+            return new ScriptModel(
+                name, className, unsafe,
+                Collections.unmodifiableSet(namedEvents), anonymousEvents, events,
+                Collections.unmodifiableList(probes)
+            );
+        }
+
+        /**
+         * Reads a possibly qualified name and leaves the lexer on the following token
+         * @return Returns the simple name
+         */
+        private String readQualifiedName() {
+            String simple = lexer.text;
+            hasToken = lexer.next();
+            while (hasToken && lexer.isSymbol('.')) {
+                hasToken = lexer.next();
+                if (hasToken && lexer.type == IDENT) {
+                    simple = lexer.text;
+                    hasToken = lexer.next();
+                }
+            }
+            return simple;
+        }
+
+        /**
+         * Reads the annotation arguments; the lexer must be positioned on the opening parenthesis
+         * and is left on the token following the matching closing one
+         * @param args The collected <b>key = literal</b> pairs of the top level
+         * @return Returns the single unnamed string argument or NULL
+         */
+        private String readArguments(Map<String, String> args) {
+            String value = null;
+            String key = null;
+            boolean assign = false;
+            int depth = 0;
+            do {
+                if (lexer.type == SYMBOL) {
+                    if (lexer.symbol == '(') {
+                        depth++;
+                    } else if (lexer.symbol == ')') {
+                        depth--;
+                    } else if (lexer.symbol == '=' && depth == 1 && key != null) {
+                        assign = true;
+                        hasToken = lexer.next();
+                        continue;
+                    }
+                    key = null;
+                    assign = false;
+                } else if (depth == 1) {
+                    if (assign) {
+                        args.put(key, lexer.text);
+                        key = null;
+                        assign = false;
+                    } else if (lexer.type == STRING) {
+                        value = lexer.text;
+                    } else {
+                        key = lexer.text;
+                    }
+                }
+                hasToken = lexer.next();
+            } while (hasToken && depth > 0);
+            return value;
+        }
+    }
+}
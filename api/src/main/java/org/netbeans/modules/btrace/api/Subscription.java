@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the data a {@linkplain BTraceTask.MessageDispatcher} is interested in
+ * <p>
+ * A subscription consists of a set of data kinds and, optionally, a list
+ * of name globs (using <b>*</b> and <b>?</b> wildcards) applied to the named
+ * data - numbers, maps and grids. The data nobody subscribes to are
+ * discarded as soon as they are received.
+ * </p>
+ * <pre>
+ * task.addMessageDispatcher(chart, Subscription.to(Kind.NUMBER).named("requests.*"));
+ * </pre>
+ * @author Jaroslav Bachorik
+ */
+public final class Subscription {
+    /**
+     * The kinds of the data received from a task
+     */
+    public static enum Kind {
+        /**
+         * The printed messages
+         */
+        MESSAGE(false),
+        /**
+         * The named numeric values
+         */
+        NUMBER(true),
+        /**
+         * The named numeric maps
+         */
+        NUMBER_MAP(true),
+        /**
+         * The named string maps
+         */
+        STRING_MAP(true),
+        /**
+         * The named grids
+         */
+        GRID(true),
+        /**
+         * The notifications about the instrumented classes
+         */
+        CLASS_INSTRUMENTED(false),
+        /**
+         * The errors reported by the agent
+         */
+        ERROR(false);
+
+        final private boolean named;
+
+        private Kind(boolean named) {
+            this.named = named;
+        }
+
+        /**
+         * @return Returns TRUE if the data of this kind carry a name
+         */
+        public boolean isNamed() {
+            return named;
+        }
+    }
+
+    /**
+     * Subscribes to everything
+     */
+    final public static Subscription ALL = new Subscription(EnumSet.allOf(Kind.class), Collections.<String>emptyList());
+
+    final private Set<Kind> kinds;
+    final private List<String> globs;
+    final private Pattern pattern;
+
+    private Subscription(Set<Kind> kinds, List<String> globs) {
+        this.kinds = Collections.unmodifiableSet(kinds);
+        this.globs = Collections.unmodifiableList(globs);
+        this.pattern = globs.isEmpty() ? null : compile(globs);
+    }
+
+    /**
+     * Creates a subscription to the given data kinds
+     * @param first The first kind
+     * @param rest The other kinds
+     * @return Returns a new subscription
+     */
+    public static Subscription to(Kind first, Kind ... rest) {
+        return new Subscription(EnumSet.of(first, rest), Collections.<String>emptyList());
+    }
+
+    /**
+     * Restricts the named data to the names matching any of the given globs
+     * @param nameGlobs The name globs
+     * @return Returns a new subscription
+     */
+    public Subscription named(String ... nameGlobs) {
+        return new Subscription(EnumSet.copyOf(kinds), Arrays.asList(nameGlobs.clone()));
+    }
+
+    public Set<Kind> getKinds() {
+        return kinds;
+    }
+
+    public List<String> getNameGlobs() {
+        return globs;
+    }
+
+    /**
+     * @param kind The data kind
+     * @return Returns TRUE if the kind is subscribed to regardless of the data name
+     */
+    public boolean acceptsAll(Kind kind) {
+        return kinds.contains(kind) && (pattern == null || !kind.isNamed());
+    }
+
+    /**
+     * @param kind The data kind
+     * @param name The data name; ignored for the unnamed kinds
+     * @return Returns TRUE if the data are subscribed to
+     */
+    public boolean accepts(Kind kind, String name) {
+        if (!kinds.contains(kind)) {
+            return false;
+        }
+        if (pattern == null || !kind.isNamed()) {
+            return true;
+        }
+        return name != null && pattern.matcher(name).matches();
+    }
+
+    private static Pattern compile(List<String> globs) {
+        StringBuilder sb = new StringBuilder();
+        for(String glob : globs) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            int start = 0;
+            for(int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*' || c == '?') {
+                    if (i > start) {
+                        sb.append(Pattern.quote(glob.substring(start, i)));
+                    }
+                    sb.append(c == '*' ? ".*" : "."); // NOI18N
+                    start = i + 1;
+                }
+            }
+            if (start < glob.length()) {
+                sb.append(Pattern.quote(glob.substring(start)));
+            }
+        }
+        return Pattern.compile(sb.toString(), Pattern.DOTALL);
+    }
+
+    @Override
+    public String toString() {
+        return "Subscription{" + kinds + (globs.isEmpty() ? "" : ", " + globs) + "}"; // NOI18N
+    }
+}
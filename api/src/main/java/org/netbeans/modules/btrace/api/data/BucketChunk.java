@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.data;
+
+/**
+ * A chunk of downsampled buckets
+ * <p>
+ * Each bucket keeps the count, sum, minimum and maximum of the aggregated
+ * samples so that the aggregates computed over the downsampled data stay
+ * exact; only the position of the individual samples within the bucket is lost.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class BucketChunk {
+    final private long[] times;
+    final private int[] counts;
+    final private double[] sums;
+    final private double[] mins;
+    final private double[] maxs;
+    private int count;
+
+    BucketChunk(int capacity) {
+        times = new long[capacity];
+        counts = new int[capacity];
+        sums = new double[capacity];
+        mins = new double[capacity];
+        maxs = new double[capacity];
+    }
+
+    /**
+     * Aggregates a run of raw samples into a new bucket
+     * @param src The source chunk
+     * @param from The first sample index (inclusive)
+     * @param to The last sample index (exclusive)
+     */
+    void add(RawChunk src, int from, int to) {
+        double sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for(int i = from; i < to; i++) {
+            double v = src.value(i);
+            sum += v;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        times[count] = src.time(from);
+        counts[count] = to - from;
+        sums[count] = sum;
+        mins[count] = min;
+        maxs[count] = max;
+        count++;
+    }
+
+    boolean isFull() {
+        return count == times.length;
+    }
+
+    int size() {
+        return count;
+    }
+
+    long time(int index) {
+        return times[index];
+    }
+
+    int count(int index) {
+        return counts[index];
+    }
+
+    double sum(int index) {
+        return sums[index];
+    }
+
+    double min(int index) {
+        return mins[index];
+    }
+
+    double max(int index) {
+        return maxs[index];
+    }
+
+    double mean(int index) {
+        return sums[index] / counts[index];
+    }
+
+    long firstTime() {
+        return times[0];
+    }
+
+    long lastTime() {
+        return times[count - 1];
+    }
+
+    long footprint() {
+        return times.length * 36L;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.NumberMapView;
+import org.netbeans.modules.btrace.api.Subscription;
+import org.netbeans.modules.btrace.api.Subscription.Kind;
+
+/**
+ * Aggregates the selected numeric series into {@linkplain LatencyHistogram}s
+ * <p>
+ * Each series is tracked by an interval histogram, which is folded into
+ * the cumulative one whenever the interval is rolled over. The memory
+ * needed per series is fixed and recording a value takes constant time.
+ * The number of series is capped; the values of the series over the cap
+ * are dropped and counted.
+ * </p>
+ * <pre>
+ * HistogramAggregator h = new HistogramAggregator(3600000000000L, 2, "*.duration");
+ * task.addMessageDispatcher(h.getDispatcher(), h.getSubscription());
+ * </pre>
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class HistogramAggregator {
+    final private static int DEFAULT_MAX_SERIES = 64;
+
+    final private static class Series {
+        final LatencyHistogram interval;
+        final LatencyHistogram cumulative;
+
+        Series(LatencyHistogram interval) {
+            this.interval = interval;
+            this.cumulative = interval.newEmpty();
+        }
+    }
+
+    final private long highestTrackableValue;
+    final private int significantDigits;
+    final private int maxSeries;
+    final private Subscription subscription;
+    // guarded by this
+    final private Map<String, Series> series = new TreeMap<>();
+    private long start = System.currentTimeMillis();
+    private long intervalStart = start;
+    private long dropped;
+
+    final private MessageDispatcher dispatcher = new MessageDispatcher() {
+        @Override
+        public void onNumberMessage(String name, long value) {
+            record(name, value);
+        }
+
+        @Override
+        public void onNumberMessage(String name, double value) {
+            record(name, Math.round(value));
+        }
+
+        @Override
+        public void onNumberMessages(List<String> names, List<Number> values) {
+            synchronized(HistogramAggregator.this) {
+                for(int i = 0; i < names.size(); i++) {
+                    Number n = values.get(i);
+                    if (n != null) {
+                        record(names.get(i), NumberMapView.isIntegral(n) ? n.longValue() : Math.round(n.doubleValue()));
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * @param highestTrackableValue The highest value to be tracked precisely
+     * @param significantDigits The number of significant decimal digits kept (0-5)
+     * @param seriesGlobs The names of the aggregated series (using <b>*</b> and <b>?</b> wildcards)
+     */
+    public HistogramAggregator(long highestTrackableValue, int significantDigits, String ... seriesGlobs) {
+        this(highestTrackableValue, significantDigits, DEFAULT_MAX_SERIES, seriesGlobs);
+    }
+
+    /**
+     * @param highestTrackableValue The highest value to be tracked precisely
+     * @param significantDigits The number of significant decimal digits kept (0-5)
+     * @param maxSeries The maximum number of series
+     * @param seriesGlobs The names of the aggregated series (using <b>*</b> and <b>?</b> wildcards)
+     */
+    public HistogramAggregator(long highestTrackableValue, int significantDigits, int maxSeries, String ... seriesGlobs) {
+        LatencyHistogram.checkConfiguration(highestTrackableValue, significantDigits);
+        this.highestTrackableValue = highestTrackableValue;
+        this.significantDigits = significantDigits;
+        this.maxSeries = Math.max(1, maxSeries);
+        this.subscription = Subscription.to(Kind.NUMBER).named(seriesGlobs);
+    }
+
+    /**
+     * @return Returns the dispatcher feeding the aggregator
+     */
+    public MessageDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @return Returns the subscription to register the dispatcher with
+     */
+    public Subscription getSubscription() {
+        return subscription;
+    }
+
+    /**
+     * Records a value of a series
+     * @param name The series name
+     * @param value The value
+     */
+    public synchronized void record(String name, long value) {
+        Series s = series.get(name);
+        if (s == null) {
+            if (series.size() >= maxSeries) {
+                dropped++;
+                return;
+            }
+            s = new Series(new LatencyHistogram(highestTrackableValue, significantDigits));
+            series.put(name, s);
+        }
+        s.interval.recordValue(value);
+    }
+
+    /**
+     * @return Returns the number of values dropped because the series cap was reached
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Closes the current interval
+     * @return Returns the summaries of the series which received values in the closed interval
+     */
+    public synchronized List<HistogramSummary> rollInterval() {
+        long now = System.currentTimeMillis();
+        List<HistogramSummary> result = new ArrayList<>();
+        for(Map.Entry<String, Series> e : series.entrySet()) {
+            Series s = e.getValue();
+            if (s.interval.getTotalCount() > 0) {
+                result.add(new HistogramSummary(e.getKey(), intervalStart, now, false, s.interval));
+                s.cumulative.add(s.interval);
+                s.interval.reset();
+            }
+        }
+        intervalStart = now;
+        return result;
+    }
+
+    /**
+     * @return Returns the summaries of all the values recorded so far, including the current interval
+     */
+    public synchronized List<HistogramSummary> getCumulative() {
+        long now = System.currentTimeMillis();
+        List<HistogramSummary> result = new ArrayList<>();
+        for(Map.Entry<String, Series> e : series.entrySet()) {
+            Series s = e.getValue();
+            LatencyHistogram total = s.cumulative;
+            if (s.interval.getTotalCount() > 0) {
+                total = s.cumulative.newEmpty();
+                total.add(s.cumulative);
+                total.add(s.interval);
+            }
+            result.add(new HistogramSummary(e.getKey(), start, now, true, total));
+        }
+        return result;
+    }
+
+    /**
+     * Discards all the recorded values
+     */
+    public synchronized void reset() {
+        series.clear();
+        dropped = 0;
+        start = System.currentTimeMillis();
+        intervalStart = start;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.data;
+
+/**
+ * The percentiles of a histogram series over an interval or cumulatively
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class HistogramSummary {
+    final private String name;
+    final private long from;
+    final private long to;
+    final private boolean cumulative;
+    final private long count;
+    final private long min;
+    final private double mean;
+    final private long p50;
+    final private long p90;
+    final private long p99;
+    final private long p999;
+    final private long max;
+
+    HistogramSummary(String name, long from, long to, boolean cumulative, LatencyHistogram h) {
+        this.name = name;
+        this.from = from;
+        this.to = to;
+        this.cumulative = cumulative;
+        this.count = h.getTotalCount();
+        this.min = h.getMin();
+        this.mean = h.getMean();
+        this.p50 = h.getValueAtPercentile(50);
+        this.p90 = h.getValueAtPercentile(90);
+        this.p99 = h.getValueAtPercentile(99);
+        this.p999 = h.getValueAtPercentile(99.9);
+        this.max = h.getMax();
+    }
+
+    /**
+     * @return Returns the series name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Returns the start of the summarized period in milliseconds
+     */
+    public long getFrom() {
+        return from;
+    }
+
+    /**
+     * @return Returns the end of the summarized period in milliseconds
+     */
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * @return Returns TRUE if the summary covers all the values since the aggregation start
+     */
+    public boolean isCumulative() {
+        return cumulative;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return name + (cumulative ? " (total)" : "") // NOI18N
+               + ": count=" + count + ", p50=" + p50 + ", p90=" + p90 // NOI18N
+               + ", p99=" + p99 + ", p99.9=" + p999 + ", max=" + max; // NOI18N
+    }
+}
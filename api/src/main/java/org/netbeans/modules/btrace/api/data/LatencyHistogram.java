@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.data;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-memory histogram of non-negative values with log-bucketed linear
+ * sub-buckets, following the HdrHistogram layout
+ * <p>
+ * The values are kept with the given number of significant decimal digits
+ * up to the highest trackable value; the larger values are clamped. Recording
+ * a value is a constant time operation without any allocation.
+ * </p>
+ * <p>
+ * The class is not thread safe.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class LatencyHistogram {
+    final private long highestTrackableValue;
+    final private int significantDigits;
+    final private int subBucketHalfCountMagnitude;
+    final private int subBucketCount;
+    final private int subBucketHalfCount;
+    final private long subBucketMask;
+    final private int leadingZeroCountBase;
+    final private long[] counts;
+
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+
+    /**
+     * @param highestTrackableValue The highest value to be tracked; at least 2
+     * @param significantDigits The number of significant decimal digits kept (0-5)
+     */
+    public LatencyHistogram(long highestTrackableValue, int significantDigits) {
+        checkConfiguration(highestTrackableValue, significantDigits);
+        this.highestTrackableValue = highestTrackableValue;
+        this.significantDigits = significantDigits;
+
+        long largestSingleUnitResolution = 2 * (long)Math.pow(10, significantDigits);
+        int subBucketCountMagnitude = (int)Math.ceil(Math.log(largestSingleUnitResolution) / Math.log(2));
+        subBucketHalfCountMagnitude = Math.max(subBucketCountMagnitude, 1) - 1;
+        subBucketCount = 1 << (subBucketHalfCountMagnitude + 1);
+        subBucketHalfCount = subBucketCount / 2;
+        subBucketMask = subBucketCount - 1;
+        leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+
+        long smallestUntrackableValue = subBucketCount;
+        int bucketsNeeded = 1;
+        while (smallestUntrackableValue <= highestTrackableValue) {
+            if (smallestUntrackableValue > Long.MAX_VALUE / 2) {
+                bucketsNeeded++;
+                break;
+            }
+            smallestUntrackableValue <<= 1;
+            bucketsNeeded++;
+        }
+        counts = new long[(bucketsNeeded + 1) * subBucketHalfCount];
+    }
+
+    static void checkConfiguration(long highestTrackableValue, int significantDigits) {
+        if (highestTrackableValue < 2) {
+            throw new IllegalArgumentException("highestTrackableValue must be >= 2"); // NOI18N
+        }
+        if (significantDigits < 0 || significantDigits > 5) {
+            throw new IllegalArgumentException("significantDigits must be in 0..5"); // NOI18N
+        }
+    }
+
+    /**
+     * Creates an empty histogram with the same configuration
+     * @return Returns a new histogram
+     */
+    public LatencyHistogram newEmpty() {
+        return new LatencyHistogram(highestTrackableValue, significantDigits);
+    }
+
+    /**
+     * Records a value; negative values are recorded as 0 and the values
+     * above the highest trackable value as the highest trackable value
+     * @param value The value to record
+     */
+    public void recordValue(long value) {
+        long v = value < 0 ? 0 : Math.min(value, highestTrackableValue);
+        counts[countsIndex(v)]++;
+        totalCount++;
+        sum += v;
+        if (v < min) {
+            min = v;
+        }
+        if (v > max) {
+            max = v;
+        }
+    }
+
+    /**
+     * Records a value rounded to the nearest integer
+     * @param value The value to record
+     */
+    public void recordValue(double value) {
+        recordValue(Math.round(value));
+    }
+
+    /**
+     * Adds all the values recorded by another histogram of the same configuration
+     * @param other The histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        if (other.counts.length != counts.length || other.subBucketCount != subBucketCount) {
+            throw new IllegalArgumentException("Incompatible histogram"); // NOI18N
+        }
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Discards all the recorded values
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return Returns the exact maximum recorded value or 0 for an empty histogram
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return Returns the exact minimum recorded value or 0 for an empty histogram
+     */
+    public long getMin() {
+        return totalCount > 0 ? min : 0;
+    }
+
+    /**
+     * @return Returns the mean of the recorded values or {@linkplain Double#NaN} for an empty histogram
+     */
+    public double getMean() {
+        return totalCount > 0 ? sum / totalCount : Double.NaN;
+    }
+
+    /**
+     * @param percentile The percentile (0-100)
+     * @return Returns the highest value equivalent to the value at the percentile
+     *         within the histogram precision, capped by the exact maximum
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        // step below the requested percentile so that p / 100 * count rounding up does not skip a value
+        double p = Math.min(Math.max(Math.nextAfter(percentile, Double.NEGATIVE_INFINITY), 0), 100);
+        long countAtPercentile = Math.max(1, (long)Math.ceil(p / 100 * totalCount));
+        long acc = 0;
+        for(int i = 0; i < counts.length; i++) {
+            acc += counts[i];
+            if (acc >= countAtPercentile) {
+                return Math.min(highestEquivalentValue(valueFromIndex(i)), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return Returns the approximate number of bytes held by the histogram
+     */
+    public long getFootprint() {
+        return counts.length * 8L;
+    }
+
+    private int countsIndex(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int)(value >>> bucketIndex);
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+    }
+
+    private long valueFromIndex(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        return (long)subBucketIndex << bucketIndex;
+    }
+
+    private long highestEquivalentValue(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int)(value >>> bucketIndex);
+        int adjustedBucket = subBucketIndex >= subBucketCount ? bucketIndex + 1 : bucketIndex;
+        long lowest = (long)subBucketIndex << bucketIndex;
+        return lowest + (1L << adjustedBucket) - 1;
+    }
+}
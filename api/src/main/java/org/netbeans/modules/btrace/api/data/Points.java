@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.data;
+
+/**
+ * An immutable sequence of time series points backed by primitive arrays
+ * <p>
+ * The values of the downsampled part of a series are the means of the
+ * aggregated buckets.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class Points {
+    final static Points EMPTY = new Points(new long[0], new double[0]);
+
+    final private long[] timestamps;
+    final private double[] values;
+
+    Points(long[] timestamps, double[] values) {
+        this.timestamps = timestamps;
+        this.values = values;
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * @param index The point index
+     * @return Returns the timestamp of the point in milliseconds
+     */
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return Returns the backing timestamp array; must not be modified
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * @return Returns the backing value array; must not be modified
+     */
+    public double[] getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.data;
+
+import java.util.Arrays;
+
+/**
+ * A chunk of raw samples held in primitive columns
+ * <p>
+ * The value column starts as a <b>long</b> column and is promoted to a
+ * <b>double</b> column when the first non-integral value arrives. The columns
+ * grow up to the chunk capacity so that rarely updated series stay small.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class RawChunk {
+    final private static int INITIAL_SIZE = 8;
+
+    final private int capacity;
+    private long[] times;
+    private long[] longs;
+    private double[] doubles;
+    private int count;
+
+    RawChunk(int capacity) {
+        this.capacity = capacity;
+        int size = Math.min(INITIAL_SIZE, capacity);
+        this.times = new long[size];
+        this.longs = new long[size];
+    }
+
+    void add(long timestamp, long value) {
+        ensureCapacity();
+        times[count] = timestamp;
+        if (doubles != null) {
+            doubles[count] = value;
+        } else {
+            longs[count] = value;
+        }
+        count++;
+    }
+
+    void add(long timestamp, double value) {
+        ensureCapacity();
+        if (doubles == null) {
+            doubles = new double[times.length];
+            for(int i = 0; i < count; i++) {
+                doubles[i] = longs[i];
+            }
+            longs = null;
+        }
+        times[count] = timestamp;
+        doubles[count] = value;
+        count++;
+    }
+
+    private void ensureCapacity() {
+        if (count == times.length) {
+            int size = Math.min(times.length * 2, capacity);
+            times = Arrays.copyOf(times, size);
+            if (doubles != null) {
+                doubles = Arrays.copyOf(doubles, size);
+            } else {
+                longs = Arrays.copyOf(longs, size);
+            }
+        }
+    }
+
+    boolean isFull() {
+        return count == capacity;
+    }
+
+    int size() {
+        return count;
+    }
+
+    long time(int index) {
+        return times[index];
+    }
+
+    double value(int index) {
+        return doubles != null ? doubles[index] : longs[index];
+    }
+
+    long firstTime() {
+        return times[0];
+    }
+
+    long lastTime() {
+        return times[count - 1];
+    }
+
+    long footprint() {
+        return times.length * 16L;
+    }
+}
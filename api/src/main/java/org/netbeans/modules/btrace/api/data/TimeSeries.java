@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.data;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A single named series of numeric samples
+ * <p>
+ * The most recent samples are kept in raw chunks of primitive columns.
+ * Once there are more than the configured number of raw chunks the oldest
+ * one is downsampled into buckets of <b>factor</b> samples each, and once
+ * there are more than the configured number of bucket chunks the oldest
+ * bucket chunk is discarded. With no bucket chunks allowed the oldest
+ * raw chunk is discarded right away.
+ * </p>
+ * <p>
+ * The timestamps are kept non-decreasing; a sample older than the last one
+ * is recorded with the timestamp of the last sample.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class TimeSeries {
+    final private String name;
+    final private int chunkSize;
+    final private int rawChunks;
+    final private int factor;
+    final private int maxBucketChunks;
+
+    final private ArrayDeque<RawChunk> raw = new ArrayDeque<>();
+    final private ArrayDeque<BucketChunk> buckets = new ArrayDeque<>();
+    private long lastTime = Long.MIN_VALUE;
+    private long total;
+    private long evicted;
+
+    TimeSeries(String name, int chunkSize, int rawChunks, int factor, int maxBucketChunks) {
+        this.name = name;
+        this.chunkSize = chunkSize;
+        this.rawChunks = rawChunks;
+        this.factor = factor;
+        this.maxBucketChunks = maxBucketChunks;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    synchronized void append(long timestamp, long value) {
+        head(timestamp).add(lastTime, value);
+        total++;
+    }
+
+    synchronized void append(long timestamp, double value) {
+        head(timestamp).add(lastTime, value);
+        total++;
+    }
+
+    private RawChunk head(long timestamp) {
+        lastTime = Math.max(lastTime, timestamp);
+        RawChunk head = raw.peekLast();
+        if (head == null || head.isFull()) {
+            if (raw.size() >= rawChunks) {
+                downsample(raw.removeFirst());
+            }
+            head = new RawChunk(chunkSize);
+            raw.addLast(head);
+        }
+        return head;
+    }
+
+    private void downsample(RawChunk chunk) {
+        if (maxBucketChunks == 0) {
+            // no downsampled history is retained
+            evicted += chunk.size();
+            return;
+        }
+        for(int i = 0; i < chunk.size(); i += factor) {
+            BucketChunk tail = buckets.peekLast();
+            if (tail == null || tail.isFull()) {
+                if (buckets.size() >= maxBucketChunks) {
+                    BucketChunk dropped = buckets.removeFirst();
+                    for(int j = 0; j < dropped.size(); j++) {
+                        evicted += dropped.count(j);
+                    }
+                }
+                tail = new BucketChunk(chunkSize);
+                buckets.addLast(tail);
+            }
+            tail.add(chunk, i, Math.min(i + factor, chunk.size()));
+        }
+    }
+
+    /**
+     * @return Returns the number of samples ever appended
+     */
+    public synchronized long getTotalCount() {
+        return total;
+    }
+
+    /**
+     * @return Returns the number of samples no longer retained
+     */
+    public synchronized long getEvictedCount() {
+        return evicted;
+    }
+
+    /**
+     * @return Returns the number of points retained (a bucket counts as one point)
+     */
+    public synchronized int size() {
+        int size = 0;
+        for(BucketChunk c : buckets) {
+            size += c.size();
+        }
+        for(RawChunk c : raw) {
+            size += c.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return Returns the approximate number of bytes held by the series data
+     */
+    public synchronized long getFootprint() {
+        long size = 0;
+        for(BucketChunk c : buckets) {
+            size += c.footprint();
+        }
+        for(RawChunk c : raw) {
+            size += c.footprint();
+        }
+        return size;
+    }
+
+    /**
+     * Retrieves the points within a time range
+     * @param from The start of the range in milliseconds (inclusive)
+     * @param to The end of the range in milliseconds (inclusive)
+     * @return Returns the points in chronological order
+     */
+    public synchronized Points range(long from, long to) {
+        PointsBuilder pb = new PointsBuilder();
+        for(BucketChunk c : buckets) {
+            if (c.lastTime() < from || c.firstTime() > to) {
+                continue;
+            }
+            for(int i = 0; i < c.size(); i++) {
+                long t = c.time(i);
+                if (t >= from && t <= to) {
+                    pb.add(t, c.mean(i));
+                }
+            }
+        }
+        for(RawChunk c : raw) {
+            if (c.size() == 0 || c.lastTime() < from || c.firstTime() > to) {
+                continue;
+            }
+            for(int i = 0; i < c.size(); i++) {
+                long t = c.time(i);
+                if (t >= from && t <= to) {
+                    pb.add(t, c.value(i));
+                }
+            }
+        }
+        return pb.build();
+    }
+
+    /**
+     * Retrieves the most recent points
+     * @param n The maximum number of points
+     * @return Returns up to <b>n</b> most recent points in chronological order
+     */
+    public synchronized Points last(int n) {
+        n = Math.min(n, size());
+        if (n <= 0) {
+            return Points.EMPTY;
+        }
+        long[] times = new long[n];
+        double[] values = new double[n];
+        int pos = n;
+        for(Iterator<RawChunk> iter = raw.descendingIterator(); iter.hasNext() && pos > 0;) {
+            RawChunk c = iter.next();
+            for(int i = c.size() - 1; i >= 0 && pos > 0; i--) {
+                pos--;
+                times[pos] = c.time(i);
+                values[pos] = c.value(i);
+            }
+        }
+        for(Iterator<BucketChunk> iter = buckets.descendingIterator(); iter.hasNext() && pos > 0;) {
+            BucketChunk c = iter.next();
+            for(int i = c.size() - 1; i >= 0 && pos > 0; i--) {
+                pos--;
+                times[pos] = c.time(i);
+                values[pos] = c.mean(i);
+            }
+        }
+        return new Points(times, values);
+    }
+
+    /**
+     * Computes the summary statistics of a time range
+     * <p>
+     * A downsampled bucket is included as a whole when its first sample
+     * falls into the range.
+     * </p>
+     * @param from The start of the range in milliseconds (inclusive)
+     * @param to The end of the range in milliseconds (inclusive)
+     * @return Returns the statistics of the retained samples in the range
+     */
+    public synchronized Aggregate aggregate(long from, long to) {
+        long count = 0;
+        double sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for(BucketChunk c : buckets) {
+            if (c.lastTime() < from || c.firstTime() > to) {
+                continue;
+            }
+            for(int i = 0; i < c.size(); i++) {
+                long t = c.time(i);
+                if (t >= from && t <= to) {
+                    count += c.count(i);
+                    sum += c.sum(i);
+                    min = Math.min(min, c.min(i));
+                    max = Math.max(max, c.max(i));
+                }
+            }
+        }
+        for(RawChunk c : raw) {
+            if (c.size() == 0 || c.lastTime() < from || c.firstTime() > to) {
+                continue;
+            }
+            for(int i = 0; i < c.size(); i++) {
+                long t = c.time(i);
+                if (t >= from && t <= to) {
+                    double v = c.value(i);
+                    count++;
+                    sum += v;
+                    min = Math.min(min, v);
+                    max = Math.max(max, v);
+                }
+            }
+        }
+        return new Aggregate(count, sum, min, max);
+    }
+
+    /**
+     * Computes the summary statistics of all the retained samples
+     * @return Returns the statistics
+     */
+    public Aggregate aggregate() {
+        return aggregate(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private static final class PointsBuilder {
+        private long[] times = new long[16];
+        private double[] values = new double[16];
+        private int count;
+
+        void add(long time, double value) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            times[count] = time;
+            values[count] = value;
+            count++;
+        }
+
+        Points build() {
+            return count == 0 ? Points.EMPTY : new Points(Arrays.copyOf(times, count), Arrays.copyOf(values, count));
+        }
+    }
+}
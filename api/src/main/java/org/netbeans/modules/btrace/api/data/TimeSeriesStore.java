@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.NumberMapView;
+
+/**
+ * Keeps the numeric data received from a tracing task as time series
+ * <p>
+ * Each numeric value received from the agent becomes a sample
+ * of the series of the same name; when the map expansion is enabled each
+ * entry of a numeric map becomes a sample of the series named <b>map.key</b>.
+ * The samples are timestamped on arrival. The number of series is capped;
+ * the samples of the series over the cap are dropped and counted.
+ * </p>
+ * <p>
+ * The store is fed by the {@linkplain MessageDispatcher} returned from
+ * {@linkplain #getDispatcher()}; the queries may be run from any thread.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class TimeSeriesStore {
+    final private static int DEFAULT_MAX_SERIES = 1024;
+
+    final private Map<String, TimeSeries> series = new ConcurrentHashMap<>();
+    final private int chunkSize;
+    final private int rawChunks;
+    final private int factor;
+    final private int maxBucketChunks;
+    final private int maxSeries;
+    final private boolean expandMaps;
+    final private AtomicLong dropped = new AtomicLong();
+
+    final private MessageDispatcher dispatcher = new MessageDispatcher() {
+        @Override
+        public void onNumberMessage(String name, long value) {
+            append(name, System.currentTimeMillis(), value);
+        }
+
+        @Override
+        public void onNumberMessage(String name, double value) {
+            append(name, System.currentTimeMillis(), value);
+        }
+
+        @Override
+        public void onNumberMessages(List<String> names, List<Number> values) {
+            long now = System.currentTimeMillis();
+            for(int i = 0; i < names.size(); i++) {
+                Number n = values.get(i);
+                if (NumberMapView.isIntegral(n)) {
+                    append(names.get(i), now, n.longValue());
+                } else if (n != null) {
+                    append(names.get(i), now, n.doubleValue());
+                }
+            }
+        }
+
+        @Override
+        public void onNumberMap(String name, NumberMapView data) {
+            if (!expandMaps) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for(int i = 0; i < data.size(); i++) {
+                String key = name + "." + data.getKey(i); // NOI18N
+                if (data.isIntegral()) {
+                    append(key, now, data.getLong(i));
+                } else {
+                    append(key, now, data.getDouble(i));
+                }
+            }
+        }
+    };
+
+    /**
+     * @param chunkSize The number of samples per chunk
+     * @param rawChunks The number of the most recent chunks kept at full resolution
+     * @param factor The number of samples aggregated into one bucket when downsampling
+     * @param maxBucketChunks The number of downsampled chunks retained per series; 0 retains no downsampled history
+     */
+    public TimeSeriesStore(int chunkSize, int rawChunks, int factor, int maxBucketChunks) {
+        this(chunkSize, rawChunks, factor, maxBucketChunks, DEFAULT_MAX_SERIES, false);
+    }
+
+    /**
+     * @param chunkSize The number of samples per chunk
+     * @param rawChunks The number of the most recent chunks kept at full resolution
+     * @param factor The number of samples aggregated into one bucket when downsampling
+     * @param maxBucketChunks The number of downsampled chunks retained per series; 0 retains no downsampled history
+     * @param maxSeries The maximum number of series
+     * @param expandMaps TRUE if each numeric map entry should become a series
+     */
+    public TimeSeriesStore(int chunkSize, int rawChunks, int factor, int maxBucketChunks, int maxSeries, boolean expandMaps) {
+        this.chunkSize = Math.max(1, chunkSize);
+        this.rawChunks = Math.max(1, rawChunks);
+        this.factor = Math.max(1, factor);
+        this.maxBucketChunks = Math.max(0, maxBucketChunks);
+        this.maxSeries = Math.max(1, maxSeries);
+        this.expandMaps = expandMaps;
+    }
+
+    /**
+     * @return Returns TRUE if the numeric map entries are kept as series
+     */
+    public boolean isExpandingMaps() {
+        return expandMaps;
+    }
+
+    /**
+     * @return Returns the dispatcher to register with a task
+     */
+    public MessageDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public void append(String name, long timestamp, long value) {
+        TimeSeries ts = getOrCreate(name);
+        if (ts != null) {
+            ts.append(timestamp, value);
+        }
+    }
+
+    public void append(String name, long timestamp, double value) {
+        TimeSeries ts = getOrCreate(name);
+        if (ts != null) {
+            ts.append(timestamp, value);
+        }
+    }
+
+    /**
+     * @return Returns the number of samples dropped because the series cap was reached
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private TimeSeries getOrCreate(String name) {
+        TimeSeries ts = series.get(name);
+        if (ts == null) {
+            if (series.size() >= maxSeries) {
+                // the cap may be exceeded slightly by concurrent appends; that is fine
+                dropped.incrementAndGet();
+                return null;
+            }
+            ts = series.computeIfAbsent(name, (String n) -> new TimeSeries(n, chunkSize, rawChunks, factor, maxBucketChunks));
+        }
+        return ts;
+    }
+
+    /**
+     * @param name The series name
+     * @return Returns the series or NULL if no sample of that name has been received
+     */
+    public TimeSeries getSeries(String name) {
+        return series.get(name);
+    }
+
+    /**
+     * @return Returns the sorted names of all the series
+     */
+    public List<String> getSeriesNames() {
+        List<String> names = new ArrayList<>(series.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * @return Returns the approximate number of bytes held by all the series
+     */
+    public long getFootprint() {
+        long size = 0;
+        for(TimeSeries ts : series.values()) {
+            size += ts.getFootprint();
+        }
+        return size;
+    }
+
+    /**
+     * Discards all the series
+     */
+    public void clear() {
+        series.clear();
+    }
+}
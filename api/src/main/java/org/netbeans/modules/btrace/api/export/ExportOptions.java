@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.export;
+
+/**
+ * The file handling options of a {@linkplain FileExport}
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class ExportOptions {
+    /**
+     * 64MB files rotated hourly, uncompressed
+     */
+    final public static ExportOptions DEFAULT = new ExportOptions(64L * 1024 * 1024, 3600 * 1000L, false);
+
+    final private long maxFileSize;
+    final private long rotationInterval;
+    final private boolean compressed;
+
+    /**
+     * @param maxFileSize The file size in bytes triggering the rotation; 0 disables the size based rotation
+     * @param rotationInterval The file age in milliseconds triggering the rotation; 0 disables the time based rotation
+     * @param compressed Write the files GZIP compressed
+     */
+    public ExportOptions(long maxFileSize, long rotationInterval, boolean compressed) {
+        this.maxFileSize = maxFileSize;
+        this.rotationInterval = rotationInterval;
+        this.compressed = compressed;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public long getRotationInterval() {
+        return rotationInterval;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.export;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Writes records to a rotating file from a dedicated thread
+ * <p>
+ * The producers only enqueue the records; when the writer is behind by
+ * more than the queue capacity the records are dropped and counted rather
+ * than blocking the producer. The writer thread drains all the pending
+ * records at once, writes them and flushes the file once per drained group.
+ * The file is rotated when it grows over the size limit or gets older than
+ * the rotation interval.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class ExportWriter {
+    final private static Logger LOGGER = Logger.getLogger(ExportWriter.class.getName());
+    final private static long POLL_INTERVAL = 100;
+    final private static int QUEUE_CAPACITY = 65536;
+    final private static int MAX_GROUP = 4096;
+
+    final private File dir;
+    final private String baseName;
+    final private String extension;
+    final private String header;
+    final private ExportOptions options;
+    final private BlockingQueue<String> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    final private Thread thread;
+    final private AtomicLong dropped = new AtomicLong();
+
+    // accessed by the writer thread only
+    private Writer out;
+    private long written;
+    private long openedAt;
+    private boolean failed;
+    private volatile boolean closed;
+
+    ExportWriter(File dir, String baseName, String extension, String header, ExportOptions options) {
+        this.dir = dir;
+        this.baseName = baseName;
+        this.extension = extension;
+        this.header = header;
+        this.options = options;
+        this.thread = new Thread(this::run, "BTrace Export Writer - " + baseName + "." + extension); // NOI18N
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Enqueues a record; the record is dropped if the writer is behind by more than the queue capacity
+     * @param record The record including the line terminator
+     */
+    void write(String record) {
+        if (closed) {
+            return;
+        }
+        if (!queue.offer(record) && dropped.getAndIncrement() == 0) {
+            LOGGER.log(FINE, "Export to {0}.{1} can not keep up; records are dropped", new Object[]{baseName, extension});
+        }
+    }
+
+    /**
+     * @return Returns the number of the records dropped because the writer was behind
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops accepting records; the file is closed by the writer thread once
+     * the pending records are written. Does not wait for that.
+     */
+    void close() {
+        closed = true;
+    }
+
+    /**
+     * Waits until the pending records are written and the file is closed
+     * @return Returns TRUE if the writer has finished in time
+     */
+    boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+        thread.join(Math.max(1, unit.toMillis(timeout)));
+        return !thread.isAlive();
+    }
+
+    private void run() {
+        List<String> group = new ArrayList<>(MAX_GROUP);
+        try {
+            while (true) {
+                String first = queue.poll(POLL_INTERVAL, MILLISECONDS);
+                if (first == null) {
+                    if (closed) {
+                        break;
+                    }
+                    continue;
+                }
+                group.add(first);
+                queue.drainTo(group, MAX_GROUP - 1);
+                for(String record : group) {
+                    append(record);
+                }
+                group.clear();
+                flush();
+            }
+        } catch (InterruptedException e) {
+            // terminate
+        } finally {
+            closeFile();
+        }
+    }
+
+    private void append(String record) {
+        if (failed) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            if (out != null && ((options.getMaxFileSize() > 0 && written >= options.getMaxFileSize()) ||
+                                (options.getRotationInterval() > 0 && now - openedAt >= options.getRotationInterval()))) {
+                closeFile();
+            }
+            if (out == null) {
+                openFile(now);
+            }
+            out.write(record);
+            written += record.length();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void flush() {
+        if (out != null && !failed) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void openFile(long now) throws IOException {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(now)); // NOI18N
+        String suffix = "." + extension + (options.isCompressed() ? ".gz" : ""); // NOI18N
+        File f = new File(dir, baseName + "-" + stamp + suffix); // NOI18N
+        for(int i = 1; f.exists(); i++) {
+            f = new File(dir, baseName + "-" + stamp + "-" + i + suffix); // NOI18N
+        }
+        OutputStream os = new FileOutputStream(f);
+        if (options.isCompressed()) {
+            // sync flush makes each group readable by a tailing consumer
+            os = new GZIPOutputStream(os, 65536, true);
+        }
+        out = new BufferedWriter(new OutputStreamWriter(os, UTF_8), 65536);
+        openedAt = now;
+        written = 0;
+        if (header != null) {
+            out.write(header);
+            written += header.length();
+        }
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.log(WARNING, null, e);
+            }
+            out = null;
+        }
+    }
+
+    private void fail(IOException e) {
+        LOGGER.log(WARNING, "Export to " + baseName + "." + extension + " failed; the remaining records are discarded", e); // NOI18N
+        failed = true;
+        closeFile();
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.export;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.netbeans.modules.btrace.api.BTraceTask;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.NumberMapView;
+import org.netbeans.modules.btrace.api.Subscription;
+import org.netbeans.modules.btrace.api.Subscription.Kind;
+import org.netbeans.modules.btrace.api.data.HistogramSummary;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Exports the data received from a task into files
+ * <ul>
+ * <li>the messages into rotating text logs (<b>messages-*.log</b>)</li>
+ * <li>the numbers and the numeric maps into CSV (<b>numbers-*.csv</b>)
+ *     with the <b>timestamp,name,key,value</b> columns</li>
+ * <li>the string maps, the grids and the histogram summaries into JSON Lines (<b>data-*.jsonl</b>)</li>
+ * </ul>
+ * Each file type is written by its own thread; the dispatchers only format
+ * the records and hand them over.
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class FileExport implements Closeable {
+    final private ExportWriter messages;
+    final private ExportWriter numbers;
+    final private ExportWriter data;
+
+    final private MessageDispatcher messageDispatcher = new MessageDispatcher() {
+        @Override
+        public void onPrintMessage(String message) {
+            messages.write(message);
+        }
+
+        @Override
+        public void onPrintMessages(List<String> batch) {
+            if (batch.size() == 1) {
+                messages.write(batch.get(0));
+                return;
+            }
+            StringBuilder sb = new StringBuilder();
+            for(String message : batch) {
+                sb.append(message);
+            }
+            messages.write(sb.toString());
+        }
+    };
+
+    final private MessageDispatcher numberDispatcher = new MessageDispatcher() {
+        @Override
+        public void onNumberMessage(String name, Number value) {
+            StringBuilder sb = new StringBuilder(64);
+            appendNumber(sb, System.currentTimeMillis(), name, value);
+            numbers.write(sb.toString());
+        }
+
+        @Override
+        public void onNumberMessages(List<String> names, List<Number> values) {
+            long now = System.currentTimeMillis();
+            StringBuilder sb = new StringBuilder(names.size() * 48);
+            for(int i = 0; i < names.size(); i++) {
+                appendNumber(sb, now, names.get(i), values.get(i));
+            }
+            numbers.write(sb.toString());
+        }
+
+        @Override
+        public void onNumberMap(String name, NumberMapView map) {
+            long now = System.currentTimeMillis();
+            StringBuilder sb = new StringBuilder(map.size() * 48);
+            for(int i = 0; i < map.size(); i++) {
+                sb.append(now).append(',');
+                appendCsv(sb, name);
+                sb.append(',');
+                appendCsv(sb, map.getKey(i));
+                sb.append(',');
+                if (map.isIntegral()) {
+                    sb.append(map.getLong(i));
+                } else {
+                    sb.append(map.getDouble(i));
+                }
+                sb.append('\n');
+            }
+            numbers.write(sb.toString());
+        }
+    };
+
+    final private MessageDispatcher dataDispatcher = new MessageDispatcher() {
+        @Override
+        public void onStringMap(String name, Map<String, String> map) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"ts\":").append(System.currentTimeMillis()); // NOI18N
+            sb.append(",\"type\":\"string_map\",\"name\":"); // NOI18N
+            appendJson(sb, name);
+            sb.append(",\"data\":{"); // NOI18N
+            boolean first = true;
+            for(Map.Entry<String, String> e : map.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                appendJson(sb, e.getKey());
+                sb.append(':');
+                appendJson(sb, e.getValue());
+            }
+            sb.append("}}\n"); // NOI18N
+            data.write(sb.toString());
+        }
+
+        @Override
+        public void onGrid(String name, List<Object[]> grid) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"ts\":").append(System.currentTimeMillis()); // NOI18N
+            sb.append(",\"type\":\"grid\",\"name\":"); // NOI18N
+            appendJson(sb, name);
+            sb.append(",\"rows\":["); // NOI18N
+            for(int i = 0; i < grid.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append('[');
+                Object[] row = grid.get(i);
+                for(int j = 0; j < row.length; j++) {
+                    if (j > 0) {
+                        sb.append(',');
+                    }
+                    appendJsonValue(sb, row[j]);
+                }
+                sb.append(']');
+            }
+            sb.append("]}\n"); // NOI18N
+            data.write(sb.toString());
+        }
+    };
+
+    private FileExport(File dir, ExportOptions options) {
+        messages = new ExportWriter(dir, "messages", "log", null, options); // NOI18N
+        numbers = new ExportWriter(dir, "numbers", "csv", "timestamp,name,key,value\n", options); // NOI18N
+        data = new ExportWriter(dir, "data", "jsonl", null, options); // NOI18N
+    }
+
+    /**
+     * Starts a new export
+     * @param dir The directory to write the files to; created if necessary
+     * @param options The file handling options
+     * @return Returns the export
+     * @throws IOException if the directory can not be created
+     */
+    public static FileExport open(File dir, ExportOptions options) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can not create export directory " + dir); // NOI18N
+        }
+        return new FileExport(dir, options);
+    }
+
+    /**
+     * Starts exporting the data received by the task
+     * @param task The task to export
+     */
+    public void attach(BTraceTask task) {
+        task.addMessageDispatcher(messageDispatcher, Subscription.to(Kind.MESSAGE));
+        task.addMessageDispatcher(numberDispatcher, Subscription.to(Kind.NUMBER, Kind.NUMBER_MAP));
+        task.addMessageDispatcher(dataDispatcher, Subscription.to(Kind.STRING_MAP, Kind.GRID));
+    }
+
+    /**
+     * Stops exporting the data received by the task
+     * @param task The exported task
+     */
+    public void detach(BTraceTask task) {
+        task.removeMessageDispatcher(messageDispatcher);
+        task.removeMessageDispatcher(numberDispatcher);
+        task.removeMessageDispatcher(dataDispatcher);
+    }
+
+    /**
+     * Exports histogram summaries
+     * @param summaries The summaries to export
+     */
+    public void write(List<HistogramSummary> summaries) {
+        if (summaries.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for(HistogramSummary s : summaries) {
+            sb.append("{\"ts\":").append(s.getTo()); // NOI18N
+            sb.append(",\"type\":\"histogram\",\"name\":"); // NOI18N
+            appendJson(sb, s.getName());
+            sb.append(",\"cumulative\":").append(s.isCumulative()); // NOI18N
+            sb.append(",\"from\":").append(s.getFrom()); // NOI18N
+            sb.append(",\"count\":").append(s.getCount()); // NOI18N
+            sb.append(",\"min\":").append(s.getMin()); // NOI18N
+            sb.append(",\"p50\":").append(s.getP50()); // NOI18N
+            sb.append(",\"p90\":").append(s.getP90()); // NOI18N
+            sb.append(",\"p99\":").append(s.getP99()); // NOI18N
+            sb.append(",\"p999\":").append(s.getP999()); // NOI18N
+            sb.append(",\"max\":").append(s.getMax()); // NOI18N
+            sb.append("}\n"); // NOI18N
+        }
+        data.write(sb.toString());
+    }
+
+    /**
+     * @return Returns the number of the records dropped because the disk could not keep up
+     */
+    public long getDroppedCount() {
+        return messages.getDropped() + numbers.getDropped() + data.getDropped();
+    }
+
+    /**
+     * Stops accepting data; the files are closed by the writer threads once
+     * the pending records are written. Does not wait for that.
+     * @see #awaitClosed(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public void close() {
+        messages.close();
+        numbers.close();
+        data.close();
+    }
+
+    /**
+     * Waits until all the files are written and closed after {@linkplain #close()}
+     * @param timeout The maximum time to wait
+     * @param unit The timeout unit
+     * @return Returns TRUE if all the files have been closed in time
+     * @throws InterruptedException
+     */
+    public boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for(ExportWriter w : new ExportWriter[]{messages, numbers, data}) {
+            if (!w.awaitClosed(Math.max(0, deadline - System.nanoTime()), NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void appendNumber(StringBuilder sb, long ts, String name, Number value) {
+        sb.append(ts).append(',');
+        appendCsv(sb, name);
+        sb.append(",,").append(value).append('\n'); // NOI18N
+    }
+
+    private static void appendCsv(StringBuilder sb, String s) {
+        if (s == null) {
+            return;
+        }
+        boolean quote = false;
+        for(int i = 0; i < s.length() && !quote; i++) {
+            char c = s.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            sb.append(s);
+            return;
+        }
+        sb.append('"');
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    private static void appendJsonValue(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null"); // NOI18N
+        } else if (value instanceof Number) {
+            double d = ((Number)value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                // not representable as a JSON number
+                appendJson(sb, value.toString());
+            } else {
+                sb.append(value);
+            }
+        } else if (value instanceof Boolean) {
+            sb.append(value);
+        } else {
+            appendJson(sb, value.toString());
+        }
+    }
+
+    private static void appendJson(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null"); // NOI18N
+            return;
+        }
+        sb.append('"');
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break; // NOI18N
+                case '\\': sb.append("\\\\"); break; // NOI18N
+                case '\n': sb.append("\\n"); break; // NOI18N
+                case '\r': sb.append("\\r"); break; // NOI18N
+                case '\t': sb.append("\\t"); break; // NOI18N
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int)c)); // NOI18N
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
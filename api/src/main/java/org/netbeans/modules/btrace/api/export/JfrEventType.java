@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.export;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static java.lang.invoke.MethodType.methodType;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * A JDK Flight Recorder event type defined at runtime
+ * <p>
+ * The module targets Java 8 so the JFR API (<b>jdk.jfr.EventFactory</b>) is
+ * accessed reflectively; the event operations are bound to method handles once.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class JfrEventType {
+    final private static Logger LOGGER = getLogger(JfrEventType.class.getName());
+    final private static String CATEGORY = "BTrace"; // NOI18N
+
+    /**
+     * An event field definition
+     */
+    final static class Field {
+        final private Class<?> type;
+        final private String name;
+        final private String label;
+
+        Field(Class<?> type, String name, String label) {
+            this.type = type;
+            this.name = name;
+            this.label = label;
+        }
+    }
+
+    final private static boolean AVAILABLE;
+    private static Method CREATE;
+    private static Constructor<?> ANNOTATION_ELEMENT;
+    private static Constructor<?> VALUE_DESCRIPTOR;
+    private static Class<? extends Annotation> NAME, LABEL, DESCRIPTION, CATEGORY_ANNOTATION, STACK_TRACE;
+    private static MethodHandle NEW_EVENT, SET, COMMIT, IS_ENABLED;
+
+    static {
+        boolean available = false;
+        try {
+            ClassLoader cl = ClassLoader.getSystemClassLoader();
+            Class<?> recorder = Class.forName("jdk.jfr.FlightRecorder", false, cl); // NOI18N
+            if ((Boolean)recorder.getMethod("isAvailable").invoke(null)) { // NOI18N
+                Class<?> factory = Class.forName("jdk.jfr.EventFactory", false, cl); // NOI18N
+                Class<?> event = Class.forName("jdk.jfr.Event", false, cl); // NOI18N
+                Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement", false, cl); // NOI18N
+                Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor", false, cl); // NOI18N
+                CREATE = factory.getMethod("create", List.class, List.class); // NOI18N
+                ANNOTATION_ELEMENT = annotationElement.getConstructor(Class.class, Object.class);
+                VALUE_DESCRIPTOR = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+                NAME = annotation("jdk.jfr.Name", cl); // NOI18N
+                LABEL = annotation("jdk.jfr.Label", cl); // NOI18N
+                DESCRIPTION = annotation("jdk.jfr.Description", cl); // NOI18N
+                CATEGORY_ANNOTATION = annotation("jdk.jfr.Category", cl); // NOI18N
+                STACK_TRACE = annotation("jdk.jfr.StackTrace", cl); // NOI18N
+
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                NEW_EVENT = lookup.findVirtual(factory, "newEvent", methodType(event)) // NOI18N
+                                  .asType(methodType(Object.class, Object.class));
+                SET = lookup.findVirtual(event, "set", methodType(void.class, int.class, Object.class)) // NOI18N
+                            .asType(methodType(void.class, Object.class, int.class, Object.class));
+                COMMIT = lookup.findVirtual(event, "commit", methodType(void.class)) // NOI18N
+                               .asType(methodType(void.class, Object.class));
+                IS_ENABLED = lookup.findVirtual(event, "isEnabled", methodType(boolean.class)) // NOI18N
+                                   .asType(methodType(boolean.class, Object.class));
+                available = true;
+            }
+        } catch (Throwable t) {
+            LOGGER.log(FINE, "JDK Flight Recorder is not available", t);
+        }
+        AVAILABLE = available;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Annotation> annotation(String name, ClassLoader cl) throws ClassNotFoundException {
+        return (Class<? extends Annotation>)Class.forName(name, false, cl);
+    }
+
+    static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    final private Object factory;
+
+    /**
+     * @param name The event name
+     * @param label The event label
+     * @param description The event description
+     * @param fields The event fields; the field values are set by their index
+     * @throws IllegalStateException if JFR is not available or the definition is rejected
+     */
+    JfrEventType(String name, String label, String description, Field ... fields) {
+        if (!AVAILABLE) {
+            throw new IllegalStateException("JDK Flight Recorder is not available"); // NOI18N
+        }
+        try {
+            List<Object> annotations = Arrays.asList(
+                ANNOTATION_ELEMENT.newInstance(NAME, name),
+                ANNOTATION_ELEMENT.newInstance(LABEL, label),
+                ANNOTATION_ELEMENT.newInstance(DESCRIPTION, description),
+                ANNOTATION_ELEMENT.newInstance(CATEGORY_ANNOTATION, new String[]{CATEGORY}),
+                // the dispatcher stack is of no interest
+                ANNOTATION_ELEMENT.newInstance(STACK_TRACE, false)
+            );
+            List<Object> values = new ArrayList<>(fields.length);
+            for(Field f : fields) {
+                values.add(VALUE_DESCRIPTOR.newInstance(f.type, f.name,
+                    Arrays.asList(ANNOTATION_ELEMENT.newInstance(LABEL, f.label))));
+            }
+            factory = CREATE.invoke(null, annotations, values);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("Can not define the JFR event " + name, e); // NOI18N
+        }
+    }
+
+    /**
+     * @return Returns a new event or NULL if the event type is not enabled in any recording
+     */
+    Object newEvent() {
+        try {
+            Object event = (Object)NEW_EVENT.invokeExact(factory);
+            return (boolean)IS_ENABLED.invokeExact(event) ? event : null;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void set(Object event, int index, Object value) {
+        try {
+            SET.invokeExact(event, index, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void commit(Object event) {
+        try {
+            COMMIT.invokeExact(event);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException)t;
+        }
+        if (t instanceof Error) {
+            throw (Error)t;
+        }
+        return new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.export;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import org.netbeans.modules.btrace.api.BTraceTask;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.NumberMapView;
+import org.netbeans.modules.btrace.api.Subscription;
+import org.netbeans.modules.btrace.api.Subscription.Kind;
+import org.netbeans.modules.btrace.api.export.JfrEventType.Field;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * Re-emits the data received from tasks as JDK Flight Recorder events
+ * in the tool process
+ * <ul>
+ * <li><b>btrace.Message</b> for the messages</li>
+ * <li><b>btrace.LongValue</b> and <b>btrace.DoubleValue</b> for the numbers</li>
+ * <li><b>btrace.MapEntry</b> for each entry of a numeric map snapshot</li>
+ * <li><b>btrace.ClassInstrumented</b> for the instrumentation notifications</li>
+ * </ul>
+ * The events are created only while enabled in a running recording.
+ * Requires a JVM with the <b>jdk.jfr</b> API; see {@linkplain #isAvailable()}.
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class JfrExport {
+    final private static Logger LOGGER = getLogger(JfrExport.class.getName());
+    final private static Subscription SUBSCRIPTION = Subscription.to(Kind.MESSAGE, Kind.NUMBER, Kind.NUMBER_MAP, Kind.CLASS_INSTRUMENTED);
+
+    final private static Field TASK = new Field(String.class, "task", "Task"); // NOI18N
+    final private static Field PID = new Field(int.class, "pid", "PID"); // NOI18N
+
+    /**
+     * Defines the event types on first use; a failed definition is recorded
+     * instead of leaving the class unusable
+     */
+    final private static class Types {
+        final static JfrEventType MESSAGE;
+        final static JfrEventType LONG_VALUE;
+        final static JfrEventType DOUBLE_VALUE;
+        final static JfrEventType MAP_ENTRY;
+        final static JfrEventType CLASS_INSTRUMENTED;
+        final static boolean DEFINED;
+
+        static {
+            JfrEventType message = null, longValue = null, doubleValue = null, mapEntry = null, classInstrumented = null;
+            boolean defined = false;
+            if (JfrEventType.isAvailable()) {
+                try {
+                    message = new JfrEventType("btrace.Message", "BTrace Message", "A message printed by a BTrace script", // NOI18N
+                        TASK, PID, new Field(String.class, "message", "Message")); // NOI18N
+                    longValue = new JfrEventType("btrace.LongValue", "BTrace Integral Value", "An integral number reported by a BTrace script", // NOI18N
+                        TASK, PID, new Field(String.class, "name", "Name"), new Field(long.class, "value", "Value")); // NOI18N
+                    doubleValue = new JfrEventType("btrace.DoubleValue", "BTrace Decimal Value", "A decimal number reported by a BTrace script", // NOI18N
+                        TASK, PID, new Field(String.class, "name", "Name"), new Field(double.class, "value", "Value")); // NOI18N
+                    mapEntry = new JfrEventType("btrace.MapEntry", "BTrace Map Entry", "An entry of a numeric map reported by a BTrace script", // NOI18N
+                        TASK, PID, new Field(String.class, "map", "Map"), new Field(String.class, "key", "Key"), new Field(double.class, "value", "Value")); // NOI18N
+                    classInstrumented = new JfrEventType("btrace.ClassInstrumented", "BTrace Class Instrumented", "A class instrumented by a BTrace script", // NOI18N
+                        TASK, PID, new Field(String.class, "className", "Class Name")); // NOI18N
+                    defined = true;
+                } catch (RuntimeException | LinkageError e) {
+                    LOGGER.log(WARNING, "Can not define the BTrace JFR events", e);
+                }
+            }
+            MESSAGE = message;
+            LONG_VALUE = longValue;
+            DOUBLE_VALUE = doubleValue;
+            MAP_ENTRY = mapEntry;
+            CLASS_INSTRUMENTED = classInstrumented;
+            DEFINED = defined;
+        }
+    }
+
+    final private Map<BTraceTask, MessageDispatcher> dispatchers = new ConcurrentHashMap<>();
+
+    private JfrExport() {}
+
+    /**
+     * @return Returns TRUE if the running JVM supports the JDK Flight Recorder events
+     *         and the BTrace event types could be defined
+     */
+    public static boolean isAvailable() {
+        return JfrEventType.isAvailable() && Types.DEFINED;
+    }
+
+    /**
+     * Opens the export; the BTrace event types are defined on first use
+     * @return Returns the JFR export
+     * @throws IOException if the JDK Flight Recorder is not available or the event types can not be defined
+     */
+    public static JfrExport open() throws IOException {
+        if (!isAvailable()) {
+            throw new IOException("JDK Flight Recorder is not available"); // NOI18N
+        }
+        return new JfrExport();
+    }
+
+    /**
+     * Starts re-emitting the data of the given task
+     * @param task The task
+     */
+    public void attach(BTraceTask task) {
+        MessageDispatcher d = newDispatcher(task.getName(), task.getPid());
+        if (dispatchers.putIfAbsent(task, d) == null) {
+            task.addMessageDispatcher(d, SUBSCRIPTION);
+        }
+    }
+
+    /**
+     * Stops re-emitting the data of the given task
+     * @param task The task
+     */
+    public void detach(BTraceTask task) {
+        MessageDispatcher d = dispatchers.remove(task);
+        if (d != null) {
+            task.removeMessageDispatcher(d);
+        }
+    }
+
+    private static MessageDispatcher newDispatcher(final String task, final int pid) {
+        final Integer pidValue = pid;
+        return new MessageDispatcher() {
+            @Override
+            public void onPrintMessage(String message) {
+                Object e = Types.MESSAGE.newEvent();
+                if (e != null) {
+                    header(e, task, pidValue);
+                    JfrEventType.set(e, 2, message);
+                    JfrEventType.commit(e);
+                }
+            }
+
+            @Override
+            public void onPrintMessages(List<String> messages) {
+                for(String message : messages) {
+                    onPrintMessage(message);
+                }
+            }
+
+            @Override
+            public void onNumberMessage(String name, long value) {
+                Object e = Types.LONG_VALUE.newEvent();
+                if (e != null) {
+                    header(e, task, pidValue);
+                    JfrEventType.set(e, 2, name);
+                    JfrEventType.set(e, 3, value);
+                    JfrEventType.commit(e);
+                }
+            }
+
+            @Override
+            public void onNumberMessage(String name, double value) {
+                Object e = Types.DOUBLE_VALUE.newEvent();
+                if (e != null) {
+                    header(e, task, pidValue);
+                    JfrEventType.set(e, 2, name);
+                    JfrEventType.set(e, 3, value);
+                    JfrEventType.commit(e);
+                }
+            }
+
+            @Override
+            public void onNumberMap(String name, NumberMapView data) {
+                for(int i = 0; i < data.size(); i++) {
+                    Object e = Types.MAP_ENTRY.newEvent();
+                    if (e == null) {
+                        return;
+                    }
+                    header(e, task, pidValue);
+                    JfrEventType.set(e, 2, name);
+                    JfrEventType.set(e, 3, data.getKey(i));
+                    JfrEventType.set(e, 4, data.getDouble(i));
+                    JfrEventType.commit(e);
+                }
+            }
+
+            @Override
+            public void onClassInstrumented(String name) {
+                Object e = Types.CLASS_INSTRUMENTED.newEvent();
+                if (e != null) {
+                    header(e, task, pidValue);
+                    JfrEventType.set(e, 2, name);
+                    JfrEventType.commit(e);
+                }
+            }
+        };
+    }
+
+    private static void header(Object event, String task, Integer pid) {
+        JfrEventType.set(event, 0, task);
+        JfrEventType.set(event, 1, pid);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package org.netbeans.modules.btrace.api.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import static java.lang.Thread.sleep;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Detects the readiness of the BTrace agent by looking up its listening port
+ * <p>
+ * The agent takes every accepted connection for a client session, so the
+ * port is never connected to. Instead, the listening sockets are looked up in
+ * the system socket table (<code>/proc/net/tcp</code>). Where the table is not
+ * available (eg. on Windows or Mac OS X) the readiness can not be told; the
+ * agent is given a fixed time to open its port instead, as before the probe
+ * existed.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class AgentPortProbe {
+    /**
+     * The outcome of waiting for the agent
+     */
+    enum Readiness {
+        LISTENING,
+        NOT_LISTENING,
+        /**
+         * The socket table is not available; the fallback delay has elapsed
+         */
+        UNKNOWN
+    }
+
+    final private static long FALLBACK_DELAY = 200;
+    final private static long INITIAL_BACKOFF = 5;
+    final private static long MAX_BACKOFF = 160;
+    final private static File[] SOCKET_TABLES = {
+        new File("/proc/net/tcp"), // NOI18N
+        new File("/proc/net/tcp6") // NOI18N
+    };
+    final private static String LISTEN = "0A"; // NOI18N
+
+    private AgentPortProbe() {}
+
+    /**
+     * Waits for the agent to start listening on the given port<br>
+     * The socket table is checked with a bounded exponential backoff
+     * @param port The agent port
+     * @param timeout The maximum time to wait in milliseconds
+     * @return Returns {@linkplain Readiness#UNKNOWN} after a fixed delay if the socket
+     *         table is not available; otherwise tells whether the port is listening
+     * @throws InterruptedException
+     */
+    static Readiness awaitListening(int port, long timeout) throws InterruptedException {
+        if (!isSupported()) {
+            sleep(Math.min(FALLBACK_DELAY, timeout));
+            return Readiness.UNKNOWN;
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        long backoff = INITIAL_BACKOFF;
+        while (true) {
+            if (isListening(port)) {
+                return Readiness.LISTENING;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return Readiness.NOT_LISTENING;
+            }
+            sleep(Math.min(backoff, remaining));
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+    }
+
+    private static boolean isSupported() {
+        for(File table : SOCKET_TABLES) {
+            if (table.canRead()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isListening(int port) {
+        for(File table : SOCKET_TABLES) {
+            if (table.canRead() && isListening(table, port)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The table lines look like
+     * <pre>
+     *   sl  local_address rem_address   st ...
+     *    0: 00000000:1F90 00000000:0000 0A ...
+     * </pre>
+     */
+    private static boolean isListening(File table, int port) {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(table), US_ASCII))) {
+            r.readLine(); // header
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+"); // NOI18N
+                if (fields.length < 4 || !LISTEN.equals(fields[3])) {
+                    continue;
+                }
+                int idx = fields[1].lastIndexOf(':');
+                if (idx > -1 && Integer.parseInt(fields[1].substring(idx + 1), 16) == port) {
+                    return true;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // treated as not listening yet
+        }
+        return false;
+    }
+}
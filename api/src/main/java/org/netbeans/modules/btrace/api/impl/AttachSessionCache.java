@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import com.sun.tools.attach.AttachNotSupportedException;
+import com.sun.tools.attach.VirtualMachine;
+import static com.sun.tools.attach.VirtualMachine.attach;
+import java.io.IOException;
+import static java.lang.String.valueOf;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Level.SEVERE;
+import java.util.logging.Logger;
+import static java.util.logging.Logger.getLogger;
+import org.netbeans.modules.btrace.spi.SystemPropertiesProvider;
+
+/**
+ * Per-PID cache of the target application system properties<br>
+ * All the properties needed during one deployment (eg. <b>java.home</b> or
+ * <b>btrace.port</b>) are read within a single attach which is always
+ * detached right away. Each engine owns one cache and hands it to the
+ * compiler and the port locator instead of letting them attach on their own.
+ *
+ * @author Jaroslav Bachorik
+ */
+final class AttachSessionCache implements SystemPropertiesProvider {
+    final private static Logger LOGGER = getLogger(AttachSessionCache.class.getName());
+    final private static long TTL = SECONDS.toNanos(30);
+
+    final private ConcurrentMap<Integer, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Retrieves the system properties of the target application, attaching
+     * to it only if there are no recently read properties available
+     * @param pid The application PID
+     * @return Returns the system properties or NULL if it is not possible to attach
+     */
+    @Override
+    public Properties getSystemProperties(int pid) {
+        Session session = sessions.get(pid);
+        if (session == null || session.isExpired()) {
+            Session fresh = new Session(pid);
+            if (session == null) {
+                session = sessions.putIfAbsent(pid, fresh);
+            } else {
+                session = sessions.replace(pid, session, fresh) ? null : sessions.get(pid);
+            }
+            if (session == null) {
+                session = fresh;
+            }
+        }
+        Properties properties = session.load();
+        if (properties == null) {
+            // do not keep the failed attempts around
+            sessions.remove(pid, session);
+        }
+        return properties;
+    }
+
+    /**
+     * Discards the cached properties for the given application<br>
+     * Should be called once the properties may have changed (eg. the agent got loaded)
+     * @param pid The application PID
+     */
+    void release(int pid) {
+        sessions.remove(pid);
+    }
+
+    /**
+     * Reads the system properties of the target application without caching them
+     * @param pid The application PID
+     * @return Returns the system properties or NULL if it is not possible to attach
+     */
+    static Properties readSystemProperties(int pid) {
+        VirtualMachine vm = null;
+        try {
+            vm = attach(valueOf(pid));
+            return vm.getSystemProperties();
+        } catch (AttachNotSupportedException | IOException e) {
+            LOGGER.log(SEVERE, null, e);
+        } finally {
+            if (vm != null) {
+                try {
+                    vm.detach();
+                } catch (IOException e) {
+                    LOGGER.log(SEVERE, null, e);
+                }
+            }
+        }
+        return null;
+    }
+
+    final private static class Session {
+        final private int pid;
+        final private long created = System.nanoTime();
+        private Properties properties;
+        private boolean loaded;
+
+        Session(int pid) {
+            this.pid = pid;
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - created > TTL;
+        }
+
+        synchronized Properties load() {
+            if (!loaded) {
+                loaded = true;
+                properties = readSystemProperties(pid);
+            }
+            return properties;
+        }
+    }
+}
@@ -28,26 +28,38 @@ import static com.sun.btrace.comm.Command.EXIT;
 import static com.sun.btrace.comm.Command.RETRANSFORMATION_START;
 import static com.sun.btrace.comm.Command.SUCCESS;
 import com.sun.btrace.comm.RetransformationStartNotification;
+import java.io.File;
+import static java.io.File.pathSeparator;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EventListener;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 import com.sun.btrace.comm.ErrorCommand;
 import static java.lang.String.valueOf;
 import static java.lang.Thread.currentThread;
-import static java.lang.Thread.sleep;
+import static java.lang.System.nanoTime;
 import java.lang.ref.WeakReference;
 import static java.util.EnumSet.of;
 import java.util.Iterator;
+import java.util.List;
 import java.util.ServiceLoader;
 import static java.util.ServiceLoader.load;
 import java.util.concurrent.ExecutorService;
-import static java.util.concurrent.Executors.newCachedThreadPool;
 import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.FINEST;
 import static java.util.logging.Level.SEVERE;
@@ -56,7 +68,14 @@ import static java.util.logging.Logger.getLogger;
 import org.netbeans.modules.btrace.api.BTraceCompiler;
 import org.netbeans.modules.btrace.api.BTraceEngine;
 import org.netbeans.modules.btrace.api.BTraceTask;
+import org.netbeans.modules.btrace.api.BTraceTaskGroup;
 import org.netbeans.modules.btrace.api.BTraceSettings;
+import org.netbeans.modules.btrace.api.recording.SessionRecorder;
+import static org.netbeans.modules.btrace.api.impl.PhaseStatistics.Phase.ATTACH;
+import static org.netbeans.modules.btrace.api.impl.PhaseStatistics.Phase.COMPILE;
+import static org.netbeans.modules.btrace.api.impl.PhaseStatistics.Phase.READY;
+import static org.netbeans.modules.btrace.api.impl.PhaseStatistics.Phase.STOP;
+import static org.netbeans.modules.btrace.api.impl.PhaseStatistics.Phase.SUBMIT;
 import static org.netbeans.modules.btrace.api.BTraceTask.State.ACCEPTED;
 import static org.netbeans.modules.btrace.api.BTraceTask.State.COMPILED;
 import static org.netbeans.modules.btrace.api.BTraceTask.State.COMPILING;
@@ -64,6 +83,7 @@ import static org.netbeans.modules.btrace.api.BTraceTask.State.FAILED;
 import static org.netbeans.modules.btrace.api.BTraceTask.State.FINISHED;
 import static org.netbeans.modules.btrace.api.BTraceTask.State.INSTRUMENTING;
 import static org.netbeans.modules.btrace.api.BTraceTask.State.RUNNING;
+import static org.netbeans.modules.btrace.api.BTraceTask.State.STARTING;
 import org.netbeans.modules.btrace.spi.BTraceCompilerFactory;
 import org.netbeans.modules.btrace.spi.BTraceSettingsProvider;
 import org.netbeans.modules.btrace.spi.ClasspathProvider;
@@ -81,6 +101,8 @@ import org.netbeans.modules.btrace.spi.impl.PortLocatorImpl;
  */
 public class BTraceEngineImpl extends BTraceEngine {
     final private static Logger LOGGER = getLogger(BTraceEngineImpl.class.getName());
+    final private static long AGENT_READY_TIMEOUT = 5000;
+    final private static long EXIT_ACK_TIMEOUT = 5000;
 
     /**
      * Basic state listener<br>
@@ -104,28 +126,86 @@ public class BTraceEngineImpl extends BTraceEngine {
     private ClasspathProvider cpProvider;
     private PortLocator portLocator;
     private OutputProvider outputProvider;
+    private CompiledScriptCache scriptCache;
 
-    private Map<BTraceTask, Client> clientMap = new HashMap<>();
+    final private Map<BTraceTask, TaskSession> sessions = new ConcurrentHashMap<>();
+    final private Map<BTraceTask, TaskSession> startingMap = new ConcurrentHashMap<>();
+    final private PhaseStatistics phaseStats = new PhaseStatistics();
+    final private AttachSessionCache attachSessions = new AttachSessionCache();
 
-    final private Set<WeakReference<StateListener>> listeners = new HashSet<>();
-    final private ExecutorService commQueue = newCachedThreadPool();
+    final private List<WeakReference<StateListener>> listeners = new CopyOnWriteArrayList<>();
+    final private ExecutorService commQueue;
+    final private ExecutorService controlQueue;
+    final private Semaphore attachPermits;
+    final private MetricsEndpoint metrics;
+    final private StatsdEmitter statsd;
 
     public BTraceEngineImpl() {
 
         this.settingsProvider = initSettingsProvider();
-        this.compilerFactory = initCompilerFactory();
+        this.compilerFactory = initCompilerFactory(attachSessions);
         this.cpProvider = initClasspathProvider();
-        this.portLocator = initPortLocator();
+        this.portLocator = initPortLocator(attachSessions);
         this.outputProvider = initOutputProvider();
+        this.scriptCache = initScriptCache(settingsProvider.getSettings());
+        this.commQueue = EngineExecutors.newCommQueue(settingsProvider.getSettings());
+        this.controlQueue = EngineExecutors.newControlQueue(settingsProvider.getSettings());
+        this.attachPermits = EngineExecutors.newAttachPermits(settingsProvider.getSettings());
+        this.metrics = initMetrics(settingsProvider.getSettings());
+        this.statsd = initStatsd(settingsProvider.getSettings());
     }
 
-    private static BTraceCompilerFactory initCompilerFactory() {
+    private StatsdEmitter initStatsd(BTraceSettings settings) {
+        String address = settings.getStatsd();
+        if (!settings.isStatsdClientSide() || address == null || address.isEmpty()) {
+            return null;
+        }
+        try {
+            StatsdEmitter emitter = new StatsdEmitter(
+                StatsdEmitter.parseAddress(address), settings.getStatsdFlushInterval(), settings.getStatsdPacketSize()
+            );
+            emitter.start();
+            // the listeners are weakly referenced; the engine holds the emitter
+            addListener(emitter);
+            return emitter;
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.log(WARNING, "Unable to start the statsd emitter for " + address, e); // NOI18N
+            return null;
+        }
+    }
+
+    private MetricsEndpoint initMetrics(BTraceSettings settings) {
+        int port = settings.getMetricsPort();
+        if (port <= 0) {
+            return null;
+        }
+        MetricsEndpoint endpoint = new MetricsEndpoint(new InetSocketAddress(settings.getMetricsAddress(), port), this::getStatistics);
+        try {
+            endpoint.start();
+            // the listeners are weakly referenced; the engine holds the endpoint
+            addListener(endpoint);
+            return endpoint;
+        } catch (IOException e) {
+            LOGGER.log(WARNING, "Unable to start the metrics endpoint on port " + port, e); // NOI18N
+            return null;
+        }
+    }
+
+    private static CompiledScriptCache initScriptCache(BTraceSettings settings) {
+        String path = settings.getScriptCachePath();
+        return new CompiledScriptCache(
+            settings.getScriptCacheSize(),
+            path != null && !path.isEmpty() ? new File(path) : null
+        );
+    }
+
+    private static BTraceCompilerFactory initCompilerFactory(AttachSessionCache attachSessions) {
         ServiceLoader<BTraceCompilerFactory> loader = load(BTraceCompilerFactory.class);
         Iterator<BTraceCompilerFactory> iter = loader.iterator();
         if (iter.hasNext()) {
             return iter.next();
         }
-        return new BTraceCompilerFactoryImpl();
+        return new BTraceCompilerFactoryImpl(attachSessions);
     }
 
     private static ClasspathProvider initClasspathProvider() {
@@ -146,13 +226,13 @@ public class BTraceEngineImpl extends BTraceEngine {
         return new BTraceSettingsProviderImpl();
     }
 
-    private static PortLocator initPortLocator() {
+    private static PortLocator initPortLocator(AttachSessionCache attachSessions) {
         ServiceLoader<PortLocator> loader = load(PortLocator.class);
         Iterator<PortLocator> iter = loader.iterator();
         if (iter.hasNext()) {
             return iter.next();
         }
-        return new PortLocatorImpl();
+        return new PortLocatorImpl(attachSessions);
     }
 
     private static OutputProvider initOutputProvider() {
@@ -169,160 +249,411 @@ public class BTraceEngineImpl extends BTraceEngine {
         return new BTraceTaskImpl(pid, this);
     }
 
+    @Override
+    public BTraceTaskGroup createTaskGroup(Collection<Integer> pids) {
+        return new BTraceTaskGroupImpl(pids, settingsProvider.getSettings().getDeployParallelism(), this);
+    }
+
     void addListener(StateListener listener) {
-        synchronized(listeners) {
-            listeners.add(new WeakReference<>(listener));
-        }
+        listeners.add(new WeakReference<>(listener));
     }
 
-    void removeListener(StateListener listener) {
-        synchronized(listeners) {
-            for(Iterator<WeakReference<StateListener>> iter=listeners.iterator();iter.hasNext();) {
-                WeakReference<StateListener> ref = iter.next();
-                StateListener l = ref.get();
-                if (l == null || l.equals(listener)) {
-                    iter.remove();
-                }
-            }
-        }
+    void removeListener(final StateListener listener) {
+        listeners.removeIf((WeakReference<StateListener> ref) -> {
+            StateListener l = ref.get();
+            return l == null || l.equals(listener);
+        });
     }
 
     boolean start(final BTraceTask task) {
+        return startAsync(task).join();
+    }
+
+    /**
+     * Starts the task without blocking the caller
+     * @param task The task to start
+     * @return Returns a future completed with TRUE once the agent reports the script running
+     *         or with FALSE if the task could not be started
+     */
+    CompletableFuture<Boolean> startAsync(final BTraceTask task) {
         LOGGER.finest("Starting BTrace task");
+        final BTraceTaskImpl btrace = (BTraceTaskImpl) task;
+        final BTraceCompiler compiler = compilerFactory.newCompiler(btrace);
+        return supplyAsync(() -> {
+            btrace.setState(COMPILING);
+            byte[] bytecode = compile(btrace, compiler);
+            if (bytecode.length > 0) {
+                btrace.setState(COMPILED);
+                LOGGER.log(FINEST, "Compiled the trace: {0} bytes", bytecode.length);
+            }
+            return bytecode;
+        }, controlQueue).thenCompose((byte[] bytecode) -> {
+            if (bytecode.length == 0) {
+                btrace.setState(FAILED);
+                return completedFuture(false);
+            }
+            return deploy(btrace, compiler, bytecode);
+        }).handle((Boolean result, Throwable t) -> {
+            if (t != null) {
+                LOGGER.log(FINE, null, t);
+            }
+            boolean started = result != null && result;
+            LOGGER.log(FINEST, "BTrace task {0}", started ? "started successfuly" : "failed");
+            if (started) {
+                fireOnTaskStart(task);
+            }
+            return started;
+        });
+    }
 
-        boolean result = doStart(task);
-        LOGGER.log(FINEST, "BTrace task {0}", result ? "started successfuly" : "failed");
-        if (result) {
-            fireOnTaskStart(task);
+    /**
+     * Aborts the startup of the given task<br>
+     * Has no effect on a task which is already running
+     * @param task The task being started
+     */
+    void abort(final BTraceTask task) {
+        TaskSession session = startingMap.get(task);
+        if (session != null) {
+            session.abort();
+            try {
+                session.getClient().close();
+            } catch (IOException e) {
+                // ignore all IO related exception during the abort
+            }
         }
-        return result;
     }
 
-    final private AtomicBoolean stopping = new AtomicBoolean(false);
-
+    /**
+     * Stops the given task<br>
+     * Each task is stopped independently; concurrent stops of different tasks
+     * run in parallel and only one of the concurrent stops of the same task
+     * performs the stop sequence
+     * @param task The task to stop
+     * @return Returns TRUE if the task is not running anymore
+     */
     boolean stop(final BTraceTask task) {
         LOGGER.finest("Attempting to stop BTrace task");
-        try {
-            if (stopping.compareAndSet(false, true)) {
-                LOGGER.finest("Stopping BTrace task");
-                boolean result = doStop(task);
-                LOGGER.log(FINEST, "BTrace task {0}", result ? "stopped successfuly" : "not stopped");
-                if (result) {
-                    fireOnTaskStop(task);
-                }
-                return result;
+        TaskSession session = sessions.remove(task);
+        if (session != null) {
+            LOGGER.finest("Stopping BTrace task");
+            boolean result = doStop(session);
+            LOGGER.log(FINEST, "BTrace task {0}", result ? "stopped successfuly" : "not stopped");
+            if (result) {
+                fireOnTaskStop(task);
             }
-            return true;
-        } finally {
-            stopping.set(false);
+            return result;
         }
+        return true;
     }
 
-    private boolean doStart(BTraceTask task) {
-        final AtomicBoolean result = new AtomicBoolean(false);
-        final BTraceTaskImpl btrace = (BTraceTaskImpl) task;
-        try {
-            final CountDownLatch latch = new CountDownLatch(1);
-            final BTraceCompiler compiler = compilerFactory.newCompiler(btrace);
+    /**
+     * Compiles the script once and deploys it to all the group tasks concurrently
+     * @param tasks The tasks to start; all of them share the script and classpath of the first one
+     * @param parallelism The maximum number of concurrently running attach/submit cycles
+     * <p>
+     * Each application has {@linkplain BTraceSettings#getDeployTimeout()} to
+     * get the script running; an application exceeding it is aborted and
+     * marked as failed so the group start is bounded by the slowest deploy.
+     * </p>
+     */
+    void start(final Collection<BTraceTaskImpl> tasks, int parallelism) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        LOGGER.log(FINEST, "Starting BTrace task group of {0} tasks", tasks.size());
+        for(BTraceTaskImpl btrace : tasks) {
+            btrace.setState(STARTING);
+        }
+        final BTraceTaskImpl first = tasks.iterator().next();
+        final BTraceCompiler firstCompiler = compilerFactory.newCompiler(first);
+        for(BTraceTaskImpl btrace : tasks) {
             btrace.setState(COMPILING);
-            final byte[] bytecode = compiler.compile(btrace.getScript(), task.getClassPath(), outputProvider.getStdErr(task));
-            if (bytecode.length == 0) {
+        }
+        final byte[] bytecode = compile(first, firstCompiler);
+        if (bytecode.length == 0) {
+            for(BTraceTaskImpl btrace : tasks) {
                 btrace.setState(FAILED);
-                return false;
             }
+            return;
+        }
+        for(BTraceTaskImpl btrace : tasks) {
             btrace.setState(COMPILED);
+        }
+        LOGGER.log(FINEST, "Compiled the trace: {0} bytes", bytecode.length);
+
+        final long timeout = settingsProvider.getSettings().getDeployTimeout();
+        final Semaphore permits = new Semaphore(Math.max(1, parallelism));
+        final List<CompletableFuture<Boolean>> deployments = new ArrayList<>(tasks.size());
+        try {
+            for(final BTraceTaskImpl btrace : tasks) {
+                permits.acquire();
+                BTraceCompiler compiler = btrace == first ? firstCompiler : compilerFactory.newCompiler(btrace);
+                final CompletableFuture<Boolean> deployment = deploy(btrace, compiler, bytecode);
+                final ScheduledFuture<?> deadline = BTraceTaskImpl.TIMER.schedule(() -> {
+                    if (deployment.complete(false)) {
+                        LOGGER.log(FINE, "BTrace task {0} did not start in {1}ms", new Object[]{btrace.getPid(), timeout});
+                        controlQueue.execute(() -> {
+                            abort(btrace);
+                            // the agent might have acknowledged the script right before the timeout
+                            stop(btrace);
+                        });
+                    }
+                }, timeout, MILLISECONDS);
+                deployments.add(deployment.whenComplete((Boolean result, Throwable t) -> {
+                    deadline.cancel(false);
+                    permits.release();
+                    LOGGER.log(FINEST, "BTrace task {0} {1}", new Object[]{btrace.getPid(), result != null && result ? "started successfuly" : "failed"});
+                    if (result != null && result) {
+                        fireOnTaskStart(btrace);
+                    } else {
+                        btrace.setState(FAILED);
+                    }
+                }));
+            }
+        } catch (InterruptedException ex) {
+            currentThread().interrupt();
+        }
+        try {
+            // each deploy has its own deadline; the last one started at most the timeout ago
+            allOf(deployments.toArray(new CompletableFuture<?>[deployments.size()])).get(timeout, MILLISECONDS);
+        } catch (InterruptedException ex) {
+            currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException ex) {
+            LOGGER.log(FINE, null, ex);
+        }
+    }
+
+    /**
+     * Attaches to the target application and submits the already compiled script
+     * @return Returns a future completed with TRUE once the agent reports the script running
+     */
+    private CompletableFuture<Boolean> deploy(final BTraceTaskImpl btrace, final BTraceCompiler compiler, final byte[] bytecode) {
+        final CompletableFuture<Boolean> started = new CompletableFuture<>();
+        commQueue.submit(new Runnable() {
+            private boolean attaching;
 
-            LOGGER.log(FINEST, "Compiled the trace: {0} bytes", bytecode.length);
-            commQueue.submit(new Runnable() {
+            public void run() {
+                try {
+                    attachPermits.acquire();
+                } catch (InterruptedException e) {
+                    currentThread().interrupt();
+                    started.complete(false);
+                    return;
+                }
+                attaching = true;
+                try {
+                    if (started.isDone()) {
+                        // timed out while waiting for the permit
+                        return;
+                    }
+                    doRun();
+                } finally {
+                    attached();
+                }
+            }
+
+            /**
+             * Releases the attach permit; the command-read loop runs until
+             * the task stops and must not hold it
+             */
+            private void attached() {
+                if (attaching) {
+                    attaching = false;
+                    attachPermits.release();
+                }
+            }
 
-                public void run() {
-                    int  port = portLocator.getTaskPort(btrace);
-                    LOGGER.log(FINEST, "BTrace agent listening on port {0}", port);
-                    BTraceSettings settings = settingsProvider.getSettings();
-                    final Client client = new Client(
-                        port, null, ".", settings.isDebugMode(), true,
-                        btrace.isUnsafe(), settings.isDumpClasses(),
-                        settings.getDumpClassPath(),
-                        settings.getStatsd()
-                    );
+            private void doRun() {
+                int  port = portLocator.getTaskPort(btrace);
+                LOGGER.log(FINEST, "BTrace agent listening on port {0}", port);
+                BTraceSettings settings = settingsProvider.getSettings();
+                final Client client = new Client(
+                    port, null, ".", settings.isDebugMode(), true,
+                    btrace.isUnsafe(), settings.isDumpClasses(),
+                    settings.getDumpClassPath(),
+                    statsd != null ? null : settings.getStatsd()
+                );
+                final TaskSession session = new TaskSession(client);
+                startingMap.put(btrace, session);
+                if (settings.getRecordingPath() != null) {
+                    try {
+                        session.setRecorder(SessionRecorder.create(
+                            new File(settings.getRecordingPath()), btrace.getName(), btrace.getPid(),
+                            settings.getRecordingSegmentSize(), settings.getRecordingMaxSegments()
+                        ));
+                    } catch (IOException e) {
+                        LOGGER.log(WARNING, "Can not create the session recording", e);
+                    }
+                }
 
+                try {
+                    long ts = nanoTime();
                     try {
                         client.attach(valueOf(btrace.getPid()), compiler.getAgentJarPath(), compiler.getToolsJarPath(), null);
-                        sleep(200); // give the server side time to initialize and open the port
-                        client.submit(bytecode, new String[]{}, (Command cmd) -> {
+                    } finally {
+                        // loading the agent changes the target properties (eg. btrace.port)
+                        attachSessions.release(btrace.getPid());
+                    }
+                    phaseStats.record(ATTACH, ts);
+                    ts = nanoTime();
+                    switch (AgentPortProbe.awaitListening(port, AGENT_READY_TIMEOUT)) {
+                        case NOT_LISTENING:
+                            throw new IOException("BTrace agent is not listening on port " + port); // NOI18N
+                        case UNKNOWN:
+                            // only the fallback delay has elapsed; the readiness was not detected
+                            phaseStats.recordUnknown(READY);
+                            break;
+                        default:
+                            phaseStats.record(READY, ts);
+                    }
+                    if (session.isAborted() || started.isDone()) {
+                        started.complete(false);
+                        return;
+                    }
+                    final long submitTs = nanoTime();
+                    session.setReader(currentThread());
+                    attached();
+                    client.submit(bytecode, new String[]{}, (Command cmd) -> {
+                        if (LOGGER.isLoggable(FINEST)) {
                             LOGGER.log(FINEST, "Received command: {0}", cmd.toString());
-                            switch (cmd.getType()) {
-                                case SUCCESS: {
-                                    if (btrace.getState() == COMPILED) {
-                                        btrace.setState(ACCEPTED);
-                                    } else if (of(INSTRUMENTING, ACCEPTED).contains(btrace.getState())) {
-                                        btrace.setState(RUNNING);
-                                        result.set(true);
-                                        clientMap.put(btrace, client);
-                                        latch.countDown();
-                                    }
-                                    break;
-                                }
-                                case EXIT: {
-                                    btrace.setState(FINISHED);
-                                    latch.countDown();
-                                    stop(btrace);
-                                    break;
-                                }
-                                case RETRANSFORMATION_START: {
-                                    int numClasses = ((RetransformationStartNotification)cmd).getNumClasses();
-                                    btrace.setInstrClasses(numClasses);
-                                    btrace.setState(INSTRUMENTING);
-                                    break;
+                        }
+                        switch (cmd.getType()) {
+                            case SUCCESS: {
+                                if (btrace.getState() == COMPILED) {
+                                    btrace.setState(ACCEPTED);
+                                } else if (of(INSTRUMENTING, ACCEPTED).contains(btrace.getState())) {
+                                    phaseStats.record(SUBMIT, submitTs);
+                                    // register the session before announcing the task running
+                                    sessions.put(btrace, session);
+                                    startingMap.remove(btrace, session);
+                                    btrace.setState(RUNNING);
+                                    started.complete(true);
                                 }
-                                case ERROR: {
-                                    ((ErrorCommand)cmd).getCause().printStackTrace(outputProvider.getStdErr(btrace));
-                                    btrace.setState(FAILED);
-                                    latch.countDown();
-                                    stop(btrace);
-                                    break;
-                                }
-                                default:
-                                    LOGGER.log(WARNING, "Unknown command: {0}", cmd);
+                                break;
                             }
-                            btrace.dispatchCommand(cmd);
-                        });
-                    } catch (Exception e) {
-                        LOGGER.log(FINE, e.getLocalizedMessage(), e);
-                        result.set(false);
-                        latch.countDown();
-                    }
+                            case EXIT: {
+                                session.exited();
+                                btrace.setState(FINISHED);
+                                started.complete(false);
+                                stop(btrace);
+                                break;
+                            }
+                            case RETRANSFORMATION_START: {
+                                int numClasses = ((RetransformationStartNotification)cmd).getNumClasses();
+                                btrace.setInstrClasses(numClasses);
+                                btrace.setState(INSTRUMENTING);
+                                break;
+                            }
+                            case ERROR: {
+                                ((ErrorCommand)cmd).getCause().printStackTrace(outputProvider.getStdErr(btrace));
+                                btrace.setState(FAILED);
+                                started.complete(false);
+                                stop(btrace);
+                                break;
+                            }
+                            default:
+                                LOGGER.log(WARNING, "Unknown command: {0}", cmd);
+                        }
+                        session.record(cmd);
+                        btrace.dispatchCommand(cmd);
+                    });
+                } catch (Exception e) {
+                    LOGGER.log(FINE, e.getLocalizedMessage(), e);
+                    started.complete(false);
+                } finally {
+                    startingMap.remove(btrace, session);
+                    session.closeRecorder();
+                    // the command loop is over; the connection is closed
+                    session.exited();
                 }
-            });
-            latch.await();
+            }
+        });
+        return started;
+    }
 
-        } catch (InterruptedException ex) {
-            LOGGER.log(WARNING, null, ex);
+    /**
+     * Compiles the task script or retrieves the bytecode from the {@linkplain CompiledScriptCache}
+     */
+    private byte[] compile(BTraceTaskImpl btrace, BTraceCompiler compiler) {
+        long ts = nanoTime();
+        try {
+            return doCompile(btrace, compiler);
+        } finally {
+            phaseStats.record(COMPILE, ts);
         }
-        return result.get();
     }
 
-    private boolean doStop(BTraceTask task) {
-        Client client = clientMap.remove(task);
-        if (client != null) {
-            try {
-                client.sendExit(0);
-                sleep(300);
-                client.close();
-            } catch (InterruptedException e) {
-                currentThread().interrupt();
-            } catch (IOException ex) {
-                // ignore all IO related exception during the stop sequence
+    private byte[] doCompile(BTraceTaskImpl btrace, BTraceCompiler compiler) {
+        String script = btrace.getScript();
+        String classPath = btrace.getClassPath();
+        String key = CompiledScriptCache.key(
+            script,
+            classPath + pathSeparator + compiler.getToolsJarPath(),
+            compilerVersion(compiler)
+        );
+        byte[] bytecode = scriptCache.get(key);
+        if (bytecode != null) {
+            LOGGER.log(FINEST, "Using the cached compiled trace {0}", key);
+            return bytecode;
+        }
+        bytecode = compiler.compile(script, classPath, outputProvider.getStdErr(btrace));
+        scriptCache.put(key, bytecode);
+        return bytecode;
+    }
+
+    private static String compilerVersion(BTraceCompiler compiler) {
+        String btraceVersion = Client.class.getPackage() != null ? Client.class.getPackage().getImplementationVersion() : null;
+        return compiler.getClass().getName() + "@" + btraceVersion;
+    }
+
+    @Override
+    public Map<String, Number> getStatistics() {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("scriptCache.memoryHits", scriptCache.getMemoryHits());
+        stats.put("scriptCache.diskHits", scriptCache.getDiskHits());
+        stats.put("scriptCache.misses", scriptCache.getMisses());
+        phaseStats.appendTo(stats);
+        if (statsd != null) {
+            stats.put("statsd.packets", statsd.getPackets());
+            stats.put("statsd.metrics", statsd.getMetrics());
+            stats.put("statsd.failedPackets", statsd.getFailedPackets());
+        }
+        for(BTraceTask task : sessions.keySet()) {
+            DispatchLane lane = ((BTraceTaskImpl)task).getDispatchLane();
+            String prefix = "dispatch." + task.getName() + "@" + task.getPid() + "."; // NOI18N
+            stats.put(prefix + "depth", lane.getDepth());
+            stats.put(prefix + "maxDepth", lane.getMaxDepth());
+            stats.put(prefix + "dispatched", lane.getDispatched());
+            stats.put(prefix + "dropped", lane.getDropped());
+        }
+        return stats;
+    }
+
+    private boolean doStop(TaskSession session) {
+        Client client = session.getClient();
+        long ts = nanoTime();
+        try {
+            client.sendExit(0);
+            // when stopping from within the command loop the acknowledgement can not be received
+            if (!session.isReader(currentThread()) && !session.awaitExit(EXIT_ACK_TIMEOUT, MILLISECONDS)) {
+                LOGGER.log(FINE, "BTrace agent did not acknowledge the exit request in {0}ms", EXIT_ACK_TIMEOUT);
             }
+            client.close();
+        } catch (InterruptedException e) {
+            currentThread().interrupt();
+        } catch (IOException ex) {
+            // ignore all IO related exception during the stop sequence
+        } finally {
+            phaseStats.record(STOP, ts);
         }
         return true;
     }
 
     void sendEvent(BTraceTaskImpl task) {
-        Client client = clientMap.get(task);
-        if (client != null) {
+        TaskSession session = sessions.get(task);
+        if (session != null) {
             try {
-                client.sendEvent();
+                session.getClient().sendEvent();
             } catch (IOException ex) {
                 LOGGER.log(SEVERE, null, ex);
             }
@@ -330,35 +661,63 @@ public class BTraceEngineImpl extends BTraceEngine {
     }
 
     void sendEvent(BTraceTaskImpl task, String eventName) {
-        Client client = clientMap.get(task);
-        if (client != null) {
+        TaskSession session = sessions.get(task);
+        if (session != null) {
             try {
-                client.sendEvent(eventName);
+                session.getClient().sendEvent(eventName);
             } catch (IOException ex) {
                 LOGGER.log(SEVERE, null, ex);
             }
         }
     }
 
+    BTraceSettings getSettings() {
+        return settingsProvider.getSettings();
+    }
+
+    OutputProvider getOutputProvider() {
+        return outputProvider;
+    }
+
+    ExecutorService getControlQueue() {
+        return controlQueue;
+    }
+
     ClasspathProvider getClasspathProvider() {
         return cpProvider;
     }
 
     private void fireOnTaskStart(BTraceTask task) {
-        synchronized(listeners) {
-            for(WeakReference<StateListener> ref : listeners) {
-                StateListener l = ref.get();
-                if (l != null) l.onTaskStart(task);
+        boolean stale = false;
+        for(WeakReference<StateListener> ref : listeners) {
+            StateListener l = ref.get();
+            if (l != null) {
+                l.onTaskStart(task);
+            } else {
+                stale = true;
             }
         }
+        if (stale) {
+            purgeListeners();
+        }
     }
 
     private void fireOnTaskStop(BTraceTask task) {
-        synchronized(listeners) {
-            for(WeakReference<StateListener> ref : listeners) {
-                StateListener l = ref.get();
-                if (l != null) l.onTaskStop(task);
+        boolean stale = false;
+        for(WeakReference<StateListener> ref : listeners) {
+            StateListener l = ref.get();
+            if (l != null) {
+                l.onTaskStop(task);
+            } else {
+                stale = true;
             }
         }
+        if (stale) {
+            purgeListeners();
+        }
+    }
+
+    private void purgeListeners() {
+        listeners.removeIf((WeakReference<StateListener> ref) -> ref.get() == null);
     }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package org.netbeans.modules.btrace.api.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import static java.util.concurrent.CompletableFuture.allOf;
+import org.netbeans.modules.btrace.api.BTraceTask;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.Subscription;
+import org.netbeans.modules.btrace.api.BTraceTask.State;
+import org.netbeans.modules.btrace.api.BTraceTaskGroup;
+
+/**
+ *
+ * @author Jaroslav Bachorik
+ */
+public class BTraceTaskGroupImpl extends BTraceTaskGroup {
+    final private Map<Integer, BTraceTaskImpl> tasks = new LinkedHashMap<>();
+    final private BTraceEngineImpl engine;
+    final private int parallelism;
+
+    private String script;
+
+    BTraceTaskGroupImpl(Collection<Integer> pids, int parallelism, BTraceEngineImpl engine) {
+        this.engine = engine;
+        this.parallelism = parallelism;
+        for(Integer pid : pids) {
+            if (!tasks.containsKey(pid)) {
+                tasks.put(pid, new BTraceTaskImpl(pid, engine));
+            }
+        }
+    }
+
+    @Override
+    public Collection<BTraceTask> getTasks() {
+        return Collections.<BTraceTask>unmodifiableCollection(tasks.values());
+    }
+
+    @Override
+    public BTraceTask getTask(int pid) {
+        return tasks.get(pid);
+    }
+
+    @Override
+    public Map<Integer, State> getStates() {
+        Map<Integer, State> states = new LinkedHashMap<>();
+        for(Map.Entry<Integer, BTraceTaskImpl> e : tasks.entrySet()) {
+            states.put(e.getKey(), e.getValue().getState());
+        }
+        return states;
+    }
+
+    @Override
+    public String getScript() {
+        return script != null ? script : "";
+    }
+
+    @Override
+    public void setScript(String newValue) {
+        script = newValue;
+        for(BTraceTaskImpl task : tasks.values()) {
+            task.setScript(newValue);
+        }
+    }
+
+    @Override
+    public void addMessageDispatcher(MessageDispatcher dispatcher) {
+        for(BTraceTaskImpl task : tasks.values()) {
+            task.addMessageDispatcher(dispatcher);
+        }
+    }
+
+    @Override
+    public void addMessageDispatcher(MessageDispatcher dispatcher, Subscription subscription) {
+        for(BTraceTaskImpl task : tasks.values()) {
+            task.addMessageDispatcher(dispatcher, subscription);
+        }
+    }
+
+    @Override
+    public void removeMessageDispatcher(MessageDispatcher dispatcher) {
+        for(BTraceTaskImpl task : tasks.values()) {
+            task.removeMessageDispatcher(dispatcher);
+        }
+    }
+
+    @Override
+    public void start() {
+        List<BTraceTaskImpl> toStart = new ArrayList<>();
+        for(BTraceTaskImpl task : tasks.values()) {
+            State state = task.getState();
+            if (state == State.NEW || state == State.FINISHED || state == State.FAILED) {
+                toStart.add(task);
+            }
+        }
+        engine.start(toStart, parallelism);
+    }
+
+    @Override
+    public void stop() {
+        List<CompletableFuture<State>> stops = new ArrayList<>(tasks.size());
+        for(BTraceTaskImpl task : tasks.values()) {
+            stops.add(task.stopAsync());
+        }
+        allOf(stops.toArray(new CompletableFuture<?>[stops.size()])).exceptionally((Throwable t) -> null).join();
+    }
+}
@@ -22,44 +22,42 @@
 package org.netbeans.modules.btrace.api.impl;
 
 import com.sun.btrace.comm.Command;
-import static com.sun.btrace.comm.Command.ERROR;
-import static com.sun.btrace.comm.Command.GRID_DATA;
-import static com.sun.btrace.comm.Command.MESSAGE;
-import static com.sun.btrace.comm.Command.NUMBER;
-import static com.sun.btrace.comm.Command.NUMBER_MAP;
-import static com.sun.btrace.comm.Command.RETRANSFORM_CLASS;
-import static com.sun.btrace.comm.Command.STRING_MAP;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.EnumSet;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import com.sun.btrace.comm.ErrorCommand;
-import com.sun.btrace.comm.GridDataCommand;
-import com.sun.btrace.comm.MessageCommand;
-import com.sun.btrace.comm.NumberDataCommand;
-import com.sun.btrace.comm.NumberMapDataCommand;
-import com.sun.btrace.comm.RetransformClassNotification;
-import com.sun.btrace.comm.StringMapDataCommand;
+import java.util.logging.Logger;
 import static java.io.File.pathSeparator;
-import static java.lang.Boolean.parseBoolean;
 import static java.lang.System.out;
 import static java.util.EnumSet.of;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+import java.util.concurrent.CompletableFuture;
+import static java.util.concurrent.CompletableFuture.runAsync;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.Executors;
-import static java.util.concurrent.Executors.newSingleThreadExecutor;
-import static java.util.regex.Pattern.MULTILINE;
-import static java.util.regex.Pattern.compile;
-import static java.util.regex.Pattern.compile;
-import static java.util.regex.Pattern.compile;
-import static java.util.regex.Pattern.compile;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 import org.netbeans.modules.btrace.api.BTraceEngine;
+import org.netbeans.modules.btrace.api.BTraceSettings;
 import org.netbeans.modules.btrace.api.BTraceTask;
 import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
 import org.netbeans.modules.btrace.api.BTraceTask.State;
+import org.netbeans.modules.btrace.api.ScriptModel;
+import org.netbeans.modules.btrace.api.Subscription;
+import org.netbeans.modules.btrace.api.data.HistogramAggregator;
+import org.netbeans.modules.btrace.api.data.HistogramSummary;
+import org.netbeans.modules.btrace.api.data.TimeSeriesStore;
+import org.netbeans.modules.btrace.api.export.ExportOptions;
+import org.netbeans.modules.btrace.api.export.FileExport;
+import org.netbeans.modules.btrace.api.export.JfrExport;
 import static org.netbeans.modules.btrace.api.BTraceTask.State.FAILED;
 import static org.netbeans.modules.btrace.api.BTraceTask.State.FINISHED;
 import static org.netbeans.modules.btrace.api.BTraceTask.State.INSTRUMENTING;
@@ -73,25 +71,42 @@ import org.openide.util.WeakListeners;
  * @author Jaroslav Bachorik
  */
 public class BTraceTaskImpl extends BTraceTask implements BTraceEngineImpl.StateListener {
-    final private static Pattern NAMED_EVENT_PATTERN = compile("@OnEvent\\s*\\(\\s*\\\"(\\w.*)\\\"\\s*\\)", MULTILINE);
-    final private static Pattern ANONYMOUS_EVENT_PATTERN = compile("@OnEvent(?!\\s*\\()");
-    final private static Pattern UNSAFE_PATTERN = compile("@BTrace\\s*\\(.*unsafe\\s*=\\s*(true|false).*\\)", MULTILINE);
-    final private static Pattern NAME_ANNOTATION_PATTERN = compile("@BTrace\\s*\\(.*name\\s*=\\s*\"(.*)\".*\\)", MULTILINE);
-    final private static Pattern NAME_PATTERN = compile("@BTrace.*?class\\s+(.*?)\\s+", MULTILINE);
+    final private static Logger LOGGER = Logger.getLogger(BTraceTaskImpl.class.getName());
 
     final private AtomicReference<State> currentState = new AtomicReference<>(NEW);
-    final private Set<StateListener> stateListeners = new HashSet<>();
-    final private Set<MessageDispatcher> messageDispatchers = new HashSet<>();
-
-    final private static ExecutorService dispatcher = newSingleThreadExecutor();
+    final private SnapshotArray<StateListener> stateListeners = new SnapshotArray<>(new StateListener[0]);
+    private volatile RoutingTable routing = RoutingTable.EMPTY;
+
+    final private static ExecutorService dispatchers = newFixedThreadPool(
+        Math.max(2, Runtime.getRuntime().availableProcessors()),
+        (Runnable r) -> {
+            Thread t = new Thread(r, "BTrace Dispatcher"); // NOI18N
+            t.setDaemon(true);
+            return t;
+        }
+    );
+    final static ScheduledExecutorService TIMER = newSingleThreadScheduledExecutor((Runnable r) -> {
+        Thread t = new Thread(r, "BTrace Task Timer"); // NOI18N
+        t.setDaemon(true);
+        return t;
+    });
 
     private PrintWriter consoleWriter = new PrintWriter(out, true);
 
-    private String script;
+    private volatile String script;
+    private volatile ScriptModel scriptModel = ScriptModel.EMPTY;
+    private volatile TimeSeriesStore timeSeries;
+    private volatile HistogramAggregator histograms;
+    private ScheduledFuture<?> histogramReport;
+    // set once the run's final report has been scheduled
+    private boolean histogramsDone;
+    private volatile FileExport export;
+    private JfrExport jfr;
     private int numInstrClasses;
-    private boolean unsafe;
 
     final private BTraceEngineImpl engine;
+    final private CommandDelivery delivery = new CommandDelivery(() -> routing);
+    final private DispatchLane lane;
 
     final private int pid;
 
@@ -99,6 +114,20 @@ public class BTraceTaskImpl extends BTraceTask implements BTraceEngineImpl.State
         this.pid = pid;
         this.engine = (BTraceEngineImpl)engine;
         this.engine.addListener(this);
+        BTraceSettings settings = this.engine.getSettings();
+        this.lane = new DispatchLane(
+            dispatchers,
+            TIMER,
+            new CommandRingBuffer(
+                settings.getDispatchQueueCapacity(),
+                settings.getDispatchOverflowPolicy(),
+                settings.getDispatchSampleRate()
+            ),
+            settings.getDispatchBatchSize(),
+            settings.getDispatchBatchWindow(),
+            delivery,
+            this::reportDrops
+        );
     }
 
     @Override
@@ -108,25 +137,18 @@ public class BTraceTaskImpl extends BTraceTask implements BTraceEngineImpl.State
 
     @Override
     public String getName() {
-        Matcher m = NAME_ANNOTATION_PATTERN.matcher(getScript());
-        if (m.find()) {
-            return m.group(1);
-        } else {
-            m = NAME_PATTERN.matcher(getScript());
-            if (m.find()) {
-                return m.group(1);
-            }
-        }
-        return null;
+        return scriptModel.getName();
     }
 
     @Override
     public void setScript(String newValue) {
+        scriptModel = ScriptModel.parse(newValue);
         script = newValue;
-        Matcher m = UNSAFE_PATTERN.matcher(getScript());
-        if (m.find()) {
-            unsafe = parseBoolean(m.group(1));
-        }
+    }
+
+    @Override
+    public ScriptModel getScriptModel() {
+        return scriptModel;
     }
 
     @Override
@@ -141,23 +163,17 @@ public class BTraceTaskImpl extends BTraceTask implements BTraceEngineImpl.State
 
     @Override
     public Set<String> getNamedEvents() {
-        Set<String> events = new HashSet<>();
-        Matcher matcher = NAMED_EVENT_PATTERN.matcher(getScript());
-        while (matcher.find()) {
-            events.add(matcher.group(1));
-        }
-        return events;
+        return scriptModel.getNamedEvents();
     }
 
     @Override
     public boolean hasAnonymousEvents() {
-        Matcher matcher = ANONYMOUS_EVENT_PATTERN.matcher(getScript());
-        return matcher.find();
+        return scriptModel.hasAnonymousEvents();
     }
 
     @Override
     public boolean hasEvents() {
-        return getScript() != null && getScript().contains("@OnEvent");
+        return scriptModel.hasEvents();
     }
 
     public int getPid() {
@@ -183,9 +199,7 @@ public class BTraceTaskImpl extends BTraceTask implements BTraceEngineImpl.State
      */
     @Override
     public void addStateListener(StateListener listener) {
-        synchronized (stateListeners) {
-            stateListeners.add(listener);
-        }
+        stateListeners.add(listener);
     }
 
     /**
@@ -194,9 +208,7 @@ public class BTraceTaskImpl extends BTraceTask implements BTraceEngineImpl.State
      */
     @Override
     public void removeStateListener(StateListener listener) {
-        synchronized (stateListeners) {
-            stateListeners.remove(listener);
-        }
+        stateListeners.remove(listener);
     }
 
     /**
@@ -205,9 +217,12 @@ public class BTraceTaskImpl extends BTraceTask implements BTraceEngineImpl.State
      */
     @Override
     public void addMessageDispatcher(MessageDispatcher dispatcher) {
-        synchronized (messageDispatchers) {
-            messageDispatchers.add(dispatcher);
-        }
+        addMessageDispatcher(dispatcher, Subscription.ALL);
+    }
+
+    @Override
+    public synchronized void addMessageDispatcher(MessageDispatcher dispatcher, Subscription subscription) {
+        routing = routing.with(dispatcher, subscription);
     }
 
     /**
@@ -215,10 +230,8 @@ public class BTraceTaskImpl extends BTraceTask implements BTraceEngineImpl.State
      * @param dispatcher {@linkplain StateListener} instance to remove
      */
     @Override
-    public void removeMessageDispatcher(MessageDispatcher dispatcher) {
-        synchronized (messageDispatchers) {
-            messageDispatchers.remove(dispatcher);
-        }
+    public synchronized void removeMessageDispatcher(MessageDispatcher dispatcher) {
+        routing = routing.without(dispatcher);
     }
 
     /**
@@ -244,6 +257,48 @@ public class BTraceTaskImpl extends BTraceTask implements BTraceEngineImpl.State
         }
     }
 
+    @Override
+    public CompletableFuture<State> startAsync() {
+        setState(STARTING);
+        final CompletableFuture<State> result = new CompletableFuture<>();
+        engine.startAsync(this).thenAccept((Boolean started) -> {
+            if (result.isDone()) {
+                // cancelled or timed out in the meantime
+                if (started) {
+                    stop();
+                } else if (getState() != FAILED) {
+                    setState(FINISHED);
+                }
+                return;
+            }
+            if (!started) {
+                setState(FAILED);
+            }
+            result.complete(getState());
+        });
+        result.whenComplete((State state, Throwable t) -> {
+            if (t != null) {
+                engine.abort(this);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<State> startAsync(long timeout, TimeUnit unit) {
+        final CompletableFuture<State> result = startAsync();
+        final ScheduledFuture<?> deadline = TIMER.schedule(() -> {
+            result.completeExceptionally(new TimeoutException());
+        }, timeout, unit);
+        result.whenComplete((State state, Throwable t) -> deadline.cancel(false));
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<State> stopAsync() {
+        return runAsync(this::stop, engine.getControlQueue()).thenApply((Void v) -> getState());
+    }
+
     /**
      * @see BTraceEngine.StateListener#onTaskStart(net.java.visualvm.btrace.api.BTraceTask)
      */
@@ -278,73 +333,214 @@ public class BTraceTaskImpl extends BTraceTask implements BTraceEngineImpl.State
 
     @Override
     public boolean isUnsafe() {
-        return unsafe;
+        return scriptModel.isUnsafe();
     }
 
     void setState(State newValue) {
+        if (newValue == STARTING) {
+            // a new run starts with complete maps
+            delivery.reset();
+            createHistograms();
+        }
         currentState.set(newValue);
+        if (newValue == RUNNING) {
+            startExport();
+            startJfr();
+            startHistograms();
+        } else if (newValue == FINISHED || newValue == FAILED) {
+            stopHistograms();
+            stopJfr();
+            stopExport();
+        }
         fireStateChange();
     }
 
+    @Override
+    public HistogramAggregator getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * Creates the aggregator of a new run; the previous run's one is detached
+     */
+    private synchronized void createHistograms() {
+        BTraceSettings settings = engine.getSettings();
+        String series = settings.getHistogramSeries();
+        if (histogramReport != null) {
+            histogramReport.cancel(false);
+            histogramReport = null;
+        }
+        if (histograms != null) {
+            removeMessageDispatcher(histograms.getDispatcher());
+            histograms = null;
+        }
+        histogramsDone = false;
+        if (series == null || series.trim().isEmpty()) {
+            return;
+        }
+        HistogramAggregator h = new HistogramAggregator(
+            settings.getHistogramHighestValue(),
+            settings.getHistogramDigits(),
+            settings.getHistogramMaxSeries(),
+            series.trim().split("\\s*,\\s*") // NOI18N
+        );
+        addMessageDispatcher(h.getDispatcher(), h.getSubscription());
+        histograms = h;
+    }
+
+    /**
+     * Schedules the periodic reports; RUNNING may be entered repeatedly within a run
+     */
+    private synchronized void startHistograms() {
+        final HistogramAggregator h = histograms;
+        if (h == null || histogramReport != null || histogramsDone) {
+            return;
+        }
+        long interval = Math.max(100, engine.getSettings().getHistogramInterval());
+        final FileExport fe = export;
+        histogramReport = TIMER.scheduleAtFixedRate(() -> report(h.rollInterval(), fe), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopHistograms() {
+        if (histogramReport != null) {
+            histogramReport.cancel(false);
+            histogramReport = null;
+            histogramsDone = true;
+            final HistogramAggregator h = histograms;
+            final FileExport fe = export;
+            TIMER.execute(() -> {
+                report(h.rollInterval(), fe);
+                report(h.getCumulative(), fe);
+            });
+        }
+    }
+
+    private synchronized void startExport() {
+        BTraceSettings settings = engine.getSettings();
+        if (export != null || settings.getExportPath() == null) {
+            return;
+        }
+        String name = getName();
+        File dir = new File(settings.getExportPath(), (name != null ? name : "<?>").replaceAll("[^\\w.-]", "_") + "@" + pid); // NOI18N
+        try {
+            FileExport fe = FileExport.open(dir, new ExportOptions(
+                settings.getExportMaxFileSize(),
+                settings.getExportRotationInterval(),
+                settings.isExportCompressed()
+            ));
+            fe.attach(this);
+            export = fe;
+        } catch (IOException e) {
+            LOGGER.log(WARNING, "Can not export the task data", e);
+        }
+    }
+
+    private synchronized void stopExport() {
+        final FileExport fe = export;
+        if (fe != null) {
+            export = null;
+            // after the final histogram report; the timer runs the tasks in order
+            // and close() only hands the remaining records to the writer threads
+            TIMER.execute(() -> {
+                fe.detach(this);
+                fe.close();
+                if (fe.getDroppedCount() > 0) {
+                    LOGGER.log(WARNING, "{0} exported records dropped for {1}", new Object[]{fe.getDroppedCount(), getName()});
+                }
+            });
+        }
+    }
+
+    private synchronized void startJfr() {
+        if (jfr != null || !engine.getSettings().isExportJfr()) {
+            return;
+        }
+        if (!JfrExport.isAvailable()) {
+            LOGGER.log(FINE, "JDK Flight Recorder is not available; the JFR export is disabled");
+            return;
+        }
+        try {
+            JfrExport je = JfrExport.open();
+            je.attach(this);
+            jfr = je;
+        } catch (IOException e) {
+            LOGGER.log(WARNING, "Can not export the task data as JFR events", e);
+        }
+    }
+
+    private synchronized void stopJfr() {
+        if (jfr != null) {
+            jfr.detach(this);
+            jfr = null;
+        }
+    }
+
+    private void report(List<HistogramSummary> summaries, FileExport fe) {
+        if (summaries.isEmpty()) {
+            return;
+        }
+        if (fe != null) {
+            fe.write(summaries);
+        }
+        PrintWriter pw = engine.getOutputProvider().getStdOut(this);
+        for(HistogramSummary s : summaries) {
+            pw.println("[histogram] " + s); // NOI18N
+        }
+        pw.flush();
+    }
+
     void setInstrClasses(int value) {
         numInstrClasses = value;
     }
 
     private void fireStateChange() {
-        Set<StateListener> toProcess = null;
-
-        synchronized (stateListeners) {
-             toProcess = new HashSet<>(stateListeners);
-        }
-        for (StateListener listener : toProcess) {
-            listener.stateChanged(getState());
+        State state = getState();
+        for (StateListener listener : stateListeners.get()) {
+            listener.stateChanged(state);
         }
     }
 
     void dispatchCommand(final Command cmd) {
-        final Set<MessageDispatcher> dispatchingSet = new HashSet<>();
-        synchronized(messageDispatchers) {
-            dispatchingSet.addAll(messageDispatchers);
+        // the data nobody subscribes to do not even get queued
+        if (routing.accepts(cmd)) {
+            lane.submit(cmd);
         }
-        dispatcher.submit(() -> {
-            for(MessageDispatcher listener : dispatchingSet) {
-                switch (cmd.getType()) {
-                    case MESSAGE: {
-                        listener.onPrintMessage(((MessageCommand)cmd).getMessage());
-                        break;
-                    }
-                    case RETRANSFORM_CLASS: {
-                        listener.onClassInstrumented(((RetransformClassNotification)cmd).getClassName());
-                        break;
-                    }
-                    case NUMBER: {
-                        NumberDataCommand ndc = (NumberDataCommand)cmd;
-                        listener.onNumberMessage(ndc.getName(), ndc.getValue());
-                        break;
-                    }
-                    case NUMBER_MAP: {
-                        NumberMapDataCommand nmdc = (NumberMapDataCommand)cmd;
-                        listener.onNumberMap(nmdc.getName(), nmdc.getData());
-                        break;
-                    }
-                    case STRING_MAP: {
-                        StringMapDataCommand smdc = (StringMapDataCommand)cmd;
-                        listener.onStringMap(smdc.getName(), smdc.getData());
-                        break;
-                    }
-                    case GRID_DATA: {
-                        GridDataCommand gdc = (GridDataCommand)cmd;
-                        listener.onGrid(gdc.getName(), gdc.getData());
-                        break;
-                    }
-                    case ERROR: {
-                        ErrorCommand ec = (ErrorCommand)cmd;
-                        listener.onError(ec.getCause());
-                        break;
-                    }
+    }
+
+    @Override
+    public TimeSeriesStore getTimeSeries() {
+        TimeSeriesStore store = timeSeries;
+        if (store == null) {
+            synchronized(this) {
+                store = timeSeries;
+                if (store == null) {
+                    BTraceSettings settings = engine.getSettings();
+                    store = new TimeSeriesStore(
+                        settings.getTimeSeriesChunkSize(),
+                        settings.getTimeSeriesRawChunks(),
+                        settings.getTimeSeriesDownsampleFactor(),
+                        settings.getTimeSeriesMaxChunks(),
+                        settings.getTimeSeriesMaxSeries(),
+                        settings.isTimeSeriesMapExpansion()
+                    );
+                    addMessageDispatcher(store.getDispatcher(), store.isExpandingMaps()
+                        ? Subscription.to(Subscription.Kind.NUMBER, Subscription.Kind.NUMBER_MAP)
+                        : Subscription.to(Subscription.Kind.NUMBER));
+                    timeSeries = store;
                 }
             }
-        });
+        }
+        return store;
+    }
+
+    DispatchLane getDispatchLane() {
+        return lane;
+    }
+
+    private void reportDrops(long drops) {
+        PrintWriter err = engine.getOutputProvider().getStdErr(this);
+        err.println("*** " + drops + " message(s) dropped; the output can not keep up with the traced application ***");
+        err.flush();
     }
 
     @Override
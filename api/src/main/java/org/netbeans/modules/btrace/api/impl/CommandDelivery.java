@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import com.sun.btrace.comm.Command;
+import com.sun.btrace.comm.ErrorCommand;
+import com.sun.btrace.comm.GridDataCommand;
+import com.sun.btrace.comm.MessageCommand;
+import com.sun.btrace.comm.NumberDataCommand;
+import com.sun.btrace.comm.NumberMapDataCommand;
+import com.sun.btrace.comm.RetransformClassNotification;
+import com.sun.btrace.comm.StringMapDataCommand;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.MapDelta;
+import org.netbeans.modules.btrace.api.NumberMapView;
+import org.netbeans.modules.btrace.api.Subscription;
+import org.netbeans.modules.btrace.api.Subscription.Kind;
+
+import static com.sun.btrace.comm.Command.ERROR;
+import static com.sun.btrace.comm.Command.GRID_DATA;
+import static com.sun.btrace.comm.Command.MESSAGE;
+import static com.sun.btrace.comm.Command.NUMBER;
+import static com.sun.btrace.comm.Command.NUMBER_MAP;
+import static com.sun.btrace.comm.Command.RETRANSFORM_CLASS;
+import static com.sun.btrace.comm.Command.STRING_MAP;
+import static java.util.Collections.unmodifiableList;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * Translates the received commands into the {@linkplain MessageDispatcher} callbacks
+ * <p>
+ * Used both by the live tasks and by the session replay. An instance is
+ * not thread safe; the batches must be delivered one at a time.
+ * </p>
+ * <p>
+ * The lists passed to the batch callbacks are reused, so the MESSAGE and
+ * NUMBER batches are delivered without allocation. A map command allocates
+ * at most one {@linkplain NumberMapView} and one {@linkplain MapDelta},
+ * shared by all its listeners; the listeners are free to keep them.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class CommandDelivery implements DispatchLane.Sink {
+    final private static Logger LOGGER = getLogger(CommandDelivery.class.getName());
+
+    final private Supplier<RoutingTable> routing;
+
+    /**
+     * @param dispatchers The dispatchers subscribed to all the data
+     */
+    public CommandDelivery(MessageDispatcher ... dispatchers) {
+        RoutingTable table = RoutingTable.EMPTY;
+        for(MessageDispatcher d : dispatchers) {
+            table = table.with(d, Subscription.ALL);
+        }
+        final RoutingTable fixed = table;
+        this.routing = () -> fixed;
+    }
+
+    /**
+     * @param routing Provides the current routing for each batch
+     */
+    CommandDelivery(Supplier<RoutingTable> routing) {
+        this.routing = routing;
+    }
+
+    /**
+     * Discards the map snapshots so that the next map dumps are delivered as complete
+     */
+    public void reset() {
+        numberMaps.reset();
+        stringMaps.reset();
+    }
+
+    // reused; only one batch is delivered at a time
+    final private List<String> batchMessages = new ArrayList<>();
+    final private List<String> batchNames = new ArrayList<>();
+    final private List<Number> batchValues = new ArrayList<>();
+    final private List<String> roBatchMessages = unmodifiableList(batchMessages);
+    final private List<String> roBatchNames = unmodifiableList(batchNames);
+    final private List<Number> roBatchValues = unmodifiableList(batchValues);
+    final private MapSnapshotTracker<Number> numberMaps = new MapSnapshotTracker<>();
+    final private MapSnapshotTracker<String> stringMaps = new MapSnapshotTracker<>();
+
+    /**
+     * Delivers a batch of commands; the consecutive runs of MESSAGE and NUMBER
+     * commands are coalesced into the batch callbacks
+     */
+    @Override
+    public void deliver(final Command[] batch, final int count) {
+        final RoutingTable table = routing.get();
+        if (table.getDispatchers().length == 0) {
+            return;
+        }
+        int i = 0;
+        while (i < count) {
+            Command cmd = batch[i];
+            switch (cmd.getType()) {
+                case MESSAGE: {
+                    while (i < count && batch[i].getType() == MESSAGE) {
+                        batchMessages.add(((MessageCommand)batch[i++]).getMessage());
+                    }
+                    try {
+                        for(MessageDispatcher listener : table.route(Kind.MESSAGE, null)) {
+                            try {
+                                listener.onPrintMessages(roBatchMessages);
+                            } catch (RuntimeException e) {
+                                failed(listener, e);
+                            }
+                        }
+                    } finally {
+                        batchMessages.clear();
+                    }
+                    break;
+                }
+                case NUMBER: {
+                    if (table.isFiltered(Kind.NUMBER)) {
+                        // the subscribers differ by the number name
+                        deliver(cmd, table);
+                        i++;
+                        break;
+                    }
+                    while (i < count && batch[i].getType() == NUMBER) {
+                        NumberDataCommand ndc = (NumberDataCommand)batch[i++];
+                        batchNames.add(ndc.getName());
+                        batchValues.add(ndc.getValue());
+                    }
+                    try {
+                        for(MessageDispatcher listener : table.route(Kind.NUMBER, null)) {
+                            try {
+                                listener.onNumberMessages(roBatchNames, roBatchValues);
+                            } catch (RuntimeException e) {
+                                failed(listener, e);
+                            }
+                        }
+                    } finally {
+                        batchNames.clear();
+                        batchValues.clear();
+                    }
+                    break;
+                }
+                default: {
+                    deliver(cmd, table);
+                    i++;
+                }
+            }
+        }
+    }
+
+    private void deliver(final Command cmd, final RoutingTable table) {
+        final MessageDispatcher[] dispatchingSet = table.route(cmd);
+        NumberMapView mapView = null;
+        MapDelta<Number> numberDelta = null;
+        MapDelta<String> stringDelta = null;
+        for(MessageDispatcher listener : dispatchingSet) {
+            try {
+                switch (cmd.getType()) {
+                    case MESSAGE: {
+                        listener.onPrintMessage(((MessageCommand)cmd).getMessage());
+                        break;
+                    }
+                    case RETRANSFORM_CLASS: {
+                        listener.onClassInstrumented(((RetransformClassNotification)cmd).getClassName());
+                        break;
+                    }
+                    case NUMBER: {
+                        NumberDataCommand ndc = (NumberDataCommand)cmd;
+                        listener.onNumberMessage(ndc.getName(), ndc.getValue());
+                        break;
+                    }
+                    case NUMBER_MAP: {
+                        NumberMapDataCommand nmdc = (NumberMapDataCommand)cmd;
+                        DispatcherTraits traits = DispatcherTraits.of(listener);
+                        if (traits.numberMap) {
+                            listener.onNumberMap(nmdc.getName(), nmdc.getData());
+                        } else if (traits.numberMapView) {
+                            if (mapView == null) {
+                                mapView = NumberMapView.of(nmdc.getData());
+                            }
+                            listener.onNumberMap(nmdc.getName(), mapView);
+                        }
+                        if (traits.numberMapDelta) {
+                            if (numberDelta == null) {
+                                numberDelta = numberMaps.update(nmdc.getName(), nmdc.getData(), table);
+                            }
+                            listener.onNumberMapDelta(nmdc.getName(), numberDelta);
+                        }
+                        break;
+                    }
+                    case STRING_MAP: {
+                        StringMapDataCommand smdc = (StringMapDataCommand)cmd;
+                        listener.onStringMap(smdc.getName(), smdc.getData());
+                        if (DispatcherTraits.of(listener).stringMapDelta) {
+                            if (stringDelta == null) {
+                                stringDelta = stringMaps.update(smdc.getName(), smdc.getData(), table);
+                            }
+                            listener.onStringMapDelta(smdc.getName(), stringDelta);
+                        }
+                        break;
+                    }
+                    case GRID_DATA: {
+                        GridDataCommand gdc = (GridDataCommand)cmd;
+                        listener.onGrid(gdc.getName(), gdc.getData());
+                        break;
+                    }
+                    case ERROR: {
+                        ErrorCommand ec = (ErrorCommand)cmd;
+                        listener.onError(ec.getCause());
+                        break;
+                    }
+                }
+            } catch (RuntimeException e) {
+                failed(listener, e);
+            }
+        }
+    }
+
+    /**
+     * A failing dispatcher must not affect the other dispatchers nor the rest of the batch
+     */
+    private static void failed(MessageDispatcher listener, RuntimeException e) {
+        LOGGER.log(WARNING, "Message dispatcher " + listener + " failed", e); // NOI18N
+    }
+}
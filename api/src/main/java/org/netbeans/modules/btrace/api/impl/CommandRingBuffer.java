@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package org.netbeans.modules.btrace.api.impl;
+
+import com.sun.btrace.comm.Command;
+import static com.sun.btrace.comm.Command.GRID_DATA;
+import static com.sun.btrace.comm.Command.MESSAGE;
+import static com.sun.btrace.comm.Command.NUMBER;
+import static com.sun.btrace.comm.Command.NUMBER_MAP;
+import static com.sun.btrace.comm.Command.RETRANSFORM_CLASS;
+import static com.sun.btrace.comm.Command.STRING_MAP;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.netbeans.modules.btrace.api.BTraceSettings.OverflowPolicy;
+import static org.netbeans.modules.btrace.api.BTraceSettings.OverflowPolicy.BLOCK;
+
+/**
+ * A pre-allocated bounded command queue
+ * <p>
+ * When the queue is full the data commands are handled according to the
+ * configured {@linkplain OverflowPolicy}; the control commands always wait for
+ * a free slot so the task lifecycle can not be broken by a flood of data.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class CommandRingBuffer {
+    final private Command[] items;
+    final private OverflowPolicy policy;
+    final private int sampleRate;
+
+    final private ReentrantLock lock = new ReentrantLock();
+    final private Condition notFull = lock.newCondition();
+
+    private int head;
+    private int count;
+    private int maxCount;
+    private long dropped;
+    private long overflows;
+
+    CommandRingBuffer(int capacity, OverflowPolicy policy, int sampleRate) {
+        this.items = new Command[Math.max(1, capacity)];
+        this.policy = policy != null ? policy : BLOCK;
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /**
+     * Enqueues the command, applying the overflow policy if the queue is full
+     * @param cmd The command to enqueue
+     * @return Returns TRUE if the command was enqueued, FALSE if it was dropped
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    @SuppressWarnings("fallthrough")
+    boolean offer(Command cmd) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (count == items.length) {
+                boolean droppable = isDroppable(cmd);
+                switch (droppable ? policy : BLOCK) {
+                    case DROP_NEWEST: {
+                        dropped++;
+                        return false;
+                    }
+                    case SAMPLE: {
+                        if (++overflows % sampleRate != 0) {
+                            dropped++;
+                            return false;
+                        }
+                        // fall through; the sampled command replaces the oldest one
+                    }
+                    case DROP_OLDEST: {
+                        if (isDroppable(items[head])) {
+                            removeHead();
+                            dropped++;
+                            break;
+                        }
+                        // fall through; the oldest command must be kept
+                    }
+                    default: {
+                        while (count == items.length) {
+                            notFull.await();
+                        }
+                    }
+                }
+            }
+            items[(head + count) % items.length] = cmd;
+            count++;
+            if (count > maxCount) {
+                maxCount = count;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Returns the oldest command or NULL if the queue is empty
+     */
+    Command poll() {
+        lock.lock();
+        try {
+            if (count == 0) {
+                return null;
+            }
+            Command cmd = removeHead();
+            notFull.signal();
+            return cmd;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Command removeHead() {
+        Command cmd = items[head];
+        items[head] = null;
+        head = (head + 1) % items.length;
+        count--;
+        return cmd;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getMaxSize() {
+        lock.lock();
+        try {
+            return maxCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isDroppable(Command cmd) {
+        switch (cmd.getType()) {
+            case MESSAGE:
+            case NUMBER:
+            case NUMBER_MAP:
+            case STRING_MAP:
+            case GRID_DATA:
+            case RETRANSFORM_CLASS:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package org.netbeans.modules.btrace.api.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * Content addressed cache of the compiled BTrace scripts.<br>
+ * The compiled bytecode is keyed by a hash of the script source, the resolved
+ * classpath and the compiler version. There is a bounded in-memory LRU tier
+ * and an optional on-disk tier which survives the IDE restarts.
+ *
+ * @author Jaroslav Bachorik
+ */
+final class CompiledScriptCache {
+    final private static Logger LOGGER = getLogger(CompiledScriptCache.class.getName());
+    final private static String SUFFIX = ".class";
+
+    final private Map<String, byte[]> memory;
+    final private File diskDir;
+
+    final private AtomicLong memoryHits = new AtomicLong();
+    final private AtomicLong diskHits = new AtomicLong();
+    final private AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity The maximum number of scripts kept in memory
+     * @param diskDir The directory for the persistent tier or NULL if the
+     *                compiled scripts should be kept in memory only
+     */
+    CompiledScriptCache(final int capacity, File diskDir) {
+        this.memory = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.diskDir = diskDir;
+    }
+
+    /**
+     * Computes the cache key for the given compilation inputs
+     * @param source The script source code
+     * @param classPath The resolved compilation classpath
+     * @param compilerVersion The compiler identification
+     * @return Returns the hex encoded SHA-256 digest of all the inputs
+     */
+    static String key(String source, String classPath, String compilerVersion) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256"); // NOI18N
+            update(md, compilerVersion);
+            update(md, classPath);
+            update(md, source);
+            byte[] digest = md.digest();
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for(byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest md, String value) {
+        byte[] data = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        int len = data.length;
+        // length prefix; keeps the boundaries between the inputs unambiguous
+        md.update(new byte[]{(byte)(len >>> 24), (byte)(len >>> 16), (byte)(len >>> 8), (byte)len});
+        md.update(data);
+    }
+
+    /**
+     * Cache lookup
+     * @param key The key computed by {@linkplain #key(String, String, String)}
+     * @return Returns the cached bytecode or NULL
+     */
+    byte[] get(String key) {
+        byte[] code;
+        synchronized(memory) {
+            code = memory.get(key);
+        }
+        if (code != null) {
+            memoryHits.incrementAndGet();
+            return code;
+        }
+        if (diskDir != null) {
+            File f = new File(diskDir, key + SUFFIX);
+            if (f.isFile()) {
+                try {
+                    code = Files.readAllBytes(f.toPath());
+                    if (code.length > 0) {
+                        synchronized(memory) {
+                            memory.put(key, code);
+                        }
+                        diskHits.incrementAndGet();
+                        return code;
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(FINE, "Unable to read the cached script " + f, e);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the compiled bytecode in all the available tiers
+     * @param key The key computed by {@linkplain #key(String, String, String)}
+     * @param code The compiled bytecode
+     */
+    void put(String key, byte[] code) {
+        if (code == null || code.length == 0) {
+            return;
+        }
+        synchronized(memory) {
+            memory.put(key, code);
+        }
+        if (diskDir != null) {
+            try {
+                if (!diskDir.isDirectory() && !diskDir.mkdirs()) {
+                    return;
+                }
+                Path target = new File(diskDir, key + SUFFIX).toPath();
+                Path tmp = Files.createTempFile(diskDir.toPath(), key, ".tmp");
+                try {
+                    Files.write(tmp, code);
+                    try {
+                        Files.move(tmp, target, ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        Files.move(tmp, target, REPLACE_EXISTING);
+                    }
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException e) {
+                LOGGER.log(FINE, "Unable to persist the compiled script", e);
+            }
+        }
+    }
+
+    long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    long getDiskHits() {
+        return diskHits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+}
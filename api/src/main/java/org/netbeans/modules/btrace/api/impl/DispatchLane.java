@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package org.netbeans.modules.btrace.api.impl;
+
+import com.sun.btrace.comm.Command;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import static java.util.logging.Level.WARNING;
+import java.util.logging.Logger;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * An ordered dispatch lane of a single task
+ * <p>
+ * The commands submitted to a lane are delivered strictly in the order of
+ * submission but the lanes of all the tasks are multiplexed over a shared
+ * worker pool. A lane processes a bounded number of commands before yielding
+ * the worker so a chatty task can not starve the other ones.
+ * </p>
+ * <p>
+ * The commands are buffered in a bounded {@linkplain CommandRingBuffer}; the
+ * number of commands dropped due to an overflow is periodically reported.
+ * </p>
+ * <p>
+ * The commands are handed over to the {@linkplain Sink} in batches limited by
+ * the batch size; optionally the lane waits for the batch window to elapse
+ * after the first command arrives to accumulate larger batches.
+ * </p>
+ * <p>
+ * Submitting and delivering a command allocates nothing by itself. The
+ * allocation left on the path is per batch rather than per command: the
+ * worker pool queue node, the parking nodes of the JDK locks when the reader
+ * and the worker meet, and the timer task when the batch window is used.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class DispatchLane implements Runnable {
+    /**
+     * The actual command delivery
+     */
+    interface Sink {
+        /**
+         * Called from at most one worker at a time
+         * @param batch The commands to deliver in order; the array is reused after the call returns
+         * @param count The number of valid commands in the batch
+         */
+        void deliver(Command[] batch, int count);
+    }
+
+    final private static Logger LOGGER = getLogger(DispatchLane.class.getName());
+    final private static long DROP_REPORT_INTERVAL = 1000;
+
+    final private CommandRingBuffer queue;
+    final private AtomicBoolean scheduled = new AtomicBoolean();
+    final private AtomicLong dispatched = new AtomicLong();
+
+    final private Executor workers;
+    final private ScheduledExecutorService timer;
+    final private long batchWindow;
+    final private Sink sink;
+    final private LongConsumer dropReporter;
+    final private Runnable delayed;
+
+    // accessed only by the worker currently processing the lane
+    final private Command[] batch;
+    private long reportedDrops;
+    private long lastDropReport;
+
+    /**
+     * @param workers The shared worker pool
+     * @param timer The timer used to delay the delivery within the batch window
+     * @param queue The buffer for the pending commands
+     * @param batchSize The maximum number of commands delivered in one batch
+     * @param batchWindow The time in milliseconds to accumulate a batch for; 0 to deliver immediately
+     * @param sink The actual command delivery
+     * @param dropReporter Receives the number of commands dropped since the last report
+     */
+    DispatchLane(Executor workers, ScheduledExecutorService timer, CommandRingBuffer queue, int batchSize, long batchWindow, Sink sink, LongConsumer dropReporter) {
+        this.workers = workers;
+        this.timer = timer;
+        this.queue = queue;
+        this.batch = new Command[Math.max(1, batchSize)];
+        this.batchWindow = batchWindow;
+        this.sink = sink;
+        this.dropReporter = dropReporter;
+        this.delayed = () -> workers.execute(this);
+    }
+
+    void submit(Command cmd) {
+        try {
+            queue.offer(cmd);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            if (batchWindow > 0) {
+                timer.schedule(delayed, batchWindow, MILLISECONDS);
+            } else {
+                workers.execute(this);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        int count = 0;
+        Command cmd;
+        while (count < batch.length && (cmd = queue.poll()) != null) {
+            batch[count++] = cmd;
+        }
+        try {
+            if (count > 0) {
+                sink.deliver(batch, count);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(WARNING, "Failed to dispatch the commands", e);
+        } finally {
+            for(int i = 0; i < count; i++) {
+                batch[i] = null;
+            }
+        }
+        dispatched.addAndGet(count);
+        reportDrops();
+        scheduled.set(false);
+        // a command might have arrived after the last poll but before releasing the lane
+        if (!queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private void reportDrops() {
+        long drops = queue.getDropped() - reportedDrops;
+        if (drops > 0) {
+            long now = System.currentTimeMillis();
+            if (queue.isEmpty() || now - lastDropReport >= DROP_REPORT_INTERVAL) {
+                reportedDrops += drops;
+                lastDropReport = now;
+                dropReporter.accept(drops);
+            }
+        }
+    }
+
+    /**
+     * @return Returns the number of commands waiting for delivery
+     */
+    int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return Returns the highest number of commands ever waiting for delivery
+     */
+    int getMaxDepth() {
+        return queue.getMaxSize();
+    }
+
+    /**
+     * @return Returns the total number of commands dropped due to the queue overflow
+     */
+    long getDropped() {
+        return queue.getDropped();
+    }
+
+    /**
+     * @return Returns the total number of delivered commands
+     */
+    long getDispatched() {
+        return dispatched.get();
+    }
+}
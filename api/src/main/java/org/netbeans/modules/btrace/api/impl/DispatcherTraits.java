@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import java.util.Map;
+import java.util.logging.Logger;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.MapDelta;
+import org.netbeans.modules.btrace.api.NumberMapView;
+
+import static java.util.logging.Level.FINE;
+
+/**
+ * Describes which of the optional {@linkplain MessageDispatcher} callbacks
+ * a particular dispatcher class overrides
+ * <p>
+ * The engine uses this information to prepare the alternative data
+ * representations only when there is a dispatcher interested in them.
+ * The traits are resolved once per dispatcher class.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class DispatcherTraits {
+    final private static Logger LOGGER = Logger.getLogger(DispatcherTraits.class.getName());
+
+    final private static ClassValue<DispatcherTraits> TRAITS = new ClassValue<DispatcherTraits>() {
+        @Override
+        protected DispatcherTraits computeValue(Class<?> type) {
+            return new DispatcherTraits(type);
+        }
+    };
+
+    final boolean numberMap;
+    final boolean numberMapView;
+    final boolean numberMapDelta;
+    final boolean stringMapDelta;
+
+    private DispatcherTraits(Class<?> type) {
+        numberMap = overrides(type, "onNumberMap", String.class, Map.class); // NOI18N
+        numberMapView = overrides(type, "onNumberMap", String.class, NumberMapView.class); // NOI18N
+        numberMapDelta = overrides(type, "onNumberMapDelta", String.class, MapDelta.class); // NOI18N
+        stringMapDelta = overrides(type, "onStringMapDelta", String.class, MapDelta.class); // NOI18N
+    }
+
+    static DispatcherTraits of(MessageDispatcher dispatcher) {
+        return TRAITS.get(dispatcher.getClass());
+    }
+
+    private static boolean overrides(Class<?> type, String name, Class<?>... params) {
+        try {
+            return type.getMethod(name, params).getDeclaringClass() != MessageDispatcher.class;
+        } catch (NoSuchMethodException | SecurityException e) {
+            LOGGER.log(FINE, "Can not resolve " + name + " in " + type.getName(), e); // NOI18N
+            return true;
+        }
+    }
+}
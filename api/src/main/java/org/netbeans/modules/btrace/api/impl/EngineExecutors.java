@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package org.netbeans.modules.btrace.api.impl;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import java.util.logging.Logger;
+import static java.util.logging.Logger.getLogger;
+import org.netbeans.modules.btrace.api.BTraceSettings;
+
+/**
+ * Creates the executors running the work of the tasks
+ * <p>
+ * By default each task occupies one platform thread for as long as it is
+ * running. When {@linkplain BTraceSettings#isVirtualThreads()} is enabled and
+ * the runtime supports virtual threads (JDK 21+) each task gets a virtual
+ * thread instead so the number of platform threads stays flat no matter how
+ * many applications are traced.
+ * </p>
+ * <p>
+ * The carrier pool of the virtual threads is shared by the whole process and
+ * can only be sized by the {@code jdk.virtualThreadScheduler.parallelism}
+ * option on the command line of the IDE; instead, the number of the
+ * concurrently running attach/submit phases is limited by
+ * {@linkplain #newAttachPermits(org.netbeans.modules.btrace.api.BTraceSettings)}.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class EngineExecutors {
+    final private static Logger LOGGER = getLogger(EngineExecutors.class.getName());
+
+    private EngineExecutors() {}
+
+    /**
+     * @return Returns the unbounded executor running the attach/submit/command-read
+     *         cycle of each task for as long as the task is running
+     */
+    static ExecutorService newCommQueue(BTraceSettings settings) {
+        if (useVirtualThreads(settings)) {
+            LOGGER.log(FINE, "Using virtual threads for the BTrace communication");
+        }
+        return newExecutor(settings);
+    }
+
+    /**
+     * @return Returns the unbounded executor running the short lived work
+     *         (compilation, stop) which must never wait for a running task
+     */
+    static ExecutorService newControlQueue(BTraceSettings settings) {
+        return newExecutor(settings);
+    }
+
+    /**
+     * A permit must be held while attaching and submitting the script and
+     * must be released before entering the command-read loop
+     * @return Returns the permits limiting the concurrent attach/submit phases
+     */
+    static Semaphore newAttachPermits(BTraceSettings settings) {
+        int concurrency = settings.getVirtualThreadConcurrency();
+        return new Semaphore(useVirtualThreads(settings) && concurrency > 0 ? concurrency : Integer.MAX_VALUE);
+    }
+
+    private static boolean useVirtualThreads(BTraceSettings settings) {
+        if (!settings.isVirtualThreads()) {
+            return false;
+        }
+        if (virtualThreadFactory() == null) {
+            LOGGER.log(INFO, "Virtual threads are not supported by the runtime; using platform threads");
+            return false;
+        }
+        return true;
+    }
+
+    private static ExecutorService newExecutor(BTraceSettings settings) {
+        if (settings.isVirtualThreads()) {
+            Method factory = virtualThreadFactory();
+            if (factory != null) {
+                try {
+                    return (ExecutorService)factory.invoke(null);
+                } catch (ReflectiveOperationException | SecurityException e) {
+                    LOGGER.log(FINE, null, e);
+                }
+            }
+        }
+        return newCachedThreadPool();
+    }
+
+    private static Method virtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor"); // NOI18N
+        } catch (NoSuchMethodException | SecurityException e) {
+            return null;
+        }
+    }
+}
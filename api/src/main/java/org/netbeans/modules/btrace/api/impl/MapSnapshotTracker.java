@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import org.netbeans.modules.btrace.api.MapDelta;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * Keeps the last received snapshot of each named map and computes the
+ * changes of the subsequent dumps
+ * <p>
+ * The cost of an update is proportional to the size of the map for the
+ * comparison but the resulting delta is proportional to the churn only.
+ * The tracker is not thread safe and is meant to be used from the
+ * dispatch lane of a single task; only {@linkplain #reset()} may be
+ * called from any thread.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class MapSnapshotTracker<V> {
+    final private Map<String, Map<String, V>> snapshots = new HashMap<>();
+    private Object generation;
+    private volatile boolean resetRequested;
+
+    /**
+     * Discards all the snapshots before the next update
+     */
+    void reset() {
+        resetRequested = true;
+    }
+
+    /**
+     * Records the new dump of a map
+     * @param name The map name
+     * @param data The map content
+     * @param generation An identity token of the consumers; when it changes
+     *                   the snapshots are discarded so that every consumer
+     *                   starts from a complete map
+     * @return Returns the changes since the previous dump of the same map
+     */
+    MapDelta<V> update(String name, Map<String, ? extends V> data, Object generation) {
+        if (resetRequested || generation != this.generation) {
+            resetRequested = false;
+            snapshots.clear();
+            this.generation = generation;
+        }
+        Map<String, V> previous = snapshots.get(name);
+        if (previous == null) {
+            previous = new HashMap<>(data);
+            snapshots.put(name, previous);
+            // the snapshot is updated in place by the next dumps; the delta must not see that
+            return new MapDelta<>(name, unmodifiableMap(new HashMap<>(previous)), emptyMap(), emptySet(), previous.size(), true);
+        }
+        Map<String, V> added = null;
+        Map<String, V> changed = null;
+        Set<String> removed = null;
+        for(Map.Entry<String, ? extends V> e : data.entrySet()) {
+            String key = e.getKey();
+            V value = e.getValue();
+            V old = previous.put(key, value);
+            if (old == null) {
+                if (added == null) {
+                    added = new HashMap<>();
+                }
+                added.put(key, value);
+            } else if (!old.equals(value)) {
+                if (changed == null) {
+                    changed = new HashMap<>();
+                }
+                changed.put(key, value);
+            }
+        }
+        if (previous.size() > data.size()) {
+            removed = new HashSet<>();
+            for(Iterator<String> iter = previous.keySet().iterator(); iter.hasNext();) {
+                String key = iter.next();
+                if (!data.containsKey(key)) {
+                    iter.remove();
+                    removed.add(key);
+                }
+            }
+        }
+        return new MapDelta<>(
+            name,
+            added != null ? unmodifiableMap(added) : emptyMap(),
+            changed != null ? unmodifiableMap(changed) : emptyMap(),
+            removed != null ? unmodifiableSet(removed) : emptySet(),
+            previous.size(),
+            false
+        );
+    }
+}
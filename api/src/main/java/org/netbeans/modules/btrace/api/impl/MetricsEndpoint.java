@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import org.netbeans.modules.btrace.api.BTraceTask;
+
+import static java.lang.System.nanoTime;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * A local HTTP endpoint exposing the numeric data of the running tasks
+ * in the Prometheus text exposition format
+ * <p>
+ * The task data is scraped directly from the engine, without the agent
+ * side statsd hop. Only the series changed since the last scrape are re-rendered
+ * and the task part of the response is reused as a whole while nothing changes.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class MetricsEndpoint implements BTraceEngineImpl.StateListener {
+    final private static Logger LOGGER = getLogger(MetricsEndpoint.class.getName());
+    final private static String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8"; // NOI18N
+    final private static byte[] NUMBER_HEADER = "# TYPE btrace_number gauge\n".getBytes(UTF_8); // NOI18N
+    final private static byte[] MAP_HEADER = "# TYPE btrace_map gauge\n".getBytes(UTF_8); // NOI18N
+
+    final private InetSocketAddress address;
+    final private Supplier<Map<String, Number>> statistics;
+    final private Map<BTraceTask, TaskMetrics> tasks = new ConcurrentHashMap<>();
+
+    private volatile boolean dirty = true;
+
+    // scrape state; guarded by "this"
+    private byte[] body = new byte[8192];
+    private int bodyLen;
+    private int seriesCount;
+    private long scrapes;
+    private long renderNanos;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    MetricsEndpoint(InetSocketAddress address, Supplier<Map<String, Number>> statistics) {
+        this.address = address;
+        this.statistics = statistics;
+    }
+
+    synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        HttpServer s = HttpServer.create(address, 0);
+        executor = Executors.newSingleThreadExecutor((Runnable r) -> {
+            Thread t = new Thread(r, "BTrace Metrics Endpoint"); // NOI18N
+            t.setDaemon(true);
+            return t;
+        });
+        s.setExecutor(executor);
+        s.createContext("/metrics", this::handle); // NOI18N
+        s.start();
+        server = s;
+        LOGGER.log(FINE, "Metrics endpoint listening on {0}", s.getAddress());
+    }
+
+    synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    @Override
+    public void onTaskStart(BTraceTask task) {
+        TaskMetrics tm = new TaskMetrics(task, this);
+        if (tasks.putIfAbsent(task, tm) == null) {
+            task.addMessageDispatcher(tm.dispatcher, TaskMetrics.SUBSCRIPTION);
+        }
+    }
+
+    @Override
+    public void onTaskStop(BTraceTask task) {
+        TaskMetrics tm = tasks.remove(task);
+        if (tm != null) {
+            task.removeMessageDispatcher(tm.dispatcher);
+            changed();
+        }
+    }
+
+    void changed() {
+        if (!dirty) {
+            dirty = true;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) { // NOI18N
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] series;
+            int seriesLen;
+            byte[] tail;
+            synchronized(this) {
+                long ts = nanoTime();
+                if (dirty) {
+                    dirty = false;
+                    renderSeries();
+                }
+                scrapes++;
+                tail = renderEngine();
+                series = body;
+                seriesLen = bodyLen;
+                renderNanos = nanoTime() - ts;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE); // NOI18N
+            exchange.sendResponseHeaders(200, seriesLen + tail.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(series, 0, seriesLen);
+                os.write(tail);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void renderSeries() {
+        // exchanges are handled by a single thread; the body buffer can be reused in place
+        bodyLen = 0;
+        int count = 0;
+        append(NUMBER_HEADER);
+        for(TaskMetrics tm : tasks.values()) {
+            for(TaskMetrics.Gauge g : tm.numbers.values()) {
+                append(g.render());
+                count++;
+            }
+        }
+        append(MAP_HEADER);
+        for(TaskMetrics tm : tasks.values()) {
+            for(Map<String, TaskMetrics.Gauge> entries : tm.maps.values()) {
+                for(TaskMetrics.Gauge g : entries.values()) {
+                    append(g.render());
+                    count++;
+                }
+            }
+        }
+        seriesCount = count;
+    }
+
+    private byte[] renderEngine() {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("# TYPE btrace_engine gauge\n"); // NOI18N
+        for(Map.Entry<String, Number> e : statistics.get().entrySet()) {
+            Number n = e.getValue();
+            if (n != null) {
+                sb.append("btrace_engine{stat=\"").append(TaskMetrics.escape(e.getKey())).append("\"} ") // NOI18N
+                  .append(TaskMetrics.format(n.doubleValue())).append('\n');
+            }
+        }
+        sb.append("# TYPE btrace_metrics_scrapes_total counter\n") // NOI18N
+          .append("btrace_metrics_scrapes_total ").append(scrapes).append('\n') // NOI18N
+          .append("# TYPE btrace_metrics_series gauge\n") // NOI18N
+          .append("btrace_metrics_series ").append(seriesCount).append('\n') // NOI18N
+          .append("# TYPE btrace_metrics_render_seconds gauge\n") // NOI18N
+          .append("btrace_metrics_render_seconds ").append(TaskMetrics.format(renderNanos / 1e9)).append('\n'); // NOI18N
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    private void append(byte[] data) {
+        if (bodyLen + data.length > body.length) {
+            body = Arrays.copyOf(body, Math.max(body.length * 2, bodyLen + data.length));
+        }
+        System.arraycopy(data, 0, body, bodyLen, data.length);
+        bodyLen += data.length;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package org.netbeans.modules.btrace.api.impl;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Timing statistics of the task lifecycle phases
+ *
+ * @author Jaroslav Bachorik
+ */
+final class PhaseStatistics {
+    enum Phase {
+        /**
+         * Script compilation (including the compiled script cache lookup)
+         */
+        COMPILE,
+        /**
+         * Loading the BTrace agent into the target application
+         */
+        ATTACH,
+        /**
+         * Waiting for the agent to open its port
+         */
+        READY,
+        /**
+         * Submitting the script until the agent reports it running
+         */
+        SUBMIT,
+        /**
+         * Sending the exit request until it is acknowledged
+         */
+        STOP
+    }
+
+    final private static int PHASES = Phase.values().length;
+
+    final private AtomicLongArray count = new AtomicLongArray(PHASES);
+    final private AtomicLongArray total = new AtomicLongArray(PHASES);
+    final private AtomicLongArray max = new AtomicLongArray(PHASES);
+    final private AtomicLongArray last = new AtomicLongArray(PHASES);
+    final private AtomicLongArray unknown = new AtomicLongArray(PHASES);
+
+    /**
+     * @param phase The phase to record
+     * @param startNanos The {@linkplain System#nanoTime()} value taken at the start of the phase
+     */
+    void record(Phase phase, long startNanos) {
+        long duration = System.nanoTime() - startNanos;
+        int idx = phase.ordinal();
+        count.incrementAndGet(idx);
+        total.addAndGet(idx, duration);
+        last.set(idx, duration);
+        long m;
+        do {
+            m = max.get(idx);
+        } while (duration > m && !max.compareAndSet(idx, m, duration));
+    }
+
+    /**
+     * Counts a phase whose duration could not be measured
+     * @param phase The phase to record
+     */
+    void recordUnknown(Phase phase) {
+        unknown.incrementAndGet(phase.ordinal());
+    }
+
+    void appendTo(Map<String, Number> stats) {
+        for(Phase p : Phase.values()) {
+            int idx = p.ordinal();
+            String prefix = "phase." + p.name().toLowerCase(Locale.ENGLISH) + "."; // NOI18N
+            stats.put(prefix + "count", count.get(idx));
+            stats.put(prefix + "totalMillis", NANOSECONDS.toMillis(total.get(idx)));
+            stats.put(prefix + "maxMillis", NANOSECONDS.toMillis(max.get(idx)));
+            stats.put(prefix + "lastMillis", NANOSECONDS.toMillis(last.get(idx)));
+            stats.put(prefix + "unknown", unknown.get(idx));
+        }
+    }
+}
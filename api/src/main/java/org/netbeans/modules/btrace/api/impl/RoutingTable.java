@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import com.sun.btrace.comm.Command;
+import com.sun.btrace.comm.GridDataCommand;
+import com.sun.btrace.comm.NumberDataCommand;
+import com.sun.btrace.comm.NumberMapDataCommand;
+import com.sun.btrace.comm.StringMapDataCommand;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.Subscription;
+import org.netbeans.modules.btrace.api.Subscription.Kind;
+
+import static com.sun.btrace.comm.Command.ERROR;
+import static com.sun.btrace.comm.Command.GRID_DATA;
+import static com.sun.btrace.comm.Command.MESSAGE;
+import static com.sun.btrace.comm.Command.NUMBER;
+import static com.sun.btrace.comm.Command.NUMBER_MAP;
+import static com.sun.btrace.comm.Command.RETRANSFORM_CLASS;
+import static com.sun.btrace.comm.Command.STRING_MAP;
+
+/**
+ * An immutable routing of the received commands to the subscribed dispatchers
+ * <p>
+ * The table is rebuilt whenever a dispatcher is added or removed. The
+ * dispatchers subscribed to a data kind regardless of the name are resolved
+ * up front; the name-filtered routes are resolved on the first use of
+ * a particular name and cached.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class RoutingTable {
+    final private static MessageDispatcher[] NONE = new MessageDispatcher[0];
+    final private static int MAX_CACHED_NAMES = 4096;
+    final private static Kind[] KINDS = Kind.values();
+
+    final static RoutingTable EMPTY = new RoutingTable(NONE, new Subscription[0]);
+
+    final private MessageDispatcher[] dispatchers;
+    final private Subscription[] subscriptions;
+    final private MessageDispatcher[][] byKind = new MessageDispatcher[KINDS.length][];
+    final private boolean[] filtered = new boolean[KINDS.length];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    final private Map<String, MessageDispatcher[]>[] byName = new Map[KINDS.length];
+
+    private RoutingTable(MessageDispatcher[] dispatchers, Subscription[] subscriptions) {
+        this.dispatchers = dispatchers;
+        this.subscriptions = subscriptions;
+        for(Kind kind : KINDS) {
+            MessageDispatcher[] route = new MessageDispatcher[dispatchers.length];
+            int cnt = 0;
+            for(int i = 0; i < dispatchers.length; i++) {
+                if (subscriptions[i].acceptsAll(kind)) {
+                    route[cnt++] = dispatchers[i];
+                } else if (subscriptions[i].getKinds().contains(kind)) {
+                    filtered[kind.ordinal()] = true;
+                }
+            }
+            byKind[kind.ordinal()] = cnt == 0 ? NONE : Arrays.copyOf(route, cnt);
+            if (filtered[kind.ordinal()]) {
+                byName[kind.ordinal()] = new ConcurrentHashMap<>();
+            }
+        }
+    }
+
+    /**
+     * @return Returns a new table with the dispatcher added or resubscribed
+     */
+    RoutingTable with(MessageDispatcher dispatcher, Subscription subscription) {
+        int idx = indexOf(dispatcher);
+        MessageDispatcher[] ds;
+        Subscription[] ss;
+        if (idx > -1) {
+            ds = dispatchers;
+            ss = subscriptions.clone();
+            ss[idx] = subscription;
+        } else {
+            ds = Arrays.copyOf(dispatchers, dispatchers.length + 1);
+            ss = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            ds[dispatchers.length] = dispatcher;
+            ss[subscriptions.length] = subscription;
+        }
+        return new RoutingTable(ds, ss);
+    }
+
+    /**
+     * @return Returns a new table without the dispatcher or this table if the dispatcher is not registered
+     */
+    RoutingTable without(MessageDispatcher dispatcher) {
+        int idx = indexOf(dispatcher);
+        if (idx == -1) {
+            return this;
+        }
+        MessageDispatcher[] ds = new MessageDispatcher[dispatchers.length - 1];
+        Subscription[] ss = new Subscription[subscriptions.length - 1];
+        System.arraycopy(dispatchers, 0, ds, 0, idx);
+        System.arraycopy(dispatchers, idx + 1, ds, idx, ds.length - idx);
+        System.arraycopy(subscriptions, 0, ss, 0, idx);
+        System.arraycopy(subscriptions, idx + 1, ss, idx, ss.length - idx);
+        return ds.length == 0 ? EMPTY : new RoutingTable(ds, ss);
+    }
+
+    private int indexOf(MessageDispatcher dispatcher) {
+        for(int i = 0; i < dispatchers.length; i++) {
+            if (dispatchers[i].equals(dispatcher)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    MessageDispatcher[] getDispatchers() {
+        return dispatchers;
+    }
+
+    /**
+     * @param kind The data kind
+     * @return Returns TRUE if some dispatcher filters the kind by name
+     */
+    boolean isFiltered(Kind kind) {
+        return filtered[kind.ordinal()];
+    }
+
+    /**
+     * @param kind The data kind
+     * @param name The data name
+     * @return Returns the dispatchers subscribed to the data, in the registration order
+     */
+    MessageDispatcher[] route(Kind kind, String name) {
+        if (!filtered[kind.ordinal()] || name == null) {
+            return byKind[kind.ordinal()];
+        }
+        Map<String, MessageDispatcher[]> cache = byName[kind.ordinal()];
+        MessageDispatcher[] route = cache.get(name);
+        if (route == null) {
+            route = resolve(kind, name);
+            if (cache.size() < MAX_CACHED_NAMES) {
+                cache.put(name, route);
+            }
+        }
+        return route;
+    }
+
+    /**
+     * @param cmd The received command
+     * @return Returns the dispatchers subscribed to the command data
+     */
+    MessageDispatcher[] route(Command cmd) {
+        Kind kind = kindOf(cmd.getType());
+        return kind != null ? route(kind, nameOf(cmd)) : NONE;
+    }
+
+    /**
+     * @param cmd The received command
+     * @return Returns TRUE if there is a dispatcher subscribed to the command data
+     */
+    boolean accepts(Command cmd) {
+        Kind kind = kindOf(cmd.getType());
+        if (kind == null) {
+            return false;
+        }
+        if (byKind[kind.ordinal()].length > 0) {
+            return true;
+        }
+        return filtered[kind.ordinal()] && route(kind, nameOf(cmd)).length > 0;
+    }
+
+    private MessageDispatcher[] resolve(Kind kind, String name) {
+        MessageDispatcher[] route = new MessageDispatcher[dispatchers.length];
+        int cnt = 0;
+        for(int i = 0; i < dispatchers.length; i++) {
+            if (subscriptions[i].accepts(kind, name)) {
+                route[cnt++] = dispatchers[i];
+            }
+        }
+        return cnt == 0 ? NONE : Arrays.copyOf(route, cnt);
+    }
+
+    static Kind kindOf(byte type) {
+        switch (type) {
+            case MESSAGE: return Kind.MESSAGE;
+            case NUMBER: return Kind.NUMBER;
+            case NUMBER_MAP: return Kind.NUMBER_MAP;
+            case STRING_MAP: return Kind.STRING_MAP;
+            case GRID_DATA: return Kind.GRID;
+            case RETRANSFORM_CLASS: return Kind.CLASS_INSTRUMENTED;
+            case ERROR: return Kind.ERROR;
+            default: return null;
+        }
+    }
+
+    private static String nameOf(Command cmd) {
+        switch (cmd.getType()) {
+            case NUMBER: return ((NumberDataCommand)cmd).getName();
+            case NUMBER_MAP: return ((NumberMapDataCommand)cmd).getName();
+            case STRING_MAP: return ((StringMapDataCommand)cmd).getName();
+            case GRID_DATA: return ((GridDataCommand)cmd).getName();
+            default: return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package org.netbeans.modules.btrace.api.impl;
+
+import java.util.Arrays;
+
+/**
+ * A copy-on-write registry of listeners
+ * <p>
+ * The registration creates a new array snapshot while the notification
+ * simply iterates the current snapshot; no locking, copying or iterator
+ * allocation happens on the notification path.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class SnapshotArray<T> {
+    private volatile T[] items;
+
+    /**
+     * @param empty An empty array of the element type
+     */
+    SnapshotArray(T[] empty) {
+        this.items = empty;
+    }
+
+    /**
+     * @return Returns the current snapshot; must not be modified
+     */
+    T[] get() {
+        return items;
+    }
+
+    /**
+     * Adds the item unless an equal one is already registered
+     * @param item The item to add; must not be NULL
+     * @return Returns TRUE if the item was added
+     * @throws NullPointerException if the item is NULL
+     */
+    synchronized boolean add(T item) {
+        if (item == null) {
+            // a NULL item would break the notification of all the other items
+            throw new NullPointerException();
+        }
+        T[] current = items;
+        for(T t : current) {
+            if (t.equals(item)) {
+                return false;
+            }
+        }
+        T[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = item;
+        items = updated;
+        return true;
+    }
+
+    /**
+     * @return Returns TRUE if the item was removed
+     */
+    synchronized boolean remove(T item) {
+        T[] current = items;
+        for(int i = 0; i < current.length; i++) {
+            if (current[i].equals(item)) {
+                T[] updated = Arrays.copyOf(current, current.length - 1);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                items = updated;
+                return true;
+            }
+        }
+        return false;
+    }
+}
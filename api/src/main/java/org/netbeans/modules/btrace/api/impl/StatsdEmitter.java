@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import org.netbeans.modules.btrace.api.BTraceTask;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.NumberMapView;
+import org.netbeans.modules.btrace.api.Subscription;
+import org.netbeans.modules.btrace.api.Subscription.Kind;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * Emits the task data to statsd from the client side
+ * <p>
+ * The numeric values are kept as gauges and the received messages and errors
+ * are counted; both are aggregated over the flush interval and only the
+ * changed metrics are sent, packed into datagrams of at most the configured size.
+ * Each metric is tagged with the task PID and script name (DogStatsD tag syntax).
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class StatsdEmitter implements BTraceEngineImpl.StateListener {
+    final private static Logger LOGGER = getLogger(StatsdEmitter.class.getName());
+    final private static String PREFIX = "btrace."; // NOI18N
+    final private static Subscription SUBSCRIPTION = Subscription.to(Kind.MESSAGE, Kind.NUMBER, Kind.NUMBER_MAP, Kind.ERROR);
+
+    final private static class Gauge {
+        private volatile double value;
+        private volatile boolean dirty;
+
+        void set(double v) {
+            value = v;
+            dirty = true;
+        }
+    }
+
+    /**
+     * The aggregates of a single task; updated by the task dispatch lane, drained by the flush thread
+     */
+    final private class TaskAggregates {
+        final private BTraceTask task;
+        final private byte[] tags;
+        final private Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+        final private LongAdder messages = new LongAdder();
+        final private LongAdder errors = new LongAdder();
+
+        final private MessageDispatcher dispatcher = new MessageDispatcher() {
+            @Override
+            public void onPrintMessage(String message) {
+                messages.increment();
+            }
+
+            @Override
+            public void onPrintMessages(List<String> list) {
+                messages.add(list.size());
+            }
+
+            @Override
+            public void onNumberMessage(String name, long value) {
+                gauge(name).set(value);
+            }
+
+            @Override
+            public void onNumberMessage(String name, double value) {
+                gauge(name).set(value);
+            }
+
+            @Override
+            public void onNumberMessages(List<String> names, List<Number> values) {
+                for(int i = 0; i < names.size(); i++) {
+                    Number n = values.get(i);
+                    if (n != null) {
+                        gauge(names.get(i)).set(n.doubleValue());
+                    }
+                }
+            }
+
+            @Override
+            public void onNumberMap(String name, NumberMapView data) {
+                for(int i = 0; i < data.size(); i++) {
+                    gauge(name + "." + data.getKey(i)).set(data.getDouble(i)); // NOI18N
+                }
+            }
+
+            @Override
+            public void onError(Throwable cause) {
+                errors.increment();
+            }
+        };
+
+        TaskAggregates(BTraceTask task) {
+            this.task = task;
+            this.tags = ("|#pid:" + task.getPid() + ",script:" + sanitize(task.getName()) + "\n").getBytes(UTF_8); // NOI18N
+        }
+
+        private Gauge gauge(String name) {
+            Gauge g = gauges.get(name);
+            if (g == null) {
+                g = gauges.computeIfAbsent(name, (String n) -> new Gauge());
+            }
+            return g;
+        }
+
+        void flush() {
+            long m = messages.sumThenReset();
+            if (m != 0) {
+                emit("messages", line("messages", Long.toString(m), "c")); // NOI18N
+            }
+            long e = errors.sumThenReset();
+            if (e != 0) {
+                emit("errors", line("errors", Long.toString(e), "c")); // NOI18N
+            }
+            for(Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+                Gauge g = entry.getValue();
+                if (g.dirty) {
+                    g.dirty = false;
+                    emitGauge(entry.getKey(), g.value);
+                }
+            }
+        }
+
+        private void emitGauge(String name, double value) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                LOGGER.log(FINE, "Statsd gauge {0} is not a finite number", name);
+                return;
+            }
+            if (value < 0) {
+                // a signed gauge value is a delta to the current one; set the gauge to 0 first
+                emit(name, line(name, "0", "g"), line(name, TaskMetrics.format(value), "g")); // NOI18N
+            } else {
+                emit(name, line(name, TaskMetrics.format(value), "g")); // NOI18N
+            }
+        }
+
+        /**
+         * Appends the lines to the current packet; the lines are never split among packets
+         */
+        private void emit(String name, byte[] ... lines) {
+            int len = 0;
+            for(byte[] line : lines) {
+                len += line.length + tags.length;
+            }
+            if (len > packet.capacity()) {
+                LOGGER.log(FINE, "Statsd metric {0} exceeds the packet size", name);
+                return;
+            }
+            if (len > packet.remaining()) {
+                send();
+            }
+            for(byte[] line : lines) {
+                packet.put(line).put(tags);
+            }
+            metrics.incrementAndGet();
+        }
+    }
+
+    final private InetSocketAddress address;
+    final private long interval;
+    final private Map<BTraceTask, TaskAggregates> tasks = new ConcurrentHashMap<>();
+    final private Queue<TaskAggregates> finished = new ConcurrentLinkedQueue<>();
+    final private AtomicLong packets = new AtomicLong();
+    final private AtomicLong metrics = new AtomicLong();
+    final private AtomicLong failedPackets = new AtomicLong();
+
+    // flush state; accessed by the flush thread only
+    final private ByteBuffer packet;
+    private DatagramChannel channel;
+
+    private ScheduledExecutorService timer;
+
+    StatsdEmitter(InetSocketAddress address, long interval, int packetSize) {
+        this.address = address;
+        this.interval = interval;
+        this.packet = ByteBuffer.allocate(packetSize);
+    }
+
+    /**
+     * Parses a statsd address in the "host[:port]" form; the port defaults to 8125
+     */
+    static InetSocketAddress parseAddress(String statsd) {
+        int idx = statsd.lastIndexOf(':');
+        if (idx > -1) {
+            return new InetSocketAddress(statsd.substring(0, idx), Integer.parseInt(statsd.substring(idx + 1)));
+        }
+        return new InetSocketAddress(statsd, 8125);
+    }
+
+    synchronized void start() throws IOException {
+        if (timer != null) {
+            return;
+        }
+        // not connected; a connected channel fails the following sends with
+        // PortUnreachableException whenever the daemon is not up for a moment
+        channel = DatagramChannel.open();
+        timer = newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread t = new Thread(r, "BTrace Statsd Emitter"); // NOI18N
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::flush, interval, interval, MILLISECONDS);
+    }
+
+    synchronized void close() {
+        if (timer != null) {
+            final DatagramChannel ch = channel;
+            timer.execute(() -> {
+                flush();
+                try {
+                    ch.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            });
+            timer.shutdown();
+            timer = null;
+        }
+    }
+
+    @Override
+    public void onTaskStart(BTraceTask task) {
+        TaskAggregates ta = new TaskAggregates(task);
+        if (tasks.putIfAbsent(task, ta) == null) {
+            task.addMessageDispatcher(ta.dispatcher, SUBSCRIPTION);
+        }
+    }
+
+    @Override
+    public void onTaskStop(BTraceTask task) {
+        TaskAggregates ta = tasks.remove(task);
+        if (ta != null) {
+            task.removeMessageDispatcher(ta.dispatcher);
+            // the aggregates of the last interval are sent with the next flush
+            finished.add(ta);
+        }
+    }
+
+    long getPackets() {
+        return packets.get();
+    }
+
+    long getMetrics() {
+        return metrics.get();
+    }
+
+    long getFailedPackets() {
+        return failedPackets.get();
+    }
+
+    private void flush() {
+        for(TaskAggregates ta : tasks.values()) {
+            ta.flush();
+        }
+        TaskAggregates ta;
+        while ((ta = finished.poll()) != null) {
+            ta.flush();
+        }
+        send();
+    }
+
+    /**
+     * Sends the current packet; a failure loses only this packet so the
+     * rest of the already drained aggregates still get sent
+     */
+    private void send() {
+        if (packet.position() == 0) {
+            return;
+        }
+        packet.flip();
+        try {
+            channel.send(packet, address);
+            packets.incrementAndGet();
+        } catch (IOException e) {
+            if (failedPackets.getAndIncrement() == 0) {
+                LOGGER.log(FINE, "Unable to send the statsd metrics", e);
+            }
+        } finally {
+            packet.clear();
+        }
+    }
+
+    private static byte[] line(String name, String value, String type) {
+        return (PREFIX + sanitize(name) + ":" + value + "|" + type).getBytes(UTF_8); // NOI18N
+    }
+
+    /**
+     * Replaces the characters reserved by the statsd line protocol
+     */
+    static String sanitize(String s) {
+        if (s == null) {
+            return "";
+        }
+        StringBuilder sb = null;
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            boolean reserved = c == ':' || c == '|' || c == '@' || c == '#' || c == ',' || c == '\n' || c == ' ';
+            if (reserved && sb == null) {
+                sb = new StringBuilder(s);
+            }
+            if (reserved) {
+                sb.setCharAt(i, '_');
+            }
+        }
+        return sb != null ? sb.toString() : s;
+    }
+}
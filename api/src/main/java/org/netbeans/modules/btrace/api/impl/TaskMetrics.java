@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.netbeans.modules.btrace.api.BTraceTask;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.NumberMapView;
+import org.netbeans.modules.btrace.api.Subscription;
+import org.netbeans.modules.btrace.api.Subscription.Kind;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps the latest numeric values of a task for the {@linkplain MetricsEndpoint}
+ * <p>
+ * Each series caches its rendered exposition line; the line is re-rendered
+ * only when the value has changed since the previous scrape. The series of a
+ * number map follow its latest snapshot; the keys missing from it are dropped.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class TaskMetrics {
+    final static Subscription SUBSCRIPTION = Subscription.to(Kind.NUMBER, Kind.NUMBER_MAP);
+
+    /**
+     * A single gauge; written by the dispatch lane of the task, rendered by the scraping thread
+     */
+    final static class Gauge {
+        final private byte[] prefix;
+        private volatile double value;
+        private volatile long version;
+        // the map snapshot this entry was last seen in; accessed by the dispatch lane only
+        private long snapshot;
+
+        // render cache; accessed by the scraping thread only
+        private long renderedVersion = -1;
+        private byte[] line;
+
+        Gauge(String prefix) {
+            this.prefix = prefix.getBytes(UTF_8);
+        }
+
+        void set(double v) {
+            value = v;
+            version++;
+        }
+
+        byte[] render() {
+            long v = version;
+            if (v != renderedVersion) {
+                byte[] val = format(value).getBytes(UTF_8);
+                byte[] l = new byte[prefix.length + val.length + 1];
+                System.arraycopy(prefix, 0, l, 0, prefix.length);
+                System.arraycopy(val, 0, l, prefix.length, val.length);
+                l[l.length - 1] = '\n';
+                line = l;
+                renderedVersion = v;
+            }
+            return line;
+        }
+    }
+
+    final private BTraceTask task;
+    final private String labels;
+    final private MetricsEndpoint endpoint;
+    final Map<String, Gauge> numbers = new ConcurrentHashMap<>();
+    final Map<String, Map<String, Gauge>> maps = new ConcurrentHashMap<>();
+    private long snapshots;
+
+    final MessageDispatcher dispatcher = new MessageDispatcher() {
+        @Override
+        public void onNumberMessage(String name, long value) {
+            number(name).set(value);
+            endpoint.changed();
+        }
+
+        @Override
+        public void onNumberMessage(String name, double value) {
+            number(name).set(value);
+            endpoint.changed();
+        }
+
+        @Override
+        public void onNumberMessages(List<String> names, List<Number> values) {
+            for(int i = 0; i < names.size(); i++) {
+                Number n = values.get(i);
+                if (n != null) {
+                    number(names.get(i)).set(n.doubleValue());
+                }
+            }
+            endpoint.changed();
+        }
+
+        @Override
+        public void onNumberMap(String name, NumberMapView data) {
+            Map<String, Gauge> entries = maps.computeIfAbsent(name, (String n) -> new ConcurrentHashMap<>());
+            long snapshot = ++snapshots;
+            for(int i = 0; i < data.size(); i++) {
+                Gauge g = mapEntry(entries, name, data.getKey(i));
+                g.set(data.getDouble(i));
+                g.snapshot = snapshot;
+            }
+            if (entries.size() > data.size()) {
+                entries.values().removeIf((Gauge g) -> g.snapshot != snapshot);
+            }
+            endpoint.changed();
+        }
+    };
+
+    TaskMetrics(BTraceTask task, MetricsEndpoint endpoint) {
+        this.task = task;
+        this.endpoint = endpoint;
+        this.labels = "task=\"" + escape(task.getName()) + "\",pid=\"" + task.getPid() + "\""; // NOI18N
+    }
+
+    BTraceTask getTask() {
+        return task;
+    }
+
+    private Gauge number(String name) {
+        Gauge g = numbers.get(name);
+        if (g == null) {
+            g = numbers.computeIfAbsent(name, (String n) -> new Gauge("btrace_number{" + labels + ",name=\"" + escape(n) + "\"} ")); // NOI18N
+        }
+        return g;
+    }
+
+    private Gauge mapEntry(Map<String, Gauge> entries, String map, String key) {
+        Gauge g = entries.get(key);
+        if (g == null) {
+            g = entries.computeIfAbsent(key, (String k) -> new Gauge("btrace_map{" + labels + ",map=\"" + escape(map) + "\",key=\"" + escape(k) + "\"} ")); // NOI18N
+        }
+        return g;
+    }
+
+    /**
+     * Escapes a label value according to the Prometheus text format
+     */
+    static String escape(String s) {
+        if (s == null) {
+            return "";
+        }
+        StringBuilder sb = null;
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String rep = c == '\\' ? "\\\\" : c == '"' ? "\\\"" : c == '\n' ? "\\n" : null; // NOI18N
+            if (rep != null && sb == null) {
+                sb = new StringBuilder(s.length() + 8);
+                sb.append(s, 0, i);
+            }
+            if (sb != null) {
+                if (rep != null) {
+                    sb.append(rep);
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb != null ? sb.toString() : s;
+    }
+
+    /**
+     * Formats a sample value according to the Prometheus text format
+     */
+    static String format(double v) {
+        if (Double.isNaN(v)) {
+            return "NaN"; // NOI18N
+        }
+        if (Double.isInfinite(v)) {
+            return v > 0 ? "+Inf" : "-Inf"; // NOI18N
+        }
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) {
+            return Long.toString((long)v);
+        }
+        return Double.toString(v);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package org.netbeans.modules.btrace.api.impl;
+
+import com.sun.btrace.client.Client;
+import com.sun.btrace.comm.Command;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.netbeans.modules.btrace.api.recording.SessionRecorder;
+
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Runtime data of a deployed task
+ *
+ * @author Jaroslav Bachorik
+ */
+final class TaskSession {
+    final private static Logger LOGGER = Logger.getLogger(TaskSession.class.getName());
+
+    final private Client client;
+    final private CountDownLatch exited = new CountDownLatch(1);
+    private volatile Thread reader;
+    private volatile boolean aborted;
+    // accessed only by the reader thread
+    private SessionRecorder recorder;
+
+    TaskSession(Client client) {
+        this.client = client;
+    }
+
+    Client getClient() {
+        return client;
+    }
+
+    /**
+     * Marks the current thread as the one running the client command loop
+     */
+    void setReader(Thread t) {
+        reader = t;
+    }
+
+    boolean isReader(Thread t) {
+        return reader == t;
+    }
+
+    /**
+     * Requests the startup of the session to be abandoned
+     */
+    void abort() {
+        aborted = true;
+    }
+
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Called when the agent acknowledges the exit request or the connection gets closed
+     */
+    void exited() {
+        exited.countDown();
+    }
+
+    /**
+     * Starts recording the received commands
+     */
+    void setRecorder(SessionRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Records a received command; a failing recording is abandoned
+     * without affecting the session
+     */
+    void record(Command cmd) {
+        if (recorder != null) {
+            try {
+                recorder.record(cmd);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(WARNING, "Session recording failed; the recording is stopped", e);
+                closeRecorder();
+            }
+        }
+    }
+
+    void closeRecorder() {
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            recorder = null;
+        }
+    }
+
+    boolean awaitExit(long timeout, TimeUnit unit) throws InterruptedException {
+        return exited.await(timeout, unit);
+    }
+}
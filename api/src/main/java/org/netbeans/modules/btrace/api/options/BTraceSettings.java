@@ -62,4 +62,15 @@ final public class BTraceSettings extends com.sun.btrace.api.BTraceSettings {
     public void setDumpClasses(boolean dumpClasses) {
         delegate.setDumpClasses(dumpClasses);
     }
+
+    /**
+     * @return Returns TRUE if the output of all the tasks should go to a single console
+     */
+    public boolean isMultiplexedConsole() {
+        return delegate.isMultiplexedConsole();
+    }
+
+    public void setMultiplexedConsole(boolean multiplexedConsole) {
+        delegate.setMultiplexedConsole(multiplexedConsole);
+    }
 }
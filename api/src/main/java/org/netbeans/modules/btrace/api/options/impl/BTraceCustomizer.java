@@ -50,6 +50,7 @@ public class BTraceCustomizer extends javax.swing.JPanel {
         dumpClassPath = new javax.swing.JTextField();
         dumpCheck = new javax.swing.JCheckBox();
         debugCheck = new javax.swing.JCheckBox();
+        multiplexedCheck = new javax.swing.JCheckBox();
         jSeparator1 = new javax.swing.JSeparator();
 
         dumpClassPathLabel.setText(org.openide.util.NbBundle.getMessage(BTraceCustomizer.class, "BTraceCustomizer.dumpClassPathLabel.text")); // NOI18N
@@ -67,6 +68,8 @@ public class BTraceCustomizer extends javax.swing.JPanel {
 
         debugCheck.setText(org.openide.util.NbBundle.getMessage(BTraceCustomizer.class, "BTraceCustomizer.debugCheck.text")); // NOI18N
 
+        multiplexedCheck.setText(org.openide.util.NbBundle.getMessage(BTraceCustomizer.class, "BTraceCustomizer.multiplexedCheck.text")); // NOI18N
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(this);
         this.setLayout(layout);
         layout.setHorizontalGroup(
@@ -77,7 +80,9 @@ public class BTraceCustomizer extends javax.swing.JPanel {
                     .addGroup(layout.createSequentialGroup()
                         .addComponent(debugCheck)
                         .addGap(18, 18, 18)
-                        .addComponent(dumpCheck))
+                        .addComponent(dumpCheck)
+                        .addGap(18, 18, 18)
+                        .addComponent(multiplexedCheck))
                     .addComponent(jSeparator1, javax.swing.GroupLayout.DEFAULT_SIZE, 565, Short.MAX_VALUE)
                     .addGroup(layout.createSequentialGroup()
                         .addComponent(dumpClassPathLabel)
@@ -91,7 +96,8 @@ public class BTraceCustomizer extends javax.swing.JPanel {
                 .addContainerGap()
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(debugCheck)
-                    .addComponent(dumpCheck))
+                    .addComponent(dumpCheck)
+                    .addComponent(multiplexedCheck))
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
                 .addComponent(jSeparator1, javax.swing.GroupLayout.PREFERRED_SIZE, 10, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
@@ -112,6 +118,7 @@ public class BTraceCustomizer extends javax.swing.JPanel {
     private javax.swing.JCheckBox dumpCheck;
     private javax.swing.JTextField dumpClassPath;
     private javax.swing.JLabel dumpClassPathLabel;
+    private javax.swing.JCheckBox multiplexedCheck;
     private javax.swing.JSeparator jSeparator1;
     // End of variables declaration//GEN-END:variables
 
@@ -119,12 +126,14 @@ public class BTraceCustomizer extends javax.swing.JPanel {
         debugCheck.setSelected(sharedInstance().isDebugMode());
         dumpCheck.setSelected(sharedInstance().isDumpClasses());
         dumpClassPath.setText(sharedInstance().getDumpClassPath());
+        multiplexedCheck.setSelected(sharedInstance().isMultiplexedConsole());
         updateEnablement();
     }
 
     synchronized void store() {
         sharedInstance().setDebugMode(debugCheck.isSelected());
         sharedInstance().setDumpClasses(dumpCheck.isSelected());
+        sharedInstance().setMultiplexedConsole(multiplexedCheck.isSelected());
         if (dumpCheck.isSelected()) {
             sharedInstance().setDumpClassPath(dumpClassPath.getText());
         }
@@ -35,6 +35,7 @@ public class BTraceSettingsImpl {
     final private static String DEBUG_PROPERTY = "debugFlag";
     final private static String DUMP_PROPERTY = "dumpFlag" ;
     final private static String DUMP_PATH_PROPERTY = "dumpPath";
+    final private static String MULTIPLEXED_CONSOLE_PROPERTY = "multiplexedConsole"; // NOI18N
 
     private Preferences prefs = forModule(BTraceSettingsImpl.class);
 
@@ -63,4 +64,12 @@ public class BTraceSettingsImpl {
     public void setDumpClasses(boolean dumpClasses) {
         prefs.putBoolean(DUMP_PROPERTY, dumpClasses);
     }
+
+    public boolean isMultiplexedConsole() {
+        return prefs.getBoolean(MULTIPLEXED_CONSOLE_PROPERTY, false);
+    }
+
+    public void setMultiplexedConsole(boolean multiplexedConsole) {
+        prefs.putBoolean(MULTIPLEXED_CONSOLE_PROPERTY, multiplexedConsole);
+    }
 }
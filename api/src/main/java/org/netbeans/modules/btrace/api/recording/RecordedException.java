@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.recording;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+/**
+ * Stands for an exception reported by a recorded session
+ * <p>
+ * The original exception can not be reconstructed; this one carries its
+ * class name, message and the textual stack trace.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class RecordedException extends Exception {
+    final private static long serialVersionUID = 1L;
+
+    final private String className;
+    final private String stackTrace;
+
+    RecordedException(String className, String message, String stackTrace) {
+        super(message, null, false, false);
+        this.className = className;
+        this.stackTrace = stackTrace;
+    }
+
+    /**
+     * @return Returns the class name of the original exception
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    @Override
+    public String toString() {
+        String msg = getLocalizedMessage();
+        return msg != null ? className + ": " + msg : className; // NOI18N
+    }
+
+    @Override
+    public void printStackTrace(PrintStream s) {
+        s.print(stackTrace != null ? stackTrace : toString());
+    }
+
+    @Override
+    public void printStackTrace(PrintWriter s) {
+        s.print(stackTrace != null ? stackTrace : toString());
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.recording;
+
+import com.sun.btrace.comm.Command;
+import com.sun.btrace.comm.ErrorCommand;
+import com.sun.btrace.comm.GridDataCommand;
+import com.sun.btrace.comm.MessageCommand;
+import com.sun.btrace.comm.NumberDataCommand;
+import com.sun.btrace.comm.NumberMapDataCommand;
+import com.sun.btrace.comm.RetransformClassNotification;
+import com.sun.btrace.comm.StringMapDataCommand;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.sun.btrace.comm.Command.ERROR;
+import static com.sun.btrace.comm.Command.GRID_DATA;
+import static com.sun.btrace.comm.Command.MESSAGE;
+import static com.sun.btrace.comm.Command.NUMBER;
+import static com.sun.btrace.comm.Command.NUMBER_MAP;
+import static com.sun.btrace.comm.Command.RETRANSFORM_CLASS;
+import static com.sun.btrace.comm.Command.STRING_MAP;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.INDEX_ENTRY_SIZE;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.INDEX_FILE;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.MAGIC;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.RECORD_HEADER_SIZE;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.SEGMENT_EXT;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.SEGMENT_HEADER_SIZE;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.TAG_DOUBLE;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.TAG_LONG;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.TAG_NULL;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.TAG_STRING;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.segmentFile;
+
+/**
+ * A session recording written by {@linkplain SessionRecorder}
+ * <p>
+ * The recording is read through {@linkplain Cursor} instances; a recording
+ * still being written can be read as well, the cursor stops at the last
+ * complete record and picks up the segments created after the recording
+ * was opened.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class Recording {
+    final private File dir;
+    private volatile int[] segments;
+    final private long[] indexTimes;
+    final private int[] indexSegments;
+    final private int[] indexOffsets;
+
+    private Recording(File dir, int[] segments, long[] indexTimes, int[] indexSegments, int[] indexOffsets) {
+        this.dir = dir;
+        this.segments = segments;
+        this.indexTimes = indexTimes;
+        this.indexSegments = indexSegments;
+        this.indexOffsets = indexOffsets;
+    }
+
+    /**
+     * Opens a recording
+     * @param dir The recording directory
+     * @return Returns the recording
+     * @throws IOException if the directory does not contain a recording
+     */
+    public static Recording open(File dir) throws IOException {
+        int[] segments = listSegments(dir);
+        if (segments == null) {
+            throw new FileNotFoundException(dir.getPath());
+        }
+
+        File indexFile = new File(dir, INDEX_FILE);
+        long[] times = new long[0];
+        int[] segs = new int[0];
+        int[] offsets = new int[0];
+        if (indexFile.isFile()) {
+            try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) { // NOI18N
+                FileChannel ch = raf.getChannel();
+                int entries = (int)(ch.size() / INDEX_ENTRY_SIZE);
+                ByteBuffer bb = ch.map(READ_ONLY, 0, (long)entries * INDEX_ENTRY_SIZE);
+                times = new long[entries];
+                segs = new int[entries];
+                offsets = new int[entries];
+                for(int i = 0; i < entries; i++) {
+                    times[i] = bb.getLong();
+                    segs[i] = bb.getInt();
+                    offsets[i] = bb.getInt();
+                }
+            }
+        }
+        return new Recording(dir, segments, times, segs, offsets);
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * @return Returns the sorted numbers of the segments in the directory or NULL if it can not be listed
+     */
+    private static int[] listSegments(File dir) {
+        File[] files = dir.listFiles((File d, String name) -> name.startsWith("segment-") && name.endsWith(SEGMENT_EXT)); // NOI18N
+        if (files == null) {
+            return null;
+        }
+        int[] segments = new int[files.length];
+        int cnt = 0;
+        for(File f : files) {
+            String n = f.getName();
+            try {
+                segments[cnt] = Integer.parseInt(n.substring("segment-".length(), n.length() - SEGMENT_EXT.length())); // NOI18N
+                cnt++;
+            } catch (NumberFormatException e) {
+                // not a segment
+            }
+        }
+        segments = Arrays.copyOf(segments, cnt);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Finds the first segment following the given one, looking for the
+     * segments created by the writer in the meantime if necessary
+     * @return Returns the segment number or -1 if there is none yet
+     */
+    private int nextSegment(int after) {
+        int next = firstAfter(segments, after);
+        if (next < 0) {
+            int[] current = listSegments(dir);
+            if (current != null) {
+                segments = current;
+                next = firstAfter(current, after);
+            }
+        }
+        return next;
+    }
+
+    private static int firstAfter(int[] segments, int after) {
+        int idx = Arrays.binarySearch(segments, after);
+        idx = idx < 0 ? -(idx + 1) : idx + 1;
+        return idx < segments.length ? segments[idx] : -1;
+    }
+
+    /**
+     * @return Returns the timestamp of the first indexed record or -1 for an empty recording
+     */
+    public long getStartTime() {
+        Cursor c = openCursor();
+        try {
+            return c.next() ? c.getTimestamp() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return Returns a new cursor positioned before the first record
+     */
+    public Cursor openCursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A forward-only iterator over the recorded commands
+     */
+    public final class Cursor {
+        private int segmentNo = -1;
+        private ByteBuffer buffer;
+        private boolean pending;
+        private byte type;
+        private long timestamp;
+        private int payload;
+        private int readPos;
+        private Command command;
+        private char[] chars = new char[256];
+
+        private Cursor() {}
+
+        /**
+         * Moves to the next record
+         * @return Returns FALSE if there are no more records
+         * @throws IOException
+         */
+        public boolean next() throws IOException {
+            if (pending) {
+                pending = false;
+                return true;
+            }
+            while (true) {
+                if (buffer == null && !openSegment(nextSegment(segmentNo), SEGMENT_HEADER_SIZE)) {
+                    return false;
+                }
+                int pos = buffer.position();
+                int length = lengthAt(pos);
+                if (length < 0) {
+                    if (nextSegment(segmentNo) < 0) {
+                        // the end of the data written so far; the next call retries the same position
+                        return false;
+                    }
+                    // the writer has moved on to the next segment; the record may have
+                    // been completed right before that
+                    if (lengthAt(pos) < 0) {
+                        buffer = null;
+                    }
+                    continue;
+                }
+                type = buffer.get(pos + 4);
+                timestamp = buffer.getLong(pos + 5);
+                payload = pos + RECORD_HEADER_SIZE;
+                command = null;
+                buffer.position(pos + 4 + length);
+                return true;
+            }
+        }
+
+        /**
+         * Positions the cursor so that the following {@linkplain #next()}
+         * moves to the first record with the timestamp not lower than the given one
+         * @param target The timestamp in milliseconds
+         * @throws IOException
+         */
+        public void seek(long target) throws IOException {
+            pending = false;
+            int entry = Arrays.binarySearch(indexTimes, target);
+            if (entry < 0) {
+                entry = -entry - 2;
+            } else {
+                // the first of the entries with the same timestamp
+                while (entry > 0 && indexTimes[entry - 1] == target) {
+                    entry--;
+                }
+            }
+            buffer = null;
+            segmentNo = -1;
+            if (entry >= 0 && !openSegment(indexSegments[entry], indexOffsets[entry])) {
+                // the segment has been discarded; start with the oldest retained one after it
+                segmentNo = indexSegments[entry];
+            }
+            while (next()) {
+                if (timestamp >= target) {
+                    pending = true;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return Returns the length of the complete record at the given position or -1
+         */
+        private int lengthAt(int pos) {
+            int length = buffer.limit() - pos < 4 ? 0 : buffer.getInt(pos);
+            return length < RECORD_HEADER_SIZE - 4 || buffer.limit() - pos < 4 + length ? -1 : length;
+        }
+
+        /**
+         * Opens the given segment or the first readable one following it
+         */
+        private boolean openSegment(int no, int offset) throws IOException {
+            // the cursor stays on the current segment until another one is opened so
+            // that a segment whose header is still being written gets retried
+            while (no >= 0) {
+                File f = segmentFile(dir, no);
+                try (RandomAccessFile raf = new RandomAccessFile(f, "r")) { // NOI18N
+                    ByteBuffer bb = raf.getChannel().map(READ_ONLY, 0, raf.length());
+                    if (bb.limit() >= SEGMENT_HEADER_SIZE && bb.getInt(0) == MAGIC) {
+                        bb.position(Math.min(Math.max(offset, SEGMENT_HEADER_SIZE), bb.limit()));
+                        buffer = bb;
+                        segmentNo = no;
+                        return true;
+                    }
+                } catch (FileNotFoundException e) {
+                    // discarded in the meantime
+                }
+                no = nextSegment(no);
+                offset = SEGMENT_HEADER_SIZE;
+            }
+            return false;
+        }
+
+        /**
+         * @return Returns the record timestamp in milliseconds
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return Returns the type of the recorded command
+         */
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         * Decodes the current record
+         * @return Returns the recorded command
+         */
+        public Command getCommand() {
+            if (command == null) {
+                command = decode();
+            }
+            return command;
+        }
+
+        private Command decode() {
+            readPos = payload;
+            switch (type) {
+                case MESSAGE: {
+                    return new MessageCommand(readString());
+                }
+                case NUMBER: {
+                    String name = readString();
+                    return new NumberDataCommand(name, readNumber());
+                }
+                case NUMBER_MAP: {
+                    String name = readString();
+                    int size = readInt();
+                    Map<String, Number> data = new HashMap<>(size * 4 / 3 + 1);
+                    for(int i = 0; i < size; i++) {
+                        String key = readString();
+                        data.put(key, readNumber());
+                    }
+                    return new NumberMapDataCommand(name, data);
+                }
+                case STRING_MAP: {
+                    String name = readString();
+                    int size = readInt();
+                    Map<String, String> data = new HashMap<>(size * 4 / 3 + 1);
+                    for(int i = 0; i < size; i++) {
+                        String key = readString();
+                        data.put(key, readString());
+                    }
+                    return new StringMapDataCommand(name, data);
+                }
+                case GRID_DATA: {
+                    String name = readString();
+                    int rows = readInt();
+                    List<Object[]> data = new ArrayList<>(rows);
+                    for(int i = 0; i < rows; i++) {
+                        Object[] row = new Object[readInt()];
+                        for(int j = 0; j < row.length; j++) {
+                            row[j] = readValue();
+                        }
+                        data.add(row);
+                    }
+                    return new GridDataCommand(name, data);
+                }
+                case RETRANSFORM_CLASS: {
+                    return new RetransformClassNotification(readString());
+                }
+                case ERROR: {
+                    String className = readString();
+                    String message = readString();
+                    return new ErrorCommand(new RecordedException(className, message, readString()));
+                }
+                default:
+                    throw new IllegalStateException("Unknown record type " + type); // NOI18N
+            }
+        }
+
+        private int readInt() {
+            int v = buffer.getInt(readPos);
+            readPos += 4;
+            return v;
+        }
+
+        private Object readValue() {
+            ByteBuffer bb = buffer;
+            byte tag = bb.get(readPos++);
+            switch (tag) {
+                case TAG_LONG: {
+                    long v = bb.getLong(readPos);
+                    readPos += 8;
+                    return v;
+                }
+                case TAG_DOUBLE: {
+                    double v = bb.getDouble(readPos);
+                    readPos += 8;
+                    return v;
+                }
+                case TAG_STRING: {
+                    return readString();
+                }
+                case TAG_NULL:
+                default:
+                    return null;
+            }
+        }
+
+        private Number readNumber() {
+            Object v = readValue();
+            if (v instanceof String) {
+                try {
+                    return new BigDecimal((String)v);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            return (Number)v;
+        }
+
+        private String readString() {
+            ByteBuffer bb = buffer;
+            int len = bb.getInt(readPos);
+            readPos += 4;
+            if (len < 0) {
+                return null;
+            }
+            if (chars.length < len) {
+                chars = new char[len];
+            }
+            int end = readPos + len;
+            int cnt = 0;
+            while (readPos < end) {
+                int b = bb.get(readPos++) & 0xff;
+                if (b < 0x80) {
+                    chars[cnt++] = (char)b;
+                } else if ((b & 0xe0) == 0xc0) {
+                    chars[cnt++] = (char)(((b & 0x1f) << 6) | (bb.get(readPos++) & 0x3f));
+                } else {
+                    int b2 = bb.get(readPos++) & 0x3f;
+                    int b3 = bb.get(readPos++) & 0x3f;
+                    chars[cnt++] = (char)(((b & 0x0f) << 12) | (b2 << 6) | b3);
+                }
+            }
+            return new String(chars, 0, cnt);
+        }
+    }
+}
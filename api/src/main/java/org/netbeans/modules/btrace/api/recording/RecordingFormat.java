@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.recording;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * The on-disk layout of a session recording
+ * <p>
+ * A recording is a directory containing numbered segment files and a
+ * timestamp index. Each segment starts with a header
+ * <pre>
+ * int magic, short version, short reserved, long creation time
+ * </pre>
+ * followed by records
+ * <pre>
+ * int length, byte command type, long timestamp, payload[length - 9]
+ * </pre>
+ * and is terminated by a zero length (the unused tail of a segment is zero-filled).
+ * The index consists of 16 byte entries
+ * <pre>
+ * long timestamp, int segment number, int record offset
+ * </pre>
+ * pointing to the first record of every second and of every segment.
+ * All the numbers are big endian; the strings are stored as an int
+ * byte length (-1 for NULL) followed by the modified UTF-8 bytes.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class RecordingFormat {
+    final static int MAGIC = 0x42545253; // "BTRS"
+    final static short VERSION = 1;
+    final static int SEGMENT_HEADER_SIZE = 16;
+    final static int RECORD_HEADER_SIZE = 4 + 1 + 8;
+    final static int INDEX_ENTRY_SIZE = 16;
+
+    final static String INDEX_FILE = "index.idx"; // NOI18N
+    final static String SEGMENT_EXT = ".btr"; // NOI18N
+
+    // value tags
+    final static byte TAG_NULL = 'N';
+    final static byte TAG_LONG = 'J';
+    final static byte TAG_DOUBLE = 'D';
+    final static byte TAG_STRING = 'S';
+
+    private RecordingFormat() {}
+
+    static File segmentFile(File dir, int segment) {
+        return new File(dir, String.format(Locale.ROOT, "segment-%06d%s", segment, SEGMENT_EXT)); // NOI18N
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.recording;
+
+import com.sun.btrace.comm.Command;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.impl.CommandDelivery;
+
+/**
+ * Feeds a {@linkplain Recording} back through a set of {@linkplain MessageDispatcher}s
+ * <p>
+ * The commands are delivered exactly the way a live task delivers them,
+ * including the batch, primitive and delta callbacks. The replay runs
+ * in the thread calling {@linkplain #run()}; the speed may be changed,
+ * the replay may be repositioned by {@linkplain #seek(long)} and stopped
+ * from any thread.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class Replay {
+    /**
+     * Replays the commands with the original pacing
+     */
+    final public static double REAL_TIME = 1.0d;
+    /**
+     * Replays the commands without any pauses
+     */
+    final public static double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+    final private static int BATCH_SIZE = 512;
+    final private static long MAX_PAUSE = TimeUnit.MILLISECONDS.toNanos(100);
+
+    final private Recording recording;
+    final private CommandDelivery delivery;
+    final private Command[] batch = new Command[BATCH_SIZE];
+    private int batched;
+    // pacing state; accessed by the replaying thread only
+    private long baseTime = Long.MIN_VALUE;
+    private long baseNanos;
+    private double baseSpeed;
+
+    private volatile double speed = REAL_TIME;
+    private volatile long seekTarget = Long.MIN_VALUE;
+    private volatile boolean stopped;
+
+    public Replay(Recording recording, MessageDispatcher ... dispatchers) {
+        this.recording = recording;
+        this.delivery = new CommandDelivery(dispatchers);
+    }
+
+    /**
+     * @param speed The speed relative to the original pacing; eg. 2.0 replays twice
+     *              as fast as recorded. {@linkplain #AS_FAST_AS_POSSIBLE} or any
+     *              non-positive value disables the pacing.
+     */
+    public void setSpeed(double speed) {
+        this.speed = speed;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Repositions the replay to the first command recorded at or after the given time
+     * @param timestamp The timestamp in milliseconds
+     */
+    public void seek(long timestamp) {
+        seekTarget = timestamp;
+    }
+
+    /**
+     * Stops a running replay
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Replays the recording until its end or until {@linkplain #stop()} is called
+     * @return Returns the number of delivered commands
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public long run() throws IOException, InterruptedException {
+        stopped = false;
+        baseTime = Long.MIN_VALUE;
+        Recording.Cursor cursor = recording.openCursor();
+        long delivered = 0;
+        try {
+            while (!stopped) {
+                long target = seekTarget;
+                if (target != Long.MIN_VALUE) {
+                    seekTarget = Long.MIN_VALUE;
+                    flush();
+                    cursor.seek(target);
+                    // the maps are not continuous across the jump
+                    delivery.reset();
+                    baseTime = Long.MIN_VALUE;
+                }
+                if (!cursor.next()) {
+                    break;
+                }
+                if (!pace(cursor.getTimestamp())) {
+                    // stopped or repositioned while waiting
+                    continue;
+                }
+                batch[batched++] = cursor.getCommand();
+                delivered++;
+                if (batched == BATCH_SIZE) {
+                    flush();
+                }
+            }
+        } finally {
+            flush();
+        }
+        return delivered;
+    }
+
+    /**
+     * Waits until the record with the given timestamp is due
+     * @return Returns FALSE if the replay has been stopped or repositioned in the meantime
+     */
+    private boolean pace(long timestamp) throws InterruptedException {
+        while (true) {
+            double s = speed;
+            if (s <= 0 || Double.isInfinite(s)) {
+                baseTime = Long.MIN_VALUE;
+                return true;
+            }
+            if (baseTime == Long.MIN_VALUE || s != baseSpeed) {
+                // (re)start the pacing from this record
+                baseTime = timestamp;
+                baseNanos = System.nanoTime();
+                baseSpeed = s;
+            }
+            long wait = baseNanos + (long)((timestamp - baseTime) * 1000000d / s) - System.nanoTime();
+            if (wait <= 0) {
+                return true;
+            }
+            flush();
+            if (stopped || seekTarget != Long.MIN_VALUE) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.min(wait, MAX_PAUSE));
+        }
+    }
+
+    private void flush() {
+        if (batched > 0) {
+            delivery.deliver(batch, batched);
+            Arrays.fill(batch, 0, batched, null);
+            batched = 0;
+        }
+    }
+}
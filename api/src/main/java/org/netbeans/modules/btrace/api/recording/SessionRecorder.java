@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.recording;
+
+import com.sun.btrace.comm.Command;
+import com.sun.btrace.comm.ErrorCommand;
+import com.sun.btrace.comm.GridDataCommand;
+import com.sun.btrace.comm.MessageCommand;
+import com.sun.btrace.comm.NumberDataCommand;
+import com.sun.btrace.comm.NumberMapDataCommand;
+import com.sun.btrace.comm.RetransformClassNotification;
+import com.sun.btrace.comm.StringMapDataCommand;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import org.netbeans.modules.btrace.api.NumberMapView;
+
+import static com.sun.btrace.comm.Command.ERROR;
+import static com.sun.btrace.comm.Command.GRID_DATA;
+import static com.sun.btrace.comm.Command.MESSAGE;
+import static com.sun.btrace.comm.Command.NUMBER;
+import static com.sun.btrace.comm.Command.NUMBER_MAP;
+import static com.sun.btrace.comm.Command.RETRANSFORM_CLASS;
+import static com.sun.btrace.comm.Command.STRING_MAP;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.INDEX_ENTRY_SIZE;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.INDEX_FILE;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.MAGIC;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.SEGMENT_HEADER_SIZE;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.TAG_DOUBLE;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.TAG_LONG;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.TAG_NULL;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.TAG_STRING;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.VERSION;
+import static org.netbeans.modules.btrace.api.recording.RecordingFormat.segmentFile;
+
+/**
+ * Persists the commands received by a task into a memory-mapped,
+ * segment-rotated recording
+ * <p>
+ * The recorder is meant to be used by a single thread - the one reading
+ * the commands from the agent. A record is encoded into a reusable buffer
+ * and copied into the mapped segment; there is no locking and, apart from
+ * the segment rotation and the once-per-second index entry, no system call
+ * on the recording path. The data are written back to the disk by the
+ * operating system; a segment is forced to the disk and unmapped when the
+ * recorder moves to the next one or gets closed so the retired segment
+ * files can be deleted even on platforms refusing to delete a mapped file.
+ * </p>
+ * <p>
+ * The recordings can be read back by {@linkplain Recording} and replayed by {@linkplain Replay}.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+public final class SessionRecorder implements Closeable {
+    final private static Logger LOGGER = Logger.getLogger(SessionRecorder.class.getName());
+
+    final private File dir;
+    final private long segmentSize;
+    final private int maxSegments;
+    final private FileChannel index;
+    final private ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+
+    private ByteBuffer scratch = ByteBuffer.allocate(8192);
+    private MappedByteBuffer segment;
+    private int segmentNo = -1;
+    private long lastIndexedSecond = Long.MIN_VALUE;
+    private long records;
+    private boolean closed;
+
+    private SessionRecorder(File dir, long segmentSize, int maxSegments) throws IOException {
+        this.dir = dir;
+        this.segmentSize = Math.max(segmentSize, 64 * 1024);
+        this.maxSegments = maxSegments;
+        this.index = new RandomAccessFile(new File(dir, INDEX_FILE), "rw").getChannel(); // NOI18N
+    }
+
+    /**
+     * Creates a new recording directory
+     * @param root The directory the recordings are kept in
+     * @param name The task name; may be NULL
+     * @param pid The traced process id
+     * @param segmentSize The size of a segment file in bytes
+     * @param maxSegments The maximum number of segments retained; the oldest ones are deleted (0 = unlimited)
+     * @return Returns a new recorder
+     * @throws IOException
+     */
+    public static SessionRecorder create(File root, String name, int pid, long segmentSize, int maxSegments) throws IOException {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()); // NOI18N
+        String prefix = (name != null ? name : "<?>").replaceAll("[^\\w.-]", "_") + "@" + pid + "-" + stamp; // NOI18N
+        File dir = new File(root, prefix);
+        for(int i = 1; dir.exists(); i++) {
+            dir = new File(root, prefix + "-" + i); // NOI18N
+        }
+        if (!dir.mkdirs()) {
+            throw new IOException("Can not create recording directory " + dir); // NOI18N
+        }
+        return new SessionRecorder(dir, segmentSize, maxSegments);
+    }
+
+    /**
+     * @return Returns the recording directory
+     */
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * @return Returns the number of records written so far
+     */
+    public long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Appends a command to the recording; the commands not carrying data
+     * (eg. the acknowledgements) are ignored
+     * @param cmd The command received from the agent
+     * @throws IOException
+     */
+    public void record(Command cmd) throws IOException {
+        if (closed || !encode(cmd)) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        int length = 1 + 8 + scratch.position();
+        if (segment == null || segment.remaining() < 4 + length + 4) {
+            rotate(4 + length + 4);
+        }
+        long second = timestamp / 1000;
+        if (second != lastIndexedSecond) {
+            writeIndex(timestamp);
+            lastIndexedSecond = second;
+        }
+        int start = segment.position();
+        segment.position(start + 4);
+        segment.put(cmd.getType());
+        segment.putLong(timestamp);
+        scratch.flip();
+        segment.put(scratch);
+        // the length is published last; a live reader never sees a partially written record
+        segment.putInt(start, length);
+        records++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                release();
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    private void rotate(int required) throws IOException {
+        release();
+        segmentNo++;
+        File f = segmentFile(dir, segmentNo);
+        long size = Math.max(segmentSize, SEGMENT_HEADER_SIZE + required);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) { // NOI18N
+            segment = raf.getChannel().map(READ_WRITE, 0, size);
+        }
+        segment.putInt(MAGIC);
+        segment.putShort(VERSION);
+        segment.putShort((short)0);
+        segment.putLong(System.currentTimeMillis());
+        // every segment gets indexed from its start
+        lastIndexedSecond = Long.MIN_VALUE;
+        if (maxSegments > 0 && segmentNo >= maxSegments) {
+            File old = segmentFile(dir, segmentNo - maxSegments);
+            if (!old.delete()) {
+                LOGGER.log(WARNING, "Can not delete recording segment {0}", old);
+            }
+        }
+    }
+
+    /**
+     * Writes the current segment back to the disk and unmaps it
+     */
+    private void release() {
+        MappedByteBuffer mbb = segment;
+        segment = null;
+        if (mbb != null) {
+            mbb.force();
+            unmap(mbb);
+        }
+    }
+
+    /**
+     * Frees the mapping right away instead of waiting for the buffer to be
+     * garbage collected; best effort - if the JDK internals are not accessible
+     * the mapping is left to the garbage collector
+     */
+    private static void unmap(MappedByteBuffer mbb) {
+        try {
+            try {
+                // JDK 9+
+                Class<?> unsafeClz = Class.forName("sun.misc.Unsafe"); // NOI18N
+                Method invokeCleaner = unsafeClz.getMethod("invokeCleaner", ByteBuffer.class); // NOI18N
+                Field f = unsafeClz.getDeclaredField("theUnsafe"); // NOI18N
+                f.setAccessible(true);
+                invokeCleaner.invoke(f.get(null), mbb);
+            } catch (NoSuchMethodException e) {
+                // JDK 8
+                Method cleanerMethod = mbb.getClass().getMethod("cleaner"); // NOI18N
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(mbb);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner); // NOI18N
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(FINE, "Can not unmap the recording segment", e);
+        }
+    }
+
+    private void writeIndex(long timestamp) throws IOException {
+        indexEntry.clear();
+        indexEntry.putLong(timestamp);
+        indexEntry.putInt(segmentNo);
+        indexEntry.putInt(segment.position());
+        indexEntry.flip();
+        while (indexEntry.hasRemaining()) {
+            index.write(indexEntry);
+        }
+    }
+
+    /**
+     * Encodes the command payload into the scratch buffer
+     * @return Returns FALSE if the command is not recorded
+     */
+    private boolean encode(Command cmd) {
+        scratch.clear();
+        switch (cmd.getType()) {
+            case MESSAGE: {
+                putString(((MessageCommand)cmd).getMessage());
+                return true;
+            }
+            case NUMBER: {
+                NumberDataCommand ndc = (NumberDataCommand)cmd;
+                putString(ndc.getName());
+                putValue(ndc.getValue());
+                return true;
+            }
+            case NUMBER_MAP: {
+                NumberMapDataCommand nmdc = (NumberMapDataCommand)cmd;
+                putString(nmdc.getName());
+                Map<String, ? extends Number> data = nmdc.getData();
+                int sizePos = scratch.position();
+                putInt(0);
+                int size = 0;
+                for(Map.Entry<String, ? extends Number> e : data.entrySet()) {
+                    putString(e.getKey());
+                    putValue(e.getValue());
+                    size++;
+                }
+                scratch.putInt(sizePos, size);
+                return true;
+            }
+            case STRING_MAP: {
+                StringMapDataCommand smdc = (StringMapDataCommand)cmd;
+                putString(smdc.getName());
+                Map<String, String> data = smdc.getData();
+                int sizePos = scratch.position();
+                putInt(0);
+                int size = 0;
+                for(Map.Entry<String, String> e : data.entrySet()) {
+                    putString(e.getKey());
+                    putString(e.getValue());
+                    size++;
+                }
+                scratch.putInt(sizePos, size);
+                return true;
+            }
+            case GRID_DATA: {
+                GridDataCommand gdc = (GridDataCommand)cmd;
+                putString(gdc.getName());
+                List<Object[]> data = gdc.getData();
+                putInt(data.size());
+                for(Object[] row : data) {
+                    putInt(row.length);
+                    for(Object cell : row) {
+                        putValue(cell);
+                    }
+                }
+                return true;
+            }
+            case RETRANSFORM_CLASS: {
+                putString(((RetransformClassNotification)cmd).getClassName());
+                return true;
+            }
+            case ERROR: {
+                Throwable t = ((ErrorCommand)cmd).getCause();
+                StringWriter sw = new StringWriter();
+                if (t != null) {
+                    t.printStackTrace(new PrintWriter(sw));
+                }
+                putString(t != null ? t.getClass().getName() : null);
+                putString(t != null ? t.getMessage() : null);
+                putString(sw.toString());
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    private void putValue(Object value) {
+        ensure(9);
+        if (value == null) {
+            scratch.put(TAG_NULL);
+        } else if (value instanceof Number && NumberMapView.isIntegral((Number)value)) {
+            scratch.put(TAG_LONG);
+            scratch.putLong(((Number)value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            scratch.put(TAG_DOUBLE);
+            scratch.putDouble(((Number)value).doubleValue());
+        } else {
+            scratch.put(TAG_STRING);
+            putString(value.toString());
+        }
+    }
+
+    private void putInt(int value) {
+        ensure(4);
+        scratch.putInt(value);
+    }
+
+    private void putString(String s) {
+        if (s == null) {
+            putInt(-1);
+            return;
+        }
+        int len = s.length();
+        ensure(4 + len * 3);
+        int lenPos = scratch.position();
+        scratch.putInt(0);
+        int start = scratch.position();
+        for(int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007f) {
+                scratch.put((byte)c);
+            } else if (c > 0x07ff) {
+                scratch.put((byte)(0xe0 | ((c >> 12) & 0x0f)));
+                scratch.put((byte)(0x80 | ((c >> 6) & 0x3f)));
+                scratch.put((byte)(0x80 | (c & 0x3f)));
+            } else {
+                scratch.put((byte)(0xc0 | ((c >> 6) & 0x1f)));
+                scratch.put((byte)(0x80 | (c & 0x3f)));
+            }
+        }
+        scratch.putInt(lenPos, scratch.position() - start);
+    }
+
+    private void ensure(int bytes) {
+        if (scratch.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, scratch.position() + bytes));
+            scratch.flip();
+            bigger.put(scratch);
+            scratch = bigger;
+        }
+    }
+}
@@ -36,17 +36,14 @@ import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Map;
+import java.util.Properties;
 import java.util.logging.Level;
 import static java.util.logging.Level.SEVERE;
 import java.util.logging.Logger;
 import static java.util.logging.Logger.getLogger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import static java.util.regex.Pattern.DOTALL;
-import static java.util.regex.Pattern.MULTILINE;
-import static java.util.regex.Pattern.UNIX_LINES;
 import org.netbeans.modules.btrace.api.BTraceCompiler;
 import org.netbeans.modules.btrace.api.BTraceTask;
+import org.netbeans.modules.btrace.api.ScriptModel;
 
 /**
  *
@@ -55,24 +52,34 @@ import org.netbeans.modules.btrace.api.BTraceTask;
 public class BaseBTraceCompiler extends BTraceCompiler {
     final private static Logger LOGGER = getLogger(BTraceCompiler.class.getName());
 
-    final private static Pattern classNamePattern = Pattern.compile("@BTrace\\s*.+?\\s*class\\s*(.*?)\\s+\\{", MULTILINE | DOTALL | UNIX_LINES);
-
     final private com.sun.btrace.compiler.Compiler c;
     final private BTraceTask task;
+    final private SystemPropertiesProvider properties;
+
     public BaseBTraceCompiler(BTraceTask task) {
+        this(task, null);
+    }
+
+    /**
+     * @param task The task to compile the script for
+     * @param properties The provider of the target application properties;
+     *                   NULL to attach to the application on its own
+     */
+    public BaseBTraceCompiler(BTraceTask task, SystemPropertiesProvider properties) {
         c = new com.sun.btrace.compiler.Compiler(null);
         this.task = task;
+        this.properties = properties;
     }
 
     @Override
     public byte[] compile(String source, String classPath, Writer errorWriter) {
         try {
-            Matcher matcher = classNamePattern.matcher(source);
-            if (matcher.find()) {
+            String className = getScriptModel(source).getClassName();
+            if (className != null) {
                 if (errorWriter == null) {
                     errorWriter = new PrintWriter(out);
                 }
-                String fileName = matcher.group(1) + ".java";
+                String fileName = className + ".java";
                 String completeCP = getToolsJarPath() + pathSeparator + getClientJarPath() + pathSeparator + classPath;
                 Map<String, byte[]> compilationMap =c.compile(fileName, source, errorWriter, ".", completeCP);
                 if (compilationMap != null) {
@@ -85,6 +92,14 @@ public class BaseBTraceCompiler extends BTraceCompiler {
         return new byte[0];
     }
 
+    private ScriptModel getScriptModel(String source) {
+        // reuse the model already built by the task if compiling its script
+        if (task != null && source.equals(task.getScript())) {
+            return task.getScriptModel();
+        }
+        return ScriptModel.parse(source);
+    }
+
     @Override
     public String getAgentJarPath() {
         return getJarBaseDir() + separatorChar + "btrace-agent.jar";
@@ -101,7 +116,7 @@ public class BaseBTraceCompiler extends BTraceCompiler {
     public String getToolsJarPath() {
         synchronized(toolsJarLock) {
             if (toolsJar == null) {
-                String javaHome = getJavaHome(task);
+                String javaHome = getJavaHome();
                 // no java home found for the target app; fallback to tools.jar provided from VisualVM
                 if (javaHome == null) {
                     File toolsJarFile = getContainingJar("com/sun/tools/javac/Main.class"); // NOI18N
@@ -178,12 +193,28 @@ public class BaseBTraceCompiler extends BTraceCompiler {
         return jarFile;
     }
 
-    private static String getJavaHome(BTraceTask btt) {
+    private String getJavaHome() {
+        Properties props = properties != null
+            ? properties.getSystemProperties(task.getPid())
+            : readSystemProperties(task.getPid());
+        return props != null ? props.getProperty("java.home") : null; // NOI18N
+    }
+
+    private static Properties readSystemProperties(int pid) {
+        VirtualMachine vm = null;
         try {
-            VirtualMachine vm = attach(valueOf(btt.getPid()));
-            return vm.getSystemProperties().getProperty("java.home");
+            vm = attach(valueOf(pid));
+            return vm.getSystemProperties();
         } catch (AttachNotSupportedException | IOException e) {
             LOGGER.log(SEVERE, null, e);
+        } finally {
+            if (vm != null) {
+                try {
+                    vm.detach();
+                } catch (IOException e) {
+                    LOGGER.log(SEVERE, null, e);
+                }
+            }
         }
         return null;
     }
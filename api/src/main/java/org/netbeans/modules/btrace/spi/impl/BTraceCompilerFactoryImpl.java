@@ -26,14 +26,25 @@ import org.netbeans.modules.btrace.api.BTraceCompiler;
 import org.netbeans.modules.btrace.api.BTraceTask;
 import org.netbeans.modules.btrace.spi.BTraceCompilerFactory;
 import org.netbeans.modules.btrace.spi.BaseBTraceCompiler;
+import org.netbeans.modules.btrace.spi.SystemPropertiesProvider;
 
 /**
  *
  * @author Jaroslav Bachorik 
  */
 final public class BTraceCompilerFactoryImpl implements BTraceCompilerFactory {
+    final private SystemPropertiesProvider properties;
+
+    public BTraceCompilerFactoryImpl() {
+        this(null);
+    }
+
+    public BTraceCompilerFactoryImpl(SystemPropertiesProvider properties) {
+        this.properties = properties;
+    }
+
     @Override
     public BTraceCompiler newCompiler(final BTraceTask task) {
-        return new BaseBTraceCompiler(task);
+        return new BaseBTraceCompiler(task, properties);
     }
 }
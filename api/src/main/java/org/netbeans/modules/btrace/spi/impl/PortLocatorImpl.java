@@ -22,19 +22,17 @@
 
 package org.netbeans.modules.btrace.spi.impl;
 
-import com.sun.tools.attach.AttachNotSupportedException;
-import com.sun.tools.attach.VirtualMachine;
-import static com.sun.tools.attach.VirtualMachine.attach;
 import java.io.IOException;
 import static java.lang.Integer.parseInt;
-import static java.lang.String.valueOf;
 import java.net.ServerSocket;
+import java.util.Properties;
 import java.util.logging.Level;
 import static java.util.logging.Level.SEVERE;
 import java.util.logging.Logger;
 import static java.util.logging.Logger.getLogger;
 import org.netbeans.modules.btrace.api.BTraceTask;
 import org.netbeans.modules.btrace.spi.PortLocator;
+import org.netbeans.modules.btrace.spi.SystemPropertiesProvider;
 import static org.netbeans.modules.btrace.spi.PortLocator.DEFAULT_PORT;
 import static org.netbeans.modules.btrace.spi.PortLocator.PORT_PROPERTY;
 
@@ -45,22 +43,21 @@ import static org.netbeans.modules.btrace.spi.PortLocator.PORT_PROPERTY;
 final public class PortLocatorImpl implements PortLocator {
     final private static Logger LOGGER = getLogger(PortLocator.class.getName());
 
+    final private SystemPropertiesProvider properties;
+
+    public PortLocatorImpl(SystemPropertiesProvider properties) {
+        this.properties = properties;
+    }
+
     @Override
     public int getTaskPort(BTraceTask task) {
-        VirtualMachine vm = null;
-        try {
-            vm = attach(valueOf(task.getPid()));
-            String portStr = vm.getSystemProperties().getProperty(PORT_PROPERTY);
-            return portStr != null ? parseInt(portStr) : findFreePort();
-        } catch (AttachNotSupportedException | IOException ex) {
-            getLogger(PortLocatorImpl.class.getName()).log(SEVERE, null, ex);
-        } finally {
-            if (vm != null) {
-                try {
-                    vm.detach();
-                } catch (IOException e) {
-                    LOGGER.log(SEVERE, null, e);
-                }
+        Properties props = properties.getSystemProperties(task.getPid());
+        String portStr = props != null ? props.getProperty(PORT_PROPERTY) : null;
+        if (portStr != null) {
+            try {
+                return parseInt(portStr);
+            } catch (NumberFormatException e) {
+                LOGGER.log(SEVERE, null, e);
             }
         }
         return findFreePort();
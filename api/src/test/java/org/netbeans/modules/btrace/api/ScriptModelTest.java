@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.netbeans.modules.btrace.api.ScriptModel.Probe;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jaroslav Bachorik
+ */
+public class ScriptModelTest {
+    final private static String SCRIPT =
+        "import com.sun.btrace.annotations.*;\n" +
+        "import static com.sun.btrace.BTraceUtils.*;\n" +
+        "\n" +
+        "// @BTrace(name = \"commented\") class Commented {}\n" +
+        "/* @OnEvent(\"commented\") */\n" +
+        "@BTrace(name = \"Tracer\", unsafe = true)\n" +
+        "public class HelloWorld {\n" +
+        "    @OnMethod(clazz = \"java.lang.Thread\", method = \"start\")\n" +
+        "    public static void onThreadStart() {\n" +
+        "        println(\"thread start!\");\n" +
+        "    }\n" +
+        "\n" +
+        "    @OnEvent(\"dump\")\n" +
+        "    public static void onDump() {}\n" +
+        "\n" +
+        "    @com.sun.btrace.annotations.OnEvent(value = \"reset\")\n" +
+        "    public static void onReset() {}\n" +
+        "\n" +
+        "    @OnEvent\n" +
+        "    public static void onAnyEvent() {}\n" +
+        "}\n";
+
+    @Test
+    public void parsesTheScriptMetadata() {
+        ScriptModel m = ScriptModel.parse(SCRIPT);
+        assertEquals("Tracer", m.getName());
+        assertEquals("HelloWorld", m.getClassName());
+        assertTrue(m.isUnsafe());
+        assertTrue(m.hasEvents());
+        assertTrue(m.hasAnonymousEvents());
+        assertEquals(Arrays.asList("dump", "reset"), new ArrayList<>(m.getNamedEvents()));
+    }
+
+    @Test
+    public void collectsTheProbesInDeclarationOrder() {
+        List<Probe> probes = ScriptModel.parse(SCRIPT).getProbes();
+        assertEquals(4, probes.size());
+        assertEquals("OnMethod", probes.get(0).getAnnotation());
+        assertEquals("onThreadStart", probes.get(0).getMethodName());
+        assertEquals("OnEvent", probes.get(1).getAnnotation());
+        assertEquals("onDump", probes.get(1).getMethodName());
+        assertEquals("onReset", probes.get(2).getMethodName());
+        assertEquals("onAnyEvent", probes.get(3).getMethodName());
+    }
+
+    @Test
+    public void fallsBackToTheClassName() {
+        ScriptModel m = ScriptModel.parse("@BTrace class Plain { @OnTimer(1000) static void tick() {} }");
+        assertEquals("Plain", m.getName());
+        assertFalse(m.isUnsafe());
+        assertFalse(m.hasEvents());
+        assertEquals(1, m.getProbes().size());
+    }
+
+    @Test
+    public void ignoresLiteralsAndCommentsLookingLikeAnnotations() {
+        ScriptModel m = ScriptModel.parse(
+            "@BTrace class Quoted {\n" +
+            "    static String s = \"@OnEvent(\\\"fake\\\")\";\n" +
+            "    static char c = '@';\n" +
+            "    // @OnEvent(\"commented\")\n" +
+            "}"
+        );
+        assertEquals("Quoted", m.getClassName());
+        assertFalse(m.hasEvents());
+        assertTrue(m.getProbes().isEmpty());
+    }
+
+    @Test
+    public void emptyScript() {
+        assertSame(ScriptModel.EMPTY, ScriptModel.parse(null));
+        assertSame(ScriptModel.EMPTY, ScriptModel.parse(""));
+        assertNull(ScriptModel.EMPTY.getName());
+        assertNull(ScriptModel.parse("class NotATrace {}").getClassName());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api;
+
+import org.junit.Test;
+import org.netbeans.modules.btrace.api.Subscription.Kind;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jaroslav Bachorik
+ */
+public class SubscriptionTest {
+    @Test
+    public void acceptsOnlyTheSubscribedKinds() {
+        Subscription s = Subscription.to(Kind.MESSAGE, Kind.NUMBER);
+        assertTrue(s.accepts(Kind.MESSAGE, null));
+        assertTrue(s.accepts(Kind.NUMBER, "any"));
+        assertFalse(s.accepts(Kind.NUMBER_MAP, "any"));
+        assertTrue(s.acceptsAll(Kind.NUMBER));
+        assertFalse(s.acceptsAll(Kind.ERROR));
+    }
+
+    @Test
+    public void globsFilterTheNamedKindsOnly() {
+        Subscription s = Subscription.to(Kind.MESSAGE, Kind.NUMBER).named("requests.*");
+        assertTrue(s.accepts(Kind.NUMBER, "requests.count"));
+        assertTrue(s.accepts(Kind.NUMBER, "requests."));
+        assertFalse(s.accepts(Kind.NUMBER, "errors.count"));
+        assertFalse(s.accepts(Kind.NUMBER, null));
+        assertFalse(s.acceptsAll(Kind.NUMBER));
+        // messages carry no name
+        assertTrue(s.accepts(Kind.MESSAGE, null));
+        assertTrue(s.acceptsAll(Kind.MESSAGE));
+    }
+
+    @Test
+    public void wildcards() {
+        Subscription s = Subscription.to(Kind.NUMBER).named("a?c", "*.total", "exact");
+        assertTrue(s.accepts(Kind.NUMBER, "abc"));
+        assertFalse(s.accepts(Kind.NUMBER, "ac"));
+        assertFalse(s.accepts(Kind.NUMBER, "abbc"));
+        assertTrue(s.accepts(Kind.NUMBER, "x.y.total"));
+        assertTrue(s.accepts(Kind.NUMBER, "exact"));
+        assertFalse(s.accepts(Kind.NUMBER, "exactly"));
+        assertTrue(Subscription.to(Kind.NUMBER).named("multi*line").accepts(Kind.NUMBER, "multi\nline"));
+    }
+
+    @Test
+    public void regexCharactersAreLiteral() {
+        Subscription s = Subscription.to(Kind.NUMBER).named("a.b", "[x]+", "c$*");
+        assertTrue(s.accepts(Kind.NUMBER, "a.b"));
+        assertFalse(s.accepts(Kind.NUMBER, "aXb"));
+        assertTrue(s.accepts(Kind.NUMBER, "[x]+"));
+        assertFalse(s.accepts(Kind.NUMBER, "xx"));
+        assertTrue(s.accepts(Kind.NUMBER, "c$tail"));
+    }
+
+    @Test
+    public void allAcceptsEverything() {
+        for(Kind kind : Kind.values()) {
+            assertTrue(Subscription.ALL.acceptsAll(kind));
+        }
+    }
+}
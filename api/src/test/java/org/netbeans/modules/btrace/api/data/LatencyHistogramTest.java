@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.data;
+
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jaroslav Bachorik
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram h = new LatencyHistogram(3600000000L, 3);
+        assertEquals(0, h.getTotalCount());
+        assertEquals(0, h.getMin());
+        assertEquals(0, h.getMax());
+        assertTrue(Double.isNaN(h.getMean()));
+        assertEquals(0, h.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void percentilesWithinPrecision() {
+        LatencyHistogram h = new LatencyHistogram(3600000000L, 3);
+        for(long v = 1; v <= 100000; v++) {
+            h.recordValue(v);
+        }
+        assertEquals(100000, h.getTotalCount());
+        assertEquals(1, h.getMin());
+        assertEquals(100000, h.getMax());
+        assertEquals(50000.5, h.getMean(), 0.001);
+        assertWithin(50000, h.getValueAtPercentile(50), 0.001);
+        assertWithin(99000, h.getValueAtPercentile(99), 0.001);
+        assertWithin(99900, h.getValueAtPercentile(99.9), 0.001);
+        assertEquals(100000, h.getValueAtPercentile(100));
+        assertEquals(1, h.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram(1000, 2);
+        for(long v = 0; v < 100; v++) {
+            h.recordValue(v);
+        }
+        for(int p = 1; p <= 100; p++) {
+            assertEquals(p - 1, h.getValueAtPercentile(p));
+        }
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        LatencyHistogram h = new LatencyHistogram(1000, 2);
+        h.recordValue(-5);
+        h.recordValue(5000);
+        h.recordValue(2.6d);
+        assertEquals(3, h.getTotalCount());
+        assertEquals(0, h.getMin());
+        assertEquals(1000, h.getMax());
+        assertEquals(1000, h.getValueAtPercentile(100));
+        assertEquals(3, h.getValueAtPercentile(60));
+    }
+
+    @Test
+    public void addAndReset() {
+        LatencyHistogram a = new LatencyHistogram(100000, 3);
+        LatencyHistogram b = a.newEmpty();
+        a.recordValue(10);
+        b.recordValue(20);
+        b.recordValue(30);
+        a.add(b);
+        assertEquals(3, a.getTotalCount());
+        assertEquals(10, a.getMin());
+        assertEquals(30, a.getMax());
+        assertEquals(20, a.getMean(), 0);
+        a.add(a.newEmpty());
+        assertEquals(10, a.getMin());
+
+        a.reset();
+        assertEquals(0, a.getTotalCount());
+        assertEquals(0, a.getMin());
+        assertEquals(0, a.getValueAtPercentile(50));
+        assertEquals(a.getFootprint(), b.getFootprint());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addRejectsIncompatibleHistogram() {
+        new LatencyHistogram(1000, 2).add(new LatencyHistogram(1000000, 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooSmallRange() {
+        new LatencyHistogram(1, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooManyDigits() {
+        new LatencyHistogram(1000, 6);
+    }
+
+    @Test
+    public void aggregatorCapsTheSeriesCount() {
+        HistogramAggregator h = new HistogramAggregator(1000, 2, 2, "*");
+        h.record("b", 1);
+        h.record("a", 1);
+        h.record("c", 1);
+        h.record("c", 2);
+        h.record("a", 2);
+        List<HistogramSummary> interval = h.rollInterval();
+        assertEquals(2, interval.size());
+        assertEquals("a", interval.get(0).getName());
+        assertEquals(2, interval.get(0).getCount());
+        assertEquals("b", interval.get(1).getName());
+        assertEquals(2, h.getDroppedCount());
+    }
+
+    private static void assertWithin(long expected, long actual, double relative) {
+        assertTrue("expected ~" + expected + " but was " + actual, Math.abs(actual - expected) <= expected * relative); // NOI18N
+    }
+}
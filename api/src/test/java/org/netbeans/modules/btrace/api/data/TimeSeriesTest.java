@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.data;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ *
+ * @author Jaroslav Bachorik
+ */
+public class TimeSeriesTest {
+    final private static double DELTA = 1e-9;
+
+    private static TimeSeries series(int maxBucketChunks, int samples) {
+        // 4 samples per chunk, 2 raw chunks, buckets of 2 samples
+        TimeSeries ts = new TimeSeries("s", 4, 2, 2, maxBucketChunks);
+        for(int i = 0; i < samples; i++) {
+            ts.append(i * 10, (long)i);
+        }
+        return ts;
+    }
+
+    @Test
+    public void keepsTheRecentSamplesRaw() {
+        TimeSeries ts = series(1, 8);
+        assertEquals(8, ts.size());
+        assertEquals(8, ts.getTotalCount());
+        assertEquals(0, ts.getEvictedCount());
+        Points p = ts.last(3);
+        assertArrayEquals(new long[]{50, 60, 70}, p.getTimestamps());
+        assertArrayEquals(new double[]{5, 6, 7}, p.getValues(), DELTA);
+    }
+
+    @Test
+    public void downsamplesAndEvictsTheOldestChunks() {
+        TimeSeries ts = series(1, 17);
+        // [8, 9] and [10, 11] are buckets, 12..16 are raw; the first bucket chunk is gone
+        assertEquals(7, ts.size());
+        assertEquals(17, ts.getTotalCount());
+        assertEquals(8, ts.getEvictedCount());
+
+        Points p = ts.last(100);
+        assertArrayEquals(new long[]{80, 100, 120, 130, 140, 150, 160}, p.getTimestamps());
+        assertArrayEquals(new double[]{8.5, 10.5, 12, 13, 14, 15, 16}, p.getValues(), DELTA);
+
+        Aggregate a = ts.aggregate();
+        assertEquals(9, a.getCount());
+        assertEquals(108, a.getSum(), DELTA);
+        assertEquals(8, a.getMin(), DELTA);
+        assertEquals(16, a.getMax(), DELTA);
+    }
+
+    @Test
+    public void rangeSpansBucketsAndRawChunks() {
+        Points p = series(1, 17).range(100, 130);
+        assertArrayEquals(new long[]{100, 120, 130}, p.getTimestamps());
+        assertArrayEquals(new double[]{10.5, 12, 13}, p.getValues(), DELTA);
+        assertEquals(0, series(1, 17).range(1000, 2000).size());
+    }
+
+    @Test
+    public void noBucketChunksDropsTheRawChunksRightAway() {
+        TimeSeries ts = series(0, 9);
+        assertEquals(5, ts.size());
+        assertEquals(9, ts.getTotalCount());
+        assertEquals(4, ts.getEvictedCount());
+        assertArrayEquals(new long[]{40, 50, 60, 70, 80}, ts.last(100).getTimestamps());
+        assertEquals(5, ts.aggregate().getCount());
+    }
+
+    @Test
+    public void timestampsNeverGoBack() {
+        TimeSeries ts = new TimeSeries("s", 4, 2, 2, 1);
+        ts.append(100, 1.5);
+        ts.append(50, 2.5);
+        assertArrayEquals(new long[]{100, 100}, ts.last(2).getTimestamps());
+    }
+
+    @Test
+    public void storeCapsTheSeriesCount() {
+        TimeSeriesStore store = new TimeSeriesStore(4, 2, 2, 0, 2, false);
+        store.append("b", 0, 1L);
+        store.append("a", 0, 1.0);
+        store.append("c", 0, 1L);
+        store.append("a", 1, 2L);
+        assertEquals(Arrays.asList("a", "b"), store.getSeriesNames());
+        assertNull(store.getSeries("c"));
+        assertEquals(1, store.getDroppedCount());
+        assertEquals(2, store.getSeries("a").size());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import com.sun.btrace.comm.Command;
+import com.sun.btrace.comm.ErrorCommand;
+import com.sun.btrace.comm.MessageCommand;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.netbeans.modules.btrace.api.BTraceSettings.OverflowPolicy.BLOCK;
+import static org.netbeans.modules.btrace.api.BTraceSettings.OverflowPolicy.DROP_NEWEST;
+import static org.netbeans.modules.btrace.api.BTraceSettings.OverflowPolicy.DROP_OLDEST;
+import static org.netbeans.modules.btrace.api.BTraceSettings.OverflowPolicy.SAMPLE;
+
+/**
+ *
+ * @author Jaroslav Bachorik
+ */
+public class CommandRingBufferTest {
+    private static MessageCommand msg(String text) {
+        return new MessageCommand(text);
+    }
+
+    private static String poll(CommandRingBuffer b) {
+        Command cmd = b.poll();
+        return cmd != null ? ((MessageCommand)cmd).getMessage() : null;
+    }
+
+    @Test
+    public void keepsTheOrderAcrossTheWrapAround() throws Exception {
+        CommandRingBuffer b = new CommandRingBuffer(3, DROP_NEWEST, 1);
+        for(int round = 0; round < 4; round++) {
+            assertTrue(b.offer(msg("a" + round)));
+            assertTrue(b.offer(msg("b" + round)));
+            assertEquals("a" + round, poll(b));
+            assertTrue(b.offer(msg("c" + round)));
+            assertEquals("b" + round, poll(b));
+            assertEquals("c" + round, poll(b));
+        }
+        assertTrue(b.isEmpty());
+        assertNull(b.poll());
+        assertEquals(2, b.getMaxSize());
+    }
+
+    @Test
+    public void dropNewest() throws Exception {
+        CommandRingBuffer b = new CommandRingBuffer(2, DROP_NEWEST, 1);
+        assertTrue(b.offer(msg("1")));
+        assertTrue(b.offer(msg("2")));
+        assertFalse(b.offer(msg("3")));
+        assertFalse(b.offer(msg("4")));
+        assertEquals(2, b.getDropped());
+        assertEquals("1", poll(b));
+        assertEquals("2", poll(b));
+        assertNull(b.poll());
+    }
+
+    @Test
+    public void dropOldest() throws Exception {
+        CommandRingBuffer b = new CommandRingBuffer(2, DROP_OLDEST, 1);
+        b.offer(msg("1"));
+        b.offer(msg("2"));
+        assertTrue(b.offer(msg("3")));
+        assertEquals(1, b.getDropped());
+        assertEquals("2", poll(b));
+        assertEquals("3", poll(b));
+    }
+
+    @Test
+    public void sampleKeepsEveryNthOverflow() throws Exception {
+        CommandRingBuffer b = new CommandRingBuffer(1, SAMPLE, 3);
+        b.offer(msg("0"));
+        assertFalse(b.offer(msg("1")));
+        assertFalse(b.offer(msg("2")));
+        // the third overflow replaces the oldest command
+        assertTrue(b.offer(msg("3")));
+        assertEquals(3, b.getDropped());
+        assertEquals("3", poll(b));
+    }
+
+    @Test
+    public void controlCommandsWaitForAFreeSlot() throws Exception {
+        final CommandRingBuffer b = new CommandRingBuffer(1, DROP_NEWEST, 1);
+        b.offer(msg("data"));
+        final Command error = new ErrorCommand(new Exception());
+        final CountDownLatch enqueued = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                b.offer(error);
+                enqueued.countDown();
+            } catch (InterruptedException e) {
+                // test fails on the latch
+            }
+        });
+        producer.start();
+        assertFalse(enqueued.await(100, TimeUnit.MILLISECONDS));
+        assertEquals("data", poll(b));
+        assertTrue(enqueued.await(5, TimeUnit.SECONDS));
+        assertSame(error, b.poll());
+        assertEquals(0, b.getDropped());
+    }
+
+    @Test
+    public void dropOldestNeverDropsAControlCommand() throws Exception {
+        final CommandRingBuffer b = new CommandRingBuffer(1, DROP_OLDEST, 1);
+        Command error = new ErrorCommand(new Exception());
+        b.offer(error);
+        final CountDownLatch enqueued = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                b.offer(msg("data"));
+                enqueued.countDown();
+            } catch (InterruptedException e) {
+                // test fails on the latch
+            }
+        });
+        producer.start();
+        assertFalse(enqueued.await(100, TimeUnit.MILLISECONDS));
+        assertSame(error, b.poll());
+        assertTrue(enqueued.await(5, TimeUnit.SECONDS));
+        assertEquals("data", poll(b));
+    }
+
+    @Test
+    public void blockWaitsForTheConsumer() throws Exception {
+        final CommandRingBuffer b = new CommandRingBuffer(1, BLOCK, 1);
+        b.offer(msg("1"));
+        Thread producer = new Thread(() -> {
+            try {
+                b.offer(msg("2"));
+            } catch (InterruptedException e) {
+                // the test checks the interrupted producer below
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+        producer.interrupt();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertEquals(1, b.size());
+        assertEquals("1", poll(b));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import com.sun.btrace.comm.Command;
+import com.sun.btrace.comm.MessageCommand;
+import com.sun.btrace.comm.NumberDataCommand;
+import com.sun.btrace.comm.NumberMapDataCommand;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.NumberMapView;
+import org.netbeans.modules.btrace.api.Subscription;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the allocation of the path from a received command to the
+ * listener invocation
+ * <p>
+ * Each operation dispatches one batch of commands through
+ * {@linkplain BTraceTaskImpl#dispatchCommand(com.sun.btrace.comm.Command)}
+ * and waits until the dispatch lane has delivered them, so the worker thread
+ * allocation is attributed to the operations. Run with {@code -prof gc}
+ * (the {@linkplain #main(java.lang.String[])} method does) and check
+ * {@code gc.alloc.rate.norm}. For MESSAGE and NUMBER it stays below 1 B/op;
+ * the rest is allocated once per batch by the worker hand-off (see
+ * {@linkplain DispatchLane}). NUMBER_MAP allocates one
+ * {@linkplain NumberMapView} per command.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    final private static int BATCH = 256;
+
+    @Param({"MESSAGE", "NUMBER", "NUMBER_MAP"}) // NOI18N
+    public String kind;
+
+    private BTraceTaskImpl task;
+    private DispatchLane lane;
+    private Command[] commands;
+    private long delivered;
+
+    final private MessageDispatcher listener = new MessageDispatcher() {
+        private long sink;
+
+        @Override
+        public void onPrintMessages(List<String> messages) {
+            sink += messages.size();
+        }
+
+        @Override
+        public void onNumberMessages(List<String> names, List<Number> values) {
+            sink += values.size();
+        }
+
+        @Override
+        public void onNumberMap(String name, NumberMapView data) {
+            sink += data.size();
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        task = (BTraceTaskImpl)new BTraceEngineImpl().createTask(1);
+        task.addMessageDispatcher(listener, Subscription.ALL);
+        lane = task.getDispatchLane();
+        Map<String, Number> map = new HashMap<>();
+        for(int i = 0; i < 16; i++) {
+            map.put("key" + i, i); // NOI18N
+        }
+        commands = new Command[BATCH];
+        for(int i = 0; i < BATCH; i++) {
+            switch (kind) {
+                case "MESSAGE": // NOI18N
+                    commands[i] = new MessageCommand("message " + i); // NOI18N
+                    break;
+                case "NUMBER": // NOI18N
+                    commands[i] = new NumberDataCommand("number" + (i % 8), i); // NOI18N
+                    break;
+                default:
+                    commands[i] = new NumberMapDataCommand("map", map); // NOI18N
+            }
+        }
+        delivered = lane.getDispatched();
+    }
+
+    @TearDown
+    public void tearDown() {
+        task.removeMessageDispatcher(listener);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void dispatch() {
+        for(Command cmd : commands) {
+            task.dispatchCommand(cmd);
+        }
+        delivered += BATCH;
+        while (lane.getDispatched() < delivered) {
+            Thread.yield();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(DispatchBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()
+        ).run();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.netbeans.modules.btrace.api.MapDelta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jaroslav Bachorik
+ */
+public class MapSnapshotTrackerTest {
+    final private static Object GENERATION = new Object();
+
+    private static Map<String, Integer> map(Object... kv) {
+        Map<String, Integer> m = new HashMap<>();
+        for(int i = 0; i < kv.length; i += 2) {
+            m.put((String)kv[i], (Integer)kv[i + 1]);
+        }
+        return m;
+    }
+
+    @Test
+    public void firstDumpIsAReset() {
+        MapSnapshotTracker<Integer> t = new MapSnapshotTracker<>();
+        MapDelta<Integer> d = t.update("m", map("a", 1, "b", 2), GENERATION);
+        assertTrue(d.isReset());
+        assertEquals(map("a", 1, "b", 2), d.getAdded());
+        assertTrue(d.getChanged().isEmpty());
+        assertTrue(d.getRemoved().isEmpty());
+        assertEquals(2, d.getSize());
+    }
+
+    @Test
+    public void reportsOnlyTheChurn() {
+        MapSnapshotTracker<Integer> t = new MapSnapshotTracker<>();
+        t.update("m", map("a", 1, "b", 2, "c", 3), GENERATION);
+        MapDelta<Integer> d = t.update("m", map("a", 1, "b", 20, "d", 4), GENERATION);
+        assertFalse(d.isReset());
+        assertEquals(map("d", 4), d.getAdded());
+        assertEquals(map("b", 20), d.getChanged());
+        assertEquals(Collections.singleton("c"), d.getRemoved());
+        assertEquals(3, d.getSize());
+
+        d = t.update("m", map("a", 1, "b", 20, "d", 4), GENERATION);
+        assertTrue(d.isEmpty());
+    }
+
+    @Test
+    public void initialDeltaIsNotChangedByLaterDumps() {
+        MapSnapshotTracker<Integer> t = new MapSnapshotTracker<>();
+        MapDelta<Integer> first = t.update("m", map("a", 1), GENERATION);
+        t.update("m", map("a", 2, "b", 3), GENERATION);
+        assertEquals(map("a", 1), first.getAdded());
+    }
+
+    @Test
+    public void mapsAreTrackedSeparately() {
+        MapSnapshotTracker<Integer> t = new MapSnapshotTracker<>();
+        t.update("m1", map("a", 1), GENERATION);
+        assertTrue(t.update("m2", map("a", 1), GENERATION).isReset());
+        assertTrue(t.update("m1", map("a", 1), GENERATION).isEmpty());
+    }
+
+    @Test
+    public void newGenerationOrResetStartsOver() {
+        MapSnapshotTracker<Integer> t = new MapSnapshotTracker<>();
+        t.update("m", map("a", 1), GENERATION);
+        assertTrue(t.update("m", map("a", 1), new Object()).isReset());
+
+        Object generation = new Object();
+        t.update("m", map("a", 1), generation);
+        t.reset();
+        assertTrue(t.update("m", map("a", 1), generation).isReset());
+        assertFalse(t.update("m", map("a", 1), generation).isReset());
+    }
+}
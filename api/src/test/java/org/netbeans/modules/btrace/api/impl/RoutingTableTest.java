@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import com.sun.btrace.comm.MessageCommand;
+import com.sun.btrace.comm.NumberDataCommand;
+import com.sun.btrace.comm.RetransformationStartNotification;
+import org.junit.Test;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+import org.netbeans.modules.btrace.api.Subscription;
+import org.netbeans.modules.btrace.api.Subscription.Kind;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jaroslav Bachorik
+ */
+public class RoutingTableTest {
+    final private MessageDispatcher all = new MessageDispatcher() {};
+    final private MessageDispatcher requests = new MessageDispatcher() {};
+    final private MessageDispatcher messages = new MessageDispatcher() {};
+
+    private RoutingTable table() {
+        return RoutingTable.EMPTY
+            .with(all, Subscription.ALL)
+            .with(requests, Subscription.to(Kind.NUMBER).named("requests.*"))
+            .with(messages, Subscription.to(Kind.MESSAGE));
+    }
+
+    @Test
+    public void routesByKindAndName() {
+        RoutingTable t = table();
+        assertArrayEquals(new MessageDispatcher[]{all, requests}, t.route(Kind.NUMBER, "requests.count"));
+        assertArrayEquals(new MessageDispatcher[]{all}, t.route(Kind.NUMBER, "errors"));
+        assertArrayEquals(new MessageDispatcher[]{all, messages}, t.route(Kind.MESSAGE, null));
+        assertTrue(t.isFiltered(Kind.NUMBER));
+        assertFalse(t.isFiltered(Kind.MESSAGE));
+        // cached routes resolve the same
+        assertSame(t.route(Kind.NUMBER, "requests.count"), t.route(Kind.NUMBER, "requests.count"));
+    }
+
+    @Test
+    public void routesCommands() {
+        RoutingTable t = table().without(all);
+        assertArrayEquals(new MessageDispatcher[]{requests}, t.route(new NumberDataCommand("requests.x", 1)));
+        assertEquals(0, t.route(new NumberDataCommand("other", 1)).length);
+        assertArrayEquals(new MessageDispatcher[]{messages}, t.route(new MessageCommand("m")));
+        assertTrue(t.accepts(new NumberDataCommand("requests.x", 1)));
+        assertFalse(t.accepts(new NumberDataCommand("other", 1)));
+        // not a data command
+        assertFalse(t.accepts(new RetransformationStartNotification(1)));
+    }
+
+    @Test
+    public void resubscribingKeepsTheRegistrationOrder() {
+        RoutingTable t = table().with(all, Subscription.to(Kind.ERROR));
+        assertArrayEquals(new MessageDispatcher[]{all, requests, messages}, t.getDispatchers());
+        assertArrayEquals(new MessageDispatcher[]{requests}, t.route(Kind.NUMBER, "requests.count"));
+        assertArrayEquals(new MessageDispatcher[]{all}, t.route(Kind.ERROR, null));
+    }
+
+    @Test
+    public void removingTheLastDispatcherYieldsTheEmptyTable() {
+        RoutingTable t = RoutingTable.EMPTY.with(all, Subscription.ALL);
+        assertSame(t, t.without(messages));
+        assertSame(RoutingTable.EMPTY, t.without(all));
+        assertEquals(0, RoutingTable.EMPTY.route(Kind.MESSAGE, null).length);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jaroslav Bachorik
+ */
+public class SnapshotArrayTest {
+    @Test
+    public void addKeepsRegistrationOrderAndIgnoresDuplicates() {
+        SnapshotArray<String> a = new SnapshotArray<>(new String[0]);
+        assertTrue(a.add("a"));
+        assertTrue(a.add("b"));
+        assertFalse(a.add("a"));
+        assertArrayEquals(new String[]{"a", "b"}, a.get());
+    }
+
+    @Test
+    public void removeReplacesTheSnapshot() {
+        SnapshotArray<String> a = new SnapshotArray<>(new String[0]);
+        a.add("a");
+        a.add("b");
+        a.add("c");
+        String[] before = a.get();
+        assertTrue(a.remove("b"));
+        assertFalse(a.remove("b"));
+        assertArrayEquals(new String[]{"a", "c"}, a.get());
+        // the snapshot handed out earlier is never modified
+        assertArrayEquals(new String[]{"a", "b", "c"}, before);
+    }
+
+    @Test
+    public void rejectsNull() {
+        SnapshotArray<String> a = new SnapshotArray<>(new String[0]);
+        a.add("a");
+        String[] before = a.get();
+        try {
+            a.add(null);
+        } catch (NullPointerException e) {
+            assertSame(before, a.get());
+            assertEquals(1, a.get().length);
+            return;
+        }
+        throw new AssertionError("NULL accepted");
+    }
+}
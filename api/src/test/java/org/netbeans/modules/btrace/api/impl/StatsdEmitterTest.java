@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.impl;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.netbeans.modules.btrace.api.BTraceTask;
+import org.netbeans.modules.btrace.api.BTraceTask.MessageDispatcher;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ *
+ * @author Jaroslav Bachorik
+ */
+public class StatsdEmitterTest {
+    final private static String TAGS = "|#pid:42,script:my_script\n"; // NOI18N
+
+    private DatagramSocket daemon;
+    private StatsdEmitter emitter;
+    private MessageDispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        daemon = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        daemon.setSoTimeout(5000);
+        emitter = new StatsdEmitter(new InetSocketAddress(InetAddress.getLoopbackAddress(), daemon.getLocalPort()), 60000, 1432);
+        emitter.start();
+        emitter.onTaskStart(new TestTask());
+        assertNotNull(dispatcher);
+    }
+
+    @After
+    public void tearDown() {
+        emitter.close();
+        daemon.close();
+    }
+
+    @Test
+    public void sendsPositiveGaugesAndCounters() throws Exception {
+        dispatcher.onNumberMessage("requests", 12L); // NOI18N
+        dispatcher.onPrintMessage("a"); // NOI18N
+        dispatcher.onPrintMessage("b"); // NOI18N
+        emitter.close();
+
+        assertEquals(
+            "btrace.messages:2|c" + TAGS + "btrace.requests:12|g" + TAGS, // NOI18N
+            receive()
+        );
+        assertEquals(2, emitter.getMetrics());
+        assertEquals(1, emitter.getPackets());
+    }
+
+    @Test
+    public void resetsNegativeGaugesBeforeSettingThem() throws Exception {
+        dispatcher.onNumberMessage("delta", -5L); // NOI18N
+        dispatcher.onNumberMessage("ratio", -0.5d); // NOI18N
+        emitter.close();
+
+        String packet = receive();
+        assertEquals(
+            Arrays.asList(
+                "btrace.delta:0|g" + TAGS, "btrace.delta:-5|g" + TAGS, // NOI18N
+                "btrace.ratio:0|g" + TAGS, "btrace.ratio:-0.5|g" + TAGS // NOI18N
+            ),
+            sortedPairs(packet)
+        );
+    }
+
+    @Test
+    public void skipsNonFiniteGauges() throws Exception {
+        dispatcher.onNumberMessage("nan", Double.NaN); // NOI18N
+        dispatcher.onNumberMessage("inf", Double.NEGATIVE_INFINITY); // NOI18N
+        dispatcher.onNumberMessage("ok", 1L); // NOI18N
+        emitter.close();
+
+        assertEquals("btrace.ok:1|g" + TAGS, receive()); // NOI18N
+    }
+
+    private String receive() throws Exception {
+        byte[] buf = new byte[2048];
+        DatagramPacket p = new DatagramPacket(buf, buf.length);
+        daemon.receive(p);
+        return new String(p.getData(), 0, p.getLength(), UTF_8);
+    }
+
+    /**
+     * The gauges are sent in no particular order; keeps each reset next to its value
+     */
+    private static List<String> sortedPairs(String packet) {
+        String[] lines = packet.split("(?<=\n)"); // NOI18N
+        List<String> pairs = new ArrayList<>();
+        for(int i = 0; i < lines.length; i += 2) {
+            pairs.add(lines[i] + lines[i + 1]);
+        }
+        Collections.sort(pairs);
+        List<String> result = new ArrayList<>();
+        for(String pair : pairs) {
+            int idx = pair.indexOf('\n') + 1;
+            result.add(pair.substring(0, idx));
+            result.add(pair.substring(idx));
+        }
+        return result;
+    }
+
+    private class TestTask extends BTraceTask {
+        @Override
+        public void addMessageDispatcher(MessageDispatcher d) {
+            dispatcher = d;
+        }
+
+        @Override
+        public void removeMessageDispatcher(MessageDispatcher d) {
+        }
+
+        @Override
+        public void addStateListener(StateListener listener) {
+        }
+
+        @Override
+        public void removeStateListener(StateListener listener) {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public int getPid() {
+            return 42;
+        }
+
+        @Override
+        public String getScript() {
+            return "";
+        }
+
+        @Override
+        public String getName() {
+            return "my script"; // NOI18N
+        }
+
+        @Override
+        public void setScript(String newValue) {
+        }
+
+        @Override
+        public String getClassPath() {
+            return "";
+        }
+
+        @Override
+        public boolean isUnsafe() {
+            return false;
+        }
+
+        @Override
+        public void sendEvent(String event) {
+        }
+
+        @Override
+        public void sendEvent() {
+        }
+
+        @Override
+        public Set<String> getNamedEvents() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public boolean hasAnonymousEvents() {
+            return false;
+        }
+
+        @Override
+        public boolean hasEvents() {
+            return false;
+        }
+
+        @Override
+        public int getInstrClasses() {
+            return 0;
+        }
+    }
+}
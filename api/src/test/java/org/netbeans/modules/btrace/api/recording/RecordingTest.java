@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2010, 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.api.recording;
+
+import com.sun.btrace.comm.Command;
+import com.sun.btrace.comm.ErrorCommand;
+import com.sun.btrace.comm.GridDataCommand;
+import com.sun.btrace.comm.MessageCommand;
+import com.sun.btrace.comm.NumberDataCommand;
+import com.sun.btrace.comm.NumberMapDataCommand;
+import com.sun.btrace.comm.RetransformationStartNotification;
+import com.sun.btrace.comm.StringMapDataCommand;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jaroslav Bachorik
+ */
+public class RecordingTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private SessionRecorder recorder(int maxSegments) throws IOException {
+        return SessionRecorder.create(tmp.getRoot(), "my script", 42, 64 * 1024, maxSegments);
+    }
+
+    private static List<String> messages(Recording.Cursor c) throws IOException {
+        List<String> result = new ArrayList<>();
+        while (c.next()) {
+            result.add(((MessageCommand)c.getCommand()).getMessage());
+        }
+        return result;
+    }
+
+    @Test
+    public void roundTripsAllTheDataCommands() throws IOException {
+        Map<String, Number> numbers = new HashMap<>();
+        numbers.put("long", 1L);
+        numbers.put("double", 2.5d);
+        Map<String, String> strings = Collections.singletonMap("kéy", "v€l");
+        List<Object[]> grid = Collections.singletonList(new Object[]{"cell", 3, 4.5d, null});
+
+        File dir;
+        try (SessionRecorder r = recorder(0)) {
+            dir = r.getDirectory();
+            r.record(new MessageCommand("hello žlutý kůň"));
+            r.record(new NumberDataCommand("n", 7));
+            r.record(new NumberMapDataCommand("nm", numbers));
+            r.record(new StringMapDataCommand("sm", strings));
+            r.record(new GridDataCommand("g", grid));
+            r.record(new ErrorCommand(new IllegalStateException("broken")));
+            assertEquals(6, r.getRecordCount());
+        }
+        assertTrue(dir.getName().startsWith("my_script@42-"));
+
+        Recording.Cursor c = Recording.open(dir).openCursor();
+        assertTrue(c.next());
+        assertEquals(Command.MESSAGE, c.getType());
+        assertEquals("hello žlutý kůň", ((MessageCommand)c.getCommand()).getMessage());
+
+        assertTrue(c.next());
+        NumberDataCommand n = (NumberDataCommand)c.getCommand();
+        assertEquals("n", n.getName());
+        assertEquals(7L, n.getValue());
+
+        assertTrue(c.next());
+        assertEquals(numbers, ((NumberMapDataCommand)c.getCommand()).getData());
+
+        assertTrue(c.next());
+        assertEquals(strings, ((StringMapDataCommand)c.getCommand()).getData());
+
+        assertTrue(c.next());
+        List<Object[]> g = ((GridDataCommand)c.getCommand()).getData();
+        assertEquals(1, g.size());
+        assertArrayEquals(new Object[]{"cell", 3L, 4.5d, null}, g.get(0));
+
+        assertTrue(c.next());
+        Throwable t = ((ErrorCommand)c.getCommand()).getCause();
+        assertTrue(t instanceof RecordedException);
+        assertTrue(t.toString().contains("IllegalStateException"));
+        assertTrue(t.toString().contains("broken"));
+
+        assertFalse(c.next());
+    }
+
+    @Test
+    public void readsAcrossTheSegments() throws IOException {
+        char[] filler = new char[1000];
+        Arrays.fill(filler, 'x');
+        List<String> written = new ArrayList<>();
+        File dir;
+        try (SessionRecorder r = recorder(0)) {
+            dir = r.getDirectory();
+            for(int i = 0; i < 300; i++) {
+                String msg = i + new String(filler);
+                written.add(msg);
+                r.record(new MessageCommand(msg));
+            }
+        }
+        // 300kB of messages in 64kB segments
+        assertTrue(dir.list().length > 4);
+        assertEquals(written, messages(Recording.open(dir).openCursor()));
+    }
+
+    @Test
+    public void keepsOnlyTheRetainedSegments() throws IOException {
+        char[] filler = new char[1000];
+        Arrays.fill(filler, 'x');
+        File dir;
+        try (SessionRecorder r = recorder(2)) {
+            dir = r.getDirectory();
+            for(int i = 0; i < 300; i++) {
+                r.record(new MessageCommand(i + new String(filler)));
+            }
+        }
+        // the retired segments were unmapped and deleted
+        assertEquals(2, dir.list((File d, String n) -> n.endsWith(".btr")).length);
+        List<String> read = messages(Recording.open(dir).openCursor());
+        assertTrue(read.size() < 300);
+        // the tail of the recording is complete and in order
+        String last = read.get(read.size() - 1);
+        assertTrue(last.startsWith("299x"));
+        for(int i = 1; i < read.size(); i++) {
+            int prev = Integer.parseInt(read.get(i - 1).substring(0, read.get(i - 1).indexOf('x')));
+            int cur = Integer.parseInt(read.get(i).substring(0, read.get(i).indexOf('x')));
+            assertEquals(prev + 1, cur);
+        }
+    }
+
+    @Test
+    public void liveReaderFollowsTheWriter() throws IOException {
+        try (SessionRecorder r = recorder(0)) {
+            Recording.Cursor c = Recording.open(r.getDirectory()).openCursor();
+            assertFalse(c.next());
+
+            r.record(new MessageCommand("first"));
+            assertEquals(Collections.singletonList("first"), messages(c));
+            // the cursor stays at the end of the data written so far
+            assertFalse(c.next());
+
+            r.record(new MessageCommand("second"));
+            r.record(new MessageCommand("third"));
+            assertEquals(Arrays.asList("second", "third"), messages(c));
+
+            // the following records do not fit the first segment
+            char[] filler = new char[1000];
+            Arrays.fill(filler, 'x');
+            List<String> written = new ArrayList<>();
+            for(int i = 0; i < 100; i++) {
+                String msg = i + new String(filler);
+                written.add(msg);
+                r.record(new MessageCommand(msg));
+            }
+            assertEquals(written, messages(c));
+        }
+    }
+
+    @Test
+    public void seeksByTimestamp() throws Exception {
+        File dir;
+        long mark;
+        try (SessionRecorder r = recorder(0)) {
+            dir = r.getDirectory();
+            r.record(new MessageCommand("before"));
+            Thread.sleep(20);
+            mark = System.currentTimeMillis();
+            Thread.sleep(20);
+            r.record(new MessageCommand("after"));
+            r.record(new MessageCommand("last"));
+        }
+        Recording rec = Recording.open(dir);
+        Recording.Cursor c = rec.openCursor();
+        c.seek(mark);
+        assertEquals(Arrays.asList("after", "last"), messages(c));
+
+        c.seek(Long.MIN_VALUE);
+        assertEquals(Arrays.asList("before", "after", "last"), messages(c));
+
+        c.seek(Long.MAX_VALUE);
+        assertFalse(c.next());
+        assertTrue(rec.getStartTime() > 0);
+    }
+
+    @Test
+    public void ignoresTheControlCommands() throws IOException {
+        File dir;
+        try (SessionRecorder r = recorder(0)) {
+            dir = r.getDirectory();
+            r.record(new RetransformationStartNotification(10));
+            assertEquals(0, r.getRecordCount());
+        }
+        Recording rec = Recording.open(dir);
+        assertFalse(rec.openCursor().next());
+        assertEquals(-1, rec.getStartTime());
+    }
+}
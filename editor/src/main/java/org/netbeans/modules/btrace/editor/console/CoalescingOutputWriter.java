@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.editor.console;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.logging.Logger;
+import org.openide.util.RequestProcessor;
+import org.openide.windows.OutputListener;
+import org.openide.windows.OutputWriter;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * An {@linkplain OutputWriter} decoupling the message producers from the output window
+ * <p>
+ * The written text is collected in memory and handed over to the target
+ * writer in coalesced chunks, at most {@code fps} times per second, from
+ * a dedicated request processor. At most {@code frameLines} lines are passed
+ * per frame and at most {@code maxLines} lines, including the markers, are
+ * kept in the output window; the lines over the limits are spilled into a
+ * temporary file and the window shows the number of the suppressed lines
+ * instead. Once the window is full a single marker says so and the rest of
+ * the output goes to the file only. The file is deleted upon reset or close.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class CoalescingOutputWriter extends OutputWriter {
+    final private static Logger LOGGER = getLogger(CoalescingOutputWriter.class.getName());
+    final private static RequestProcessor RP = new RequestProcessor("BTrace Console", 1); // NOI18N
+
+    final static int DEFAULT_FPS = 20;
+    final static int DEFAULT_FRAME_LINES = 2000;
+    final static int DEFAULT_MAX_LINES = 200000;
+
+    /**
+     * Collects the written text; all the {@linkplain java.io.PrintWriter} methods end up here
+     */
+    final private static class Sink extends Writer {
+        private CoalescingOutputWriter owner;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            owner.collect(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            owner.collect(str, off, len);
+        }
+
+        @Override
+        public void flush() {
+            // flushed by frames
+        }
+
+        @Override
+        public void close() {
+            // closed by the owner
+        }
+    }
+
+    final private OutputWriter target;
+    final private Object sinkLock;
+    // serializes the writes to the target; acquired before the sink lock
+    final private Object targetLock = new Object();
+    final private long frameInterval;
+    final private int frameLines;
+    final private int maxLines;
+    final private RequestProcessor.Task frameTask;
+
+    // guarded by sinkLock
+    private StringBuilder pending = new StringBuilder(8192);
+    private int pendingLines;
+    private long windowLines;
+    private long suppressed;
+    private boolean scheduled;
+    private boolean closed;
+    private boolean limitReported;
+    private File spillFile;
+    private Writer spill;
+
+    CoalescingOutputWriter(OutputWriter target) {
+        this(target, DEFAULT_FPS, DEFAULT_FRAME_LINES, DEFAULT_MAX_LINES);
+    }
+
+    CoalescingOutputWriter(OutputWriter target, int fps, int frameLines, int maxLines) {
+        this(new Sink(), target, fps, frameLines, maxLines);
+    }
+
+    private CoalescingOutputWriter(Sink sink, OutputWriter target, int fps, int frameLines, int maxLines) {
+        super(sink);
+        sink.owner = this;
+        this.sinkLock = sink;
+        this.target = target;
+        this.frameInterval = 1000 / Math.max(1, fps);
+        this.frameLines = frameLines;
+        this.maxLines = maxLines;
+        this.frameTask = RP.create(this::frame);
+    }
+
+    @Override
+    public void println(String s, OutputListener l) throws IOException {
+        // hyperlinks are rare; keep the ordering by draining the pending text first
+        synchronized(targetLock) {
+            frame();
+            target.println(s, l);
+            synchronized(sinkLock) {
+                windowLines++;
+            }
+        }
+    }
+
+    @Override
+    public void reset() throws IOException {
+        synchronized(targetLock) {
+            synchronized(sinkLock) {
+                pending.setLength(0);
+                pendingLines = 0;
+                windowLines = 0;
+                suppressed = 0;
+                limitReported = false;
+                deleteSpill();
+            }
+            target.reset();
+        }
+    }
+
+    @Override
+    public void close() {
+        // bypasses the PrintWriter lock; the target lock must be acquired first
+        closeTarget();
+    }
+
+    private void collect(char[] cbuf, int off, int len) throws IOException {
+        collect(new CharArraySequence(cbuf), off, len);
+    }
+
+    private void collect(CharSequence text, int off, int len) throws IOException {
+        synchronized(sinkLock) {
+            if (closed) {
+                return;
+            }
+            int end = off + len;
+            int lineStart = off;
+            boolean overflow = false;
+            for(int i = off; i < end; i++) {
+                if (text.charAt(i) == '\n') {
+                    if (!accepting()) {
+                        overflow = true;
+                        break;
+                    }
+                    pendingLines++;
+                    lineStart = i + 1;
+                }
+            }
+            if (!overflow && !accepting()) {
+                overflow = true;
+            }
+            if (overflow) {
+                pending.append(text, off, lineStart);
+                spill(text, lineStart, end);
+            } else {
+                pending.append(text, off, end);
+            }
+            if (!scheduled) {
+                scheduled = true;
+                frameTask.schedule((int)frameInterval);
+            }
+        }
+    }
+
+    private boolean accepting() {
+        // leave room for the marker of the suppressed lines
+        return pendingLines < frameLines && windowLines + pendingLines < maxLines - 1;
+    }
+
+    private void spill(CharSequence text, int from, int to) throws IOException {
+        int lines = 0;
+        for(int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        suppressed += lines;
+        if (spill == null) {
+            spillFile = File.createTempFile("btrace-console-", ".log"); // NOI18N
+            spillFile.deleteOnExit();
+            spill = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spillFile), UTF_8), 65536);
+        }
+        spill.append(text, from, to);
+    }
+
+    /**
+     * Hands the collected text over to the target writer
+     */
+    private void frame() {
+        synchronized(targetLock) {
+            String chunk;
+            String marker = null;
+            synchronized(sinkLock) {
+                scheduled = false;
+                chunk = pending.length() > 0 ? pending.toString() : null;
+                // do not keep a flood sized buffer around
+                pending = pending.capacity() > 65536 ? new StringBuilder(8192) : pending;
+                pending.setLength(0);
+                windowLines += pendingLines;
+                pendingLines = 0;
+                if (suppressed > 0) {
+                    if (windowLines < maxLines - 1) {
+                        marker = "[" + suppressed + " lines suppressed, see " + spillFile + "]"; // NOI18N
+                        windowLines++;
+                    } else if (!limitReported) {
+                        // the window is full; say so once instead of a marker per frame
+                        marker = "[" + suppressed + " lines suppressed; the console is full, the rest of the output goes to " + spillFile + "]"; // NOI18N
+                        limitReported = true;
+                        windowLines++;
+                    }
+                    suppressed = 0;
+                }
+                if (spill != null) {
+                    try {
+                        spill.flush();
+                    } catch (IOException e) {
+                        LOGGER.log(FINE, "Unable to write the suppressed console lines", e);
+                    }
+                }
+            }
+            if (chunk != null) {
+                target.write(chunk);
+            }
+            if (marker != null) {
+                target.println(marker);
+            }
+            target.flush();
+        }
+    }
+
+    private void closeTarget() {
+        synchronized(targetLock) {
+            frame();
+            synchronized(sinkLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                deleteSpill();
+            }
+            target.close();
+        }
+    }
+
+    private void deleteSpill() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                LOGGER.log(FINE, "Unable to close the console spill file", e);
+            }
+            spill = null;
+        }
+        if (spillFile != null) {
+            if (!spillFile.delete()) {
+                LOGGER.log(FINE, "Unable to delete the console spill file {0}", spillFile);
+            }
+            spillFile = null;
+        }
+    }
+
+    /**
+     * A char array exposed as {@linkplain CharSequence} without copying
+     */
+    final private static class CharArraySequence implements CharSequence {
+        final private char[] chars;
+
+        CharArraySequence(char[] chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        public int length() {
+            return chars.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.editor.console;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory index of the lines of the multiplexed console
+ * <p>
+ * Each line is identified by its sequence number and tagged by its source
+ * (task PID, script and stream). The lines are kept in fixed size chunks;
+ * once the capacity is exceeded the oldest chunk is discarded. The line
+ * numbers of each source are indexed so that a PID or script filter does not
+ * need to scan the other sources' lines.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class ConsoleIndex {
+    final private static int CHUNK_SIZE = 4096;
+
+    /**
+     * The origin of a line
+     */
+    final static class Source {
+        final private int id;
+        final private int pid;
+        final private String script;
+        final private boolean err;
+        final private String tag;
+
+        private Source(int id, int pid, String script, boolean err) {
+            this.id = id;
+            this.pid = pid;
+            this.script = script;
+            this.err = err;
+            this.tag = "[" + pid + " " + script + "] "; // NOI18N
+        }
+
+        int getPid() {
+            return pid;
+        }
+
+        String getScript() {
+            return script;
+        }
+
+        boolean isErr() {
+            return err;
+        }
+
+        String getTag() {
+            return tag;
+        }
+    }
+
+    /**
+     * The line selection criteria; NULL criteria match all lines
+     */
+    final static class Filter {
+        final static Filter ALL = new Filter(null, null, null);
+
+        final private Integer pid;
+        final private String script;
+        final private Pattern regex;
+
+        Filter(Integer pid, String script, Pattern regex) {
+            this.pid = pid;
+            this.script = script;
+            this.regex = regex;
+        }
+
+        boolean isAll() {
+            return pid == null && script == null && regex == null;
+        }
+
+        private boolean accepts(Source s) {
+            return (pid == null || pid == s.pid) && (script == null || s.script.contains(script));
+        }
+
+        private boolean accepts(Source s, String line) {
+            return accepts(s) && (regex == null || regex.matcher(line).find());
+        }
+    }
+
+    /**
+     * A growable list of sequence numbers supporting the removal from the head
+     */
+    final static class SeqList {
+        private long[] data = new long[64];
+        private int start;
+        private int end;
+
+        void add(long seq) {
+            if (end == data.length) {
+                if (start > data.length / 2) {
+                    System.arraycopy(data, start, data, 0, end - start);
+                } else {
+                    data = Arrays.copyOf(data, data.length * 2);
+                    System.arraycopy(data, start, data, 0, end - start);
+                }
+                end -= start;
+                start = 0;
+            }
+            data[end++] = seq;
+        }
+
+        /**
+         * Removes the leading sequence numbers lower than the given one
+         * @return Returns the number of the removed entries
+         */
+        int trim(long first) {
+            int from = start;
+            while (start < end && data[start] < first) {
+                start++;
+            }
+            return start - from;
+        }
+
+        int size() {
+            return end - start;
+        }
+
+        long get(int index) {
+            return data[start + index];
+        }
+
+        /**
+         * @return Returns the index of the first entry not lower than the given sequence number
+         */
+        int lowerBound(long seq) {
+            int idx = Arrays.binarySearch(data, start, end, seq);
+            return (idx < 0 ? -idx - 1 : idx) - start;
+        }
+
+        /**
+         * Appends the entries within the given range to another list
+         */
+        void copyRange(long from, long to, SeqList target) {
+            for(int i = lowerBound(from); i < size(); i++) {
+                long seq = get(i);
+                if (seq >= to) {
+                    break;
+                }
+                target.add(seq);
+            }
+        }
+
+        private void sort() {
+            Arrays.sort(data, start, end);
+        }
+    }
+
+    final private int maxChunks;
+    final private List<Source> sources = new ArrayList<>();
+    final private List<SeqList> bySource = new ArrayList<>();
+    final private List<String[]> textChunks = new ArrayList<>();
+    final private List<Source[]> sourceChunks = new ArrayList<>();
+    private long first;
+    private long end;
+
+    /**
+     * @param maxLines The maximum number of the retained lines; rounded up to the chunk size
+     */
+    ConsoleIndex(int maxLines) {
+        this.maxChunks = Math.max(2, (maxLines + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    synchronized Source register(int pid, String script, boolean err) {
+        Source s = new Source(sources.size(), pid, script, err);
+        sources.add(s);
+        bySource.add(new SeqList());
+        return s;
+    }
+
+    synchronized void add(Source source, String line) {
+        int offset = (int)(end % CHUNK_SIZE);
+        if (offset == 0) {
+            if (textChunks.size() == maxChunks) {
+                textChunks.remove(0);
+                sourceChunks.remove(0);
+                first += CHUNK_SIZE;
+                for(SeqList l : bySource) {
+                    l.trim(first);
+                }
+            }
+            textChunks.add(new String[CHUNK_SIZE]);
+            sourceChunks.add(new Source[CHUNK_SIZE]);
+        }
+        textChunks.get(textChunks.size() - 1)[offset] = line;
+        sourceChunks.get(sourceChunks.size() - 1)[offset] = source;
+        bySource.get(source.id).add(end);
+        end++;
+    }
+
+    /**
+     * @return Returns the sequence number of the oldest retained line
+     */
+    synchronized long getFirst() {
+        return first;
+    }
+
+    /**
+     * @return Returns the sequence number the next line will get
+     */
+    synchronized long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return Returns the line text or NULL if the line is not retained any more
+     */
+    synchronized String getText(long seq) {
+        if (seq < first || seq >= end) {
+            return null;
+        }
+        long rel = seq - (first - first % CHUNK_SIZE);
+        return textChunks.get((int)(rel / CHUNK_SIZE))[(int)(rel % CHUNK_SIZE)];
+    }
+
+    /**
+     * @return Returns the line source or NULL if the line is not retained any more
+     */
+    synchronized Source getSource(long seq) {
+        if (seq < first || seq >= end) {
+            return null;
+        }
+        long rel = seq - (first - first % CHUNK_SIZE);
+        return sourceChunks.get((int)(rel / CHUNK_SIZE))[(int)(rel % CHUNK_SIZE)];
+    }
+
+    /**
+     * Collects the sequence numbers of the lines matching the filter
+     * <p>
+     * Only the chunk references (and the candidate lines of the per source
+     * index) are taken under the index lock; the matching itself runs
+     * without blocking the producers and the rendering.
+     * </p>
+     * @param filter The filter
+     * @param from The sequence number to start at
+     * @param to The sequence number to stop before
+     * @param result The list to append the matching sequence numbers to
+     */
+    void match(Filter filter, long from, long to, SeqList result) {
+        long base;
+        String[][] texts;
+        Source[][] origins;
+        SeqList candidates = null;
+        synchronized(this) {
+            from = Math.max(from, first);
+            to = Math.min(to, end);
+            if (from >= to) {
+                return;
+            }
+            base = first;
+            texts = textChunks.toArray(new String[textChunks.size()][]);
+            origins = sourceChunks.toArray(new Source[sourceChunks.size()][]);
+            if (to - from > CHUNK_SIZE && (filter.pid != null || filter.script != null)) {
+                // use the per source index instead of scanning all the lines
+                candidates = new SeqList();
+                for(Source s : sources) {
+                    if (filter.accepts(s)) {
+                        bySource.get(s.id).copyRange(from, to, candidates);
+                    }
+                }
+            }
+        }
+        // the retained chunks start at a chunk boundary and the written slots never change
+        if (candidates != null) {
+            // the lines of multiple sources interleave
+            candidates.sort();
+            for(int i = 0; i < candidates.size(); i++) {
+                long seq = candidates.get(i);
+                long rel = seq - base;
+                if (filter.regex == null || filter.regex.matcher(texts[(int)(rel / CHUNK_SIZE)][(int)(rel % CHUNK_SIZE)]).find()) {
+                    result.add(seq);
+                }
+            }
+            return;
+        }
+        for(long seq = from; seq < to; seq++) {
+            long rel = seq - base;
+            int chunk = (int)(rel / CHUNK_SIZE);
+            int offset = (int)(rel % CHUNK_SIZE);
+            if (filter.accepts(origins[chunk][offset], texts[chunk][offset])) {
+                result.add(seq);
+            }
+        }
+    }
+}
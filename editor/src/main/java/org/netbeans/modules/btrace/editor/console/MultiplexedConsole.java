@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.editor.console;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import javax.swing.AbstractListModel;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.JToolBar;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.UIManager;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import org.netbeans.modules.btrace.api.BTraceTask;
+import org.netbeans.modules.btrace.editor.console.ConsoleIndex.Filter;
+import org.netbeans.modules.btrace.editor.console.ConsoleIndex.SeqList;
+import org.netbeans.modules.btrace.editor.console.ConsoleIndex.Source;
+import org.openide.util.RequestProcessor;
+import org.openide.windows.Mode;
+import org.openide.windows.TopComponent;
+import org.openide.windows.WindowManager;
+
+/**
+ * A single console merging the output of all the tasks
+ * <p>
+ * Each line is prefixed by the PID and script of its task. The view can be
+ * filtered by PID, script name and a regular expression. The lines are kept in
+ * a {@linkplain ConsoleIndex}; the list renders only the visible rows and is
+ * refreshed at a fixed rate, independently of the output rate.
+ * </p>
+ *
+ * @author Jaroslav Bachorik
+ */
+final class MultiplexedConsole extends TopComponent {
+    final private static int MAX_LINES = 1000000;
+    final private static int REFRESH_INTERVAL = 100;
+    final private static int FILTER_DELAY = 300;
+    final private static String PROTOTYPE_LINE = String.format("%200s", ""); // NOI18N
+
+    final private static RequestProcessor RP = new RequestProcessor("BTrace Console Filter", 1); // NOI18N
+    final private static ConsoleIndex INDEX = new ConsoleIndex(MAX_LINES);
+    final private static Map<BTraceTask, PrintWriter[]> writers = new WeakHashMap<>();
+
+    private static MultiplexedConsole instance;
+
+    /**
+     * Splits the written text into the index lines
+     */
+    final private static class LineWriter extends Writer {
+        final private Source source;
+        final private StringBuilder partial = new StringBuilder();
+
+        LineWriter(Source source) {
+            this.source = source;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for(int i = off; i < off + len; i++) {
+                char c = cbuf[i];
+                if (c == '\n') {
+                    emit();
+                } else if (c != '\r') {
+                    partial.append(c);
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            // lines are emitted as soon as complete
+        }
+
+        @Override
+        public void close() {
+            if (partial.length() > 0) {
+                emit();
+            }
+        }
+
+        private void emit() {
+            INDEX.add(source, partial.toString());
+            partial.setLength(0);
+        }
+    }
+
+    /**
+     * Exposes either all the retained lines or the lines matching the current filter
+     */
+    final private static class LineModel extends AbstractListModel<String> {
+        private Filter filter = Filter.ALL;
+        // the displayed range when not filtering
+        private long shownFirst;
+        private long shownEnd;
+        // the matching lines when filtering
+        private SeqList matches;
+        private long scannedTo;
+        // an incremental match is running on the request processor
+        private boolean matching;
+
+        @Override
+        public int getSize() {
+            return matches == null ? (int)(shownEnd - shownFirst) : matches.size();
+        }
+
+        @Override
+        public String getElementAt(int index) {
+            long seq = getSeq(index);
+            Source s = INDEX.getSource(seq);
+            String text = INDEX.getText(seq);
+            return s != null ? s.getTag() + text : ""; // NOI18N
+        }
+
+        boolean isErr(int index) {
+            Source s = INDEX.getSource(getSeq(index));
+            return s != null && s.isErr();
+        }
+
+        private long getSeq(int index) {
+            return matches == null ? shownFirst + index : matches.get(index);
+        }
+
+        /**
+         * Catches up with the index; called on the EDT
+         */
+        void refresh() {
+            long first = INDEX.getFirst();
+            long end = INDEX.getEnd();
+            int removed;
+            int oldSize = getSize();
+            if (matches == null) {
+                removed = (int)Math.min(Math.max(0, first - shownFirst), oldSize);
+                shownFirst = Math.max(shownFirst, first);
+                shownEnd = end;
+            } else {
+                removed = matches.trim(first);
+                if (!matching && end > scannedTo) {
+                    // the filter may be an expensive regex; never run it on the EDT
+                    matching = true;
+                    final Filter f = filter;
+                    final long from = scannedTo;
+                    RP.post(() -> {
+                        final SeqList found = new SeqList();
+                        INDEX.match(f, from, end, found);
+                        SwingUtilities.invokeLater(() -> appendMatches(f, from, end, found));
+                    });
+                }
+            }
+            fireChanges(oldSize, removed);
+        }
+
+        /**
+         * Appends the result of an incremental match; called on the EDT
+         */
+        private void appendMatches(Filter f, long from, long to, SeqList found) {
+            matching = false;
+            if (filter != f || matches == null || scannedTo != from) {
+                // the filter has changed in the meantime
+                return;
+            }
+            int oldSize = getSize();
+            for(int i = 0; i < found.size(); i++) {
+                matches.add(found.get(i));
+            }
+            scannedTo = to;
+            fireChanges(oldSize, matches.trim(INDEX.getFirst()));
+        }
+
+        private void fireChanges(int oldSize, int removed) {
+            if (removed > 0) {
+                fireIntervalRemoved(this, 0, removed - 1);
+            }
+            int size = getSize();
+            int kept = oldSize - removed;
+            if (size > kept) {
+                fireIntervalAdded(this, kept, size - 1);
+            }
+        }
+
+        /**
+         * Replaces the filter; called on the EDT
+         * @param f The new filter
+         * @param matched The lines matching the filter, up to {@code to}; NULL for the unfiltered view
+         * @param to The sequence number the matching stopped before
+         */
+        void setFilter(Filter f, SeqList matched, long to) {
+            filter = f;
+            matches = matched;
+            scannedTo = to;
+            if (matched == null) {
+                shownFirst = INDEX.getFirst();
+                shownEnd = INDEX.getEnd();
+            }
+            fireContentsChanged(this, 0, Integer.MAX_VALUE);
+            refresh();
+        }
+    }
+
+    final private LineModel model = new LineModel();
+    final private JList<String> list = new JList<>(model);
+    final private JTextField pidField = new JTextField(6);
+    final private JTextField scriptField = new JTextField(12);
+    final private JTextField regexField = new JTextField(20);
+    final private Timer refreshTimer;
+    final private Timer filterTimer;
+    private Filter requested = Filter.ALL;
+    // the view sticks to the last line while it is scrolled to the bottom
+    private boolean following = true;
+
+    private MultiplexedConsole() {
+        setName("BTrace Console"); // NOI18N
+        setDisplayName("BTrace Console");
+        setLayout(new BorderLayout());
+
+        list.setFont(new Font(Font.MONOSPACED, Font.PLAIN, list.getFont().getSize()));
+        // fixed cell dimensions let the list lay out and render only the visible rows
+        list.setPrototypeCellValue(PROTOTYPE_LINE);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> l, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                Component c = super.getListCellRendererComponent(l, value, index, isSelected, cellHasFocus);
+                if (!isSelected && model.isErr(index)) {
+                    c.setForeground(Color.RED);
+                }
+                return c;
+            }
+        });
+
+        JToolBar filterBar = new JToolBar();
+        filterBar.setFloatable(false);
+        filterBar.add(new JLabel("PID: "));
+        filterBar.add(pidField);
+        filterBar.addSeparator();
+        filterBar.add(new JLabel("Script: "));
+        filterBar.add(scriptField);
+        filterBar.addSeparator();
+        filterBar.add(new JLabel("Regex: "));
+        filterBar.add(regexField);
+
+        add(filterBar, BorderLayout.NORTH);
+        add(new JScrollPane(list), BorderLayout.CENTER);
+
+        refreshTimer = new Timer(REFRESH_INTERVAL, e -> refresh());
+        filterTimer = new Timer(FILTER_DELAY, e -> applyFilter());
+        filterTimer.setRepeats(false);
+        DocumentListener dl = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+        };
+        pidField.getDocument().addDocumentListener(dl);
+        scriptField.getDocument().addDocumentListener(dl);
+        regexField.getDocument().addDocumentListener(dl);
+        model.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                if (following) {
+                    list.ensureIndexIsVisible(e.getIndex1());
+                }
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+            }
+        });
+        model.setFilter(Filter.ALL, null, 0);
+    }
+
+    /**
+     * Provides the writer feeding the console with the output of a task
+     * @param task The task
+     * @param err TRUE for the error stream
+     * @return Returns the writer; shared for all the callers
+     */
+    static PrintWriter getWriter(BTraceTask task, boolean err) {
+        PrintWriter[] pair;
+        synchronized(writers) {
+            pair = writers.get(task);
+            if (pair == null) {
+                String script = task.getName() != null ? task.getName() : "<?>";
+                pair = new PrintWriter[]{
+                    new PrintWriter(new LineWriter(INDEX.register(task.getPid(), script, false))),
+                    new PrintWriter(new LineWriter(INDEX.register(task.getPid(), script, true)))
+                };
+                writers.put(task, pair);
+                SwingUtilities.invokeLater(MultiplexedConsole::showConsole);
+            }
+        }
+        return pair[err ? 1 : 0];
+    }
+
+    private static void showConsole() {
+        if (instance == null) {
+            instance = new MultiplexedConsole();
+        }
+        if (!instance.isOpened()) {
+            Mode output = WindowManager.getDefault().findMode("output"); // NOI18N
+            if (output != null) {
+                output.dockInto(instance);
+            }
+            instance.open();
+        }
+        instance.requestVisible();
+    }
+
+    @Override
+    public int getPersistenceType() {
+        return PERSISTENCE_NEVER;
+    }
+
+    @Override
+    protected void componentOpened() {
+        refreshTimer.start();
+    }
+
+    @Override
+    protected void componentClosed() {
+        refreshTimer.stop();
+    }
+
+    private void refresh() {
+        int size = model.getSize();
+        following = size == 0 || list.getLastVisibleIndex() >= size - 1;
+        model.refresh();
+    }
+
+    private void applyFilter() {
+        Color fg = UIManager.getColor("TextField.foreground"); // NOI18N
+        pidField.setForeground(fg);
+        regexField.setForeground(fg);
+        Integer pid = null;
+        String pidText = pidField.getText().trim();
+        if (!pidText.isEmpty()) {
+            try {
+                pid = Integer.valueOf(pidText);
+            } catch (NumberFormatException e) {
+                pidField.setForeground(Color.RED);
+                return;
+            }
+        }
+        String script = scriptField.getText().trim();
+        Pattern regex = null;
+        String regexText = regexField.getText();
+        if (!regexText.isEmpty()) {
+            try {
+                regex = Pattern.compile(regexText);
+            } catch (PatternSyntaxException e) {
+                regexField.setForeground(Color.RED);
+                return;
+            }
+        }
+        final Filter f = new Filter(pid, script.isEmpty() ? null : script, regex);
+        requested = f;
+        if (f.isAll()) {
+            model.setFilter(f, null, 0);
+            return;
+        }
+        // the initial match may need to go through the whole history
+        RP.post(() -> {
+            final SeqList matched = new SeqList();
+            final long to = INDEX.getEnd();
+            INDEX.match(f, 0, to, matched);
+            SwingUtilities.invokeLater(() -> {
+                if (requested == f) {
+                    list.clearSelection();
+                    model.setFilter(f, matched, to);
+                }
+            });
+        });
+    }
+}
@@ -57,6 +57,7 @@ import org.netbeans.modules.btrace.api.BTraceTask.State;
 import static org.netbeans.modules.btrace.api.BTraceTask.State.FAILED;
 import static org.netbeans.modules.btrace.api.BTraceTask.State.FINISHED;
 import static org.netbeans.modules.btrace.api.BTraceTask.State.RUNNING;
+import org.netbeans.modules.btrace.api.options.BTraceSettings;
 import org.netbeans.modules.btrace.spi.OutputProvider;
 import org.openide.DialogDescriptor;
 import org.openide.DialogDisplayer;
@@ -72,7 +73,20 @@ import org.openide.windows.InputOutput;
  */
 @ServiceProvider(service=OutputProvider.class)
 public class OutputSupport implements OutputProvider {
-    final private Map<BTraceTask, InputOutput> ioMap = new WeakHashMap<>();
+    /**
+     * The output window of a task together with its coalescing writers
+     */
+    final private static class TaskConsole {
+        final private CoalescingOutputWriter out;
+        final private CoalescingOutputWriter err;
+
+        TaskConsole(InputOutput io) {
+            this.out = new CoalescingOutputWriter(io.getOut());
+            this.err = new CoalescingOutputWriter(io.getErr());
+        }
+    }
+
+    final private Map<BTraceTask, TaskConsole> ioMap = new WeakHashMap<>();
     final private Map<String, InputOutput> toClose = new HashMap<>();
 
     public PrintWriter getStdOut(BTraceTask task) {
@@ -88,28 +102,36 @@ public class OutputSupport implements OutputProvider {
     }
 
     private PrintWriter getStdOutEx(BTraceTask task) {
-        return getTaskIO(task).getOut();
+        return isMultiplexed() ? MultiplexedConsole.getWriter(task, false) : getTaskConsole(task).out;
     }
 
     public PrintWriter getStdErrEx(BTraceTask task) {
-        return getTaskIO(task).getErr();
+        return isMultiplexed() ? MultiplexedConsole.getWriter(task, true) : getTaskConsole(task).err;
+    }
+
+    /**
+     * When set in the BTrace options the output of all the tasks goes to the single {@linkplain MultiplexedConsole}
+     */
+    private static boolean isMultiplexed() {
+        return BTraceSettings.sharedInstance().isMultiplexedConsole();
     }
 
-    private InputOutput getTaskIO(BTraceTask task) {
+    private TaskConsole getTaskConsole(BTraceTask task) {
         synchronized(ioMap) {
             String ioTitle = (task.getName() != null ? task.getName() : "<?>") + "@" + task.getPid();
-            InputOutput io = ioMap.get(task);
-            if (io == null) {
-                io = toClose.remove(ioTitle);
+            TaskConsole console = ioMap.get(task);
+            if (console == null) {
+                InputOutput io = toClose.remove(ioTitle);
                 if (io != null) {
                     io.closeInputOutput();
                 }
                 io = IOProvider.getDefault().getIO(ioTitle, getTaskActions(task));
-                ioMap.put(task, io);
+                console = new TaskConsole(io);
+                ioMap.put(task, console);
                 toClose.put(ioTitle, io);
                 io.select();
             }
-            return io;
+            return console;
         }
     }
 
@@ -137,7 +137,7 @@ public class DeployAction extends AbstractToolbarAction {
 
                 BTraceTask existingTask = getContext().lookup(BTraceTask.class);
                 if (existingTask != null) {
-                    existingTask.stop();
+                    existingTask.stopAsync();
                     return;
                 }
 
@@ -157,6 +157,15 @@ public class DeployAction extends AbstractToolbarAction {
                             out.print(message);
                         }
 
+                        @Override
+                        public void onPrintMessages(List<String> messages) {
+                            StringBuilder sb = new StringBuilder();
+                            for(String message : messages) {
+                                sb.append(message);
+                            }
+                            out.print(sb);
+                        }
+
                         @Override
                         public void onNumberMap(String name, Map<String, ? extends Number> data) {
                             out.println("##### " + name + "#####");
@@ -279,7 +288,7 @@ public class DeployAction extends AbstractToolbarAction {
                             previousState = state;
                         }
                     });
-                    task.start();
+                    task.startAsync();
                 }
             }
         });
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2016, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.netbeans.modules.btrace.editor.console;
+
+import java.util.regex.Pattern;
+import org.junit.Test;
+import org.netbeans.modules.btrace.editor.console.ConsoleIndex.Filter;
+import org.netbeans.modules.btrace.editor.console.ConsoleIndex.SeqList;
+import org.netbeans.modules.btrace.editor.console.ConsoleIndex.Source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jaroslav Bachorik
+ */
+public class ConsoleIndexTest {
+    final private static int CHUNK = 4096;
+
+    final private ConsoleIndex index = new ConsoleIndex(3 * CHUNK);
+    final private Source a = index.register(1, "a.java", false);
+    final private Source b = index.register(2, "b.java", false);
+    final private Source aErr = index.register(1, "a.java", true);
+
+    private void fill(int lines) {
+        for(int i = 0; i < lines; i++) {
+            index.add(i % 3 == 0 ? a : i % 3 == 1 ? b : aErr, "line " + i); // NOI18N
+        }
+    }
+
+    private SeqList match(Filter filter, long from, long to) {
+        SeqList result = new SeqList();
+        index.match(filter, from, to, result);
+        return result;
+    }
+
+    @Test
+    public void retainsLinesAndSources() {
+        fill(10);
+        assertEquals(0, index.getFirst());
+        assertEquals(10, index.getEnd());
+        assertEquals("line 4", index.getText(4));
+        assertSame(b, index.getSource(4));
+        assertNull(index.getText(10));
+        assertEquals("[1 a.java] ", a.getTag());
+        assertTrue(aErr.isErr());
+    }
+
+    @Test
+    public void discardsTheOldestChunk() {
+        fill(20000);
+        assertEquals(20000 - 20000 % CHUNK - 2 * CHUNK, index.getFirst());
+        assertEquals(20000, index.getEnd());
+        assertNull(index.getText(index.getFirst() - 1));
+        assertEquals("line " + index.getFirst(), index.getText(index.getFirst()));
+        assertEquals("line 19999", index.getText(19999));
+    }
+
+    @Test
+    public void allFilterScansTheRetainedRange() {
+        fill(20000);
+        SeqList all = match(Filter.ALL, 0, Long.MAX_VALUE);
+        assertEquals(index.getEnd() - index.getFirst(), all.size());
+        assertEquals(index.getFirst(), all.get(0));
+        assertEquals(0, match(Filter.ALL, 20000, 30000).size());
+    }
+
+    @Test
+    public void pidFilterUsesTheSourceIndexInOrder() {
+        fill(20000);
+        long from = index.getFirst();
+        SeqList pid1 = match(new Filter(1, null, null), 0, index.getEnd());
+        long expected = 0;
+        for(long seq = from; seq < 20000; seq++) {
+            if (seq % 3 != 1) {
+                expected++;
+            }
+        }
+        assertEquals(expected, pid1.size());
+        for(int i = 0; i < pid1.size(); i++) {
+            assertTrue(pid1.get(i) % 3 != 1);
+            if (i > 0) {
+                assertTrue(pid1.get(i) > pid1.get(i - 1));
+            }
+        }
+    }
+
+    @Test
+    public void scriptAndRegexCombine() {
+        fill(20000);
+        SeqList m = match(new Filter(null, "b", Pattern.compile("99$")), 0, index.getEnd()); // NOI18N
+        for(int i = 0; i < m.size(); i++) {
+            assertEquals(1, m.get(i) % 3);
+            assertTrue(m.get(i) % 100 == 99);
+        }
+        assertTrue(m.size() > 0);
+        // a short range is scanned directly
+        SeqList shortRange = match(new Filter(2, null, Pattern.compile("line 1999\\d$")), 19990, 20000); // NOI18N
+        assertEquals(4, shortRange.size());
+        assertEquals(19990, shortRange.get(0));
+    }
+
+    @Test
+    public void seqListTrimAndLowerBound() {
+        SeqList l = new SeqList();
+        for(long seq = 0; seq < 1000; seq += 2) {
+            l.add(seq);
+        }
+        assertEquals(500, l.size());
+        assertEquals(5, l.lowerBound(9));
+        assertEquals(5, l.trim(10));
+        assertEquals(10, l.get(0));
+        assertEquals(0, l.lowerBound(0));
+        for(long seq = 1000; seq < 2000; seq++) {
+            l.add(seq);
+        }
+        assertEquals(1495, l.size());
+        assertEquals(1999, l.get(l.size() - 1));
+    }
+}